@@ -0,0 +1,237 @@
+package se.helsingborg.event;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Registry of service wide counters, histograms and gauges,
+ * rendered in the Prometheus text exposition format.
+ * <p/>
+ * Metrics are grouped in families by name. Each family holds one series per set of labels,
+ * e.g. <code>endpoint="SearchServlet",status="200"</code>, see {@link #label(String, String)}.
+ * Labels must be of bounded cardinality, i.e. never arbitrary client input.
+ *
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class Metrics {
+
+  private static final Logger log = LoggerFactory.getLogger(Metrics.class);
+
+  private static Metrics instance = new Metrics();
+
+  public static Metrics getInstance() {
+    return instance;
+  }
+
+  private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+  private Metrics() {
+
+  }
+
+  /**
+   * @param name Unique name of the counter, e.g. search_coalesced_total
+   * @param help Description of the counter
+   * @return The counter registered under the name, created if not already registered.
+   */
+  public Counter getCounter(String name, String help) {
+    return getCounter(name, help, "");
+  }
+
+  public Counter getCounter(String name, String help, String labels) {
+    Family family = getFamily(name, help, "counter");
+    Object series = family.series.get(labels);
+    if (series == null) {
+      Object existing = family.series.putIfAbsent(labels, series = new Counter());
+      if (existing != null) {
+        series = existing;
+      }
+    }
+    return (Counter) series;
+  }
+
+  public Histogram getHistogram(String name, String help, String labels) {
+    Family family = getFamily(name, help, "histogram");
+    Object series = family.series.get(labels);
+    if (series == null) {
+      Object existing = family.series.putIfAbsent(labels, series = new Histogram());
+      if (existing != null) {
+        series = existing;
+      }
+    }
+    return (Histogram) series;
+  }
+
+  /**
+   * Registers a gauge, replacing any previously registered gauge with the same name and labels.
+   */
+  public void setGauge(String name, String help, String labels, Gauge gauge) {
+    getFamily(name, help, "gauge").series.put(labels, gauge);
+  }
+
+  private Family getFamily(String name, String help, String type) {
+    Family family = families.get(name);
+    if (family == null) {
+      Family existing = families.putIfAbsent(name, family = new Family(help, type));
+      if (existing != null) {
+        family = existing;
+      }
+    }
+    if (!type.equals(family.type)) {
+      throw new IllegalStateException(name + " is registered as " + family.type + ", not " + type);
+    }
+    return family;
+  }
+
+  /**
+   * @return A label pair with the value escaped.
+   */
+  public static String label(String name, String value) {
+    return name + "=\"" + String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+  }
+
+  /**
+   * Writes all metrics in the Prometheus text exposition format, version 0.0.4.
+   */
+  public void write(Appendable out) throws IOException {
+    for (Map.Entry<String, Family> familyEntry : families.entrySet()) {
+      String name = familyEntry.getKey();
+      Family family = familyEntry.getValue();
+      out.append("# HELP ").append(name).append(' ').append(family.help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+      out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+      for (Map.Entry<String, Object> seriesEntry : family.series.entrySet()) {
+        String labels = seriesEntry.getKey();
+        Object series = seriesEntry.getValue();
+        if (series instanceof Counter) {
+          writeSample(out, name, labels, String.valueOf(((Counter) series).get()));
+
+        } else if (series instanceof Histogram) {
+          Histogram histogram = (Histogram) series;
+          String separator = labels.isEmpty() ? "" : ",";
+          long cumulative = 0;
+          for (int i = 0; i < Histogram.BUCKETS.length; i++) {
+            cumulative += histogram.counts.get(i);
+            writeSample(out, name + "_bucket", labels + separator + label("le", BigDecimal.valueOf(Histogram.BUCKETS[i]).toPlainString()), String.valueOf(cumulative));
+          }
+          cumulative += histogram.counts.get(Histogram.BUCKETS.length);
+          writeSample(out, name + "_bucket", labels + separator + label("le", "+Inf"), String.valueOf(cumulative));
+          writeSample(out, name + "_sum", labels, String.valueOf(histogram.sumNanos.get() / 1000000000d));
+          writeSample(out, name + "_count", labels, String.valueOf(cumulative));
+
+        } else if (series instanceof Gauge) {
+          double value;
+          try {
+            value = ((Gauge) series).getValue();
+          } catch (Exception e) {
+            log.warn("Could not read gauge " + name + "{" + labels + "}", e);
+            continue;
+          }
+          writeSample(out, name, labels, Double.isNaN(value) ? "NaN" : String.valueOf(value));
+        }
+      }
+    }
+  }
+
+  private void writeSample(Appendable out, String name, String labels, String value) throws IOException {
+    out.append(name);
+    if (!labels.isEmpty()) {
+      out.append('{').append(labels).append('}');
+    }
+    out.append(' ').append(value).append('\n');
+  }
+
+  private static class Family {
+    private final String help;
+    private final String type;
+    private final ConcurrentMap<String, Object> series = new ConcurrentSkipListMap<>();
+
+    private Family(String help, String type) {
+      this.help = help == null ? "" : help;
+      this.type = type;
+    }
+  }
+
+  public static class Counter {
+
+    private final AtomicLong value = new AtomicLong();
+
+    private Counter() {
+    }
+
+    public void increment() {
+      value.incrementAndGet();
+    }
+
+    public void add(long delta) {
+      value.addAndGet(delta);
+    }
+
+    public long get() {
+      return value.get();
+    }
+  }
+
+  /**
+   * Latency histogram with log-linear buckets from 100 microseconds to 60 seconds,
+   * i.e. 1, 2 and 5 of each power of ten, allowing for percentiles to be estimated within the bucket.
+   */
+  public static class Histogram {
+
+    private static final double[] BUCKETS = {
+        0.0001, 0.0002, 0.0005,
+        0.001, 0.002, 0.005,
+        0.01, 0.02, 0.05,
+        0.1, 0.2, 0.5,
+        1, 2, 5,
+        10, 20, 60
+    };
+
+    private static final long[] BUCKET_NANOS = new long[BUCKETS.length];
+
+    static {
+      for (int i = 0; i < BUCKETS.length; i++) {
+        BUCKET_NANOS[i] = (long) (BUCKETS[i] * 1000000000d);
+      }
+    }
+
+    /**
+     * Per bucket, not cumulative. The last is for observations above the largest bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS.length + 1);
+    private final AtomicLong sumNanos = new AtomicLong();
+
+    private Histogram() {
+    }
+
+    public void observeNanos(long nanos) {
+      int bucket = 0;
+      while (bucket < BUCKET_NANOS.length && nanos > BUCKET_NANOS[bucket]) {
+        bucket++;
+      }
+      counts.incrementAndGet(bucket);
+      sumNanos.addAndGet(nanos);
+    }
+
+    public long getCount() {
+      long count = 0;
+      for (int i = 0; i < counts.length(); i++) {
+        count += counts.get(i);
+      }
+      return count;
+    }
+  }
+
+  public interface Gauge {
+    double getValue() throws Exception;
+  }
+
+}
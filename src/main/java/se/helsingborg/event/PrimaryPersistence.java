@@ -11,6 +11,9 @@ import java.util.Iterator;
  */
 public class PrimaryPersistence {
 
+  /**
+   * Called once before use. Other methods might then be called by any number of threads concurrently.
+   */
   public void connect() throws Exception {
 
   }
@@ -19,6 +22,9 @@ public class PrimaryPersistence {
 
   }
 
+  /**
+   * @return The event, or null or a tombstone if the event has been deleted or unpublished, see {@link #listUpdated(long)}.
+   */
   public JSONObject getEvent(long eventId) throws Exception {
     throw new UnsupportedOperationException("Not implmented");
   }
@@ -27,6 +33,10 @@ public class PrimaryPersistence {
     throw new UnsupportedOperationException("Not implmented");
   }
 
+  /**
+   * @return Events created, modified, deleted or unpublished since the given time.
+   * Deleted and unpublished events are tombstones, i.e. <code>{"eventId": 123, "deleted": true}</code>.
+   */
   public Iterator<JSONObject> listUpdated(long sinceDateTimeEpochMilliseconds) throws Exception {
     throw new UnsupportedOperationException("Not implmented");
   }
@@ -1,19 +1,36 @@
 package se.helsingborg.event.search;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.lucene.document.*;
 import org.apache.lucene.index.*;
 import org.apache.lucene.search.*;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import se.helsingborg.event.Metrics;
 import se.helsingborg.event.domin.*;
+import se.helsingborg.event.search.query.QueryCostEstimator;
+import se.helsingborg.event.util.DeflateUtil;
+import se.helsingborg.event.util.JSONUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * @author kalle
@@ -27,6 +44,8 @@ public class IndexManager {
   public static final String FIELD_EVENT_IDENTITY_INDEXED = "Event#identity";
   public static final String FIELD_EVENT_IDENTITY_VALUE = "Event#identity[value]";
   public static final String FIELD_EVENT_JSON_VALUE = "Event#json[value]";
+  public static final String FIELD_EVENT_JSON_PRECOMPRESSED_VALUE = "Event#json[precompressed value]";
+  public static final String FIELD_EVENT_CONTENT_HASH_VALUE = "Event#content hash[value]";
 
   public static final String FIELD_EVENT_CREATED = "Event#created";
   public static final String FIELD_EVENT_MODIFIED = "Event#modified";
@@ -61,11 +80,300 @@ public class IndexManager {
   public static final String FIELD_EVENT_SHOW_START_DATE_TIME = "Event.show#start date time";
   public static final String FIELD_EVENT_SHOW__END_DATE_TIME = "Event.show#end date time";
 
+  /**
+   * File in {@link #dataPath} naming the directory of the current index.
+   */
+  private static final String CURRENT_INDEX_FILE = "current";
+
+  private static final String INDEX_DIRECTORY_PREFIX = "index-";
+
+  /**
+   * Directory in {@link #dataPath} of the archive index, see {@link #archive()}.
+   */
+  private static final String ARCHIVE_DIRECTORY = "archive";
+
+  /**
+   * Directory in {@link #dataPath} of the future tier, see {@link #updateHotTier()}.
+   */
+  private static final String FUTURE_DIRECTORY = "future";
+
+  /**
+   * Holds one directory per index, see {@link #CURRENT_INDEX_FILE}.
+   */
   private File dataPath;
 
-  private Directory directory;
-  private IndexWriter indexWriter;
-  private SearcherManager searcherManager;
+  /**
+   * An index directory with its writer and near real time searcher, replaced as a whole when the index is rebuilt.
+   */
+  private static class Index {
+
+    private File path;
+    private Directory directory;
+    private IndexWriter indexWriter;
+    private TrackingIndexWriter trackingIndexWriter;
+    private SearcherManager searcherManager;
+
+    /**
+     * Refreshes the searcher in the background, making updates visible to searches without committing.
+     */
+    private ControlledRealTimeReopenThread<IndexSearcher> reopenThread;
+
+    /**
+     * Added to the generations of the tracking index writer, keeping generations increasing when the index is replaced.
+     */
+    private long generationOffset;
+
+    /**
+     * Reader versions of different indices are not comparable.
+     */
+    private long openedEpochMilliseconds;
+
+  }
+
+  private volatile Index index;
+
+  /**
+   * Searcher knowing the version of the live index it searches, see {@link #getIndexVersion()}.
+   */
+  private static class VersionedIndexSearcher extends IndexSearcher {
+
+    private final String indexVersion;
+
+    /**
+     * The reader of the live index, also if this searcher searches the archive or the future tier with it.
+     */
+    private final IndexReader liveIndexReader;
+
+    private VersionedIndexSearcher(IndexReader indexReader, String indexVersion, IndexReader liveIndexReader) {
+      super(indexReader);
+      this.indexVersion = indexVersion;
+      this.liveIndexReader = liveIndexReader;
+    }
+  }
+
+  /**
+   * Taken shared by updates and commits, and exclusively when replacing the index.
+   */
+  private final ReadWriteLock replaceLock = new ReentrantReadWriteLock();
+
+  /**
+   * State of a rebuild in progress, see {@link #beginRebuild()}.
+   */
+  private static class Rebuild {
+
+    private Index index;
+
+    /**
+     * Partitions of the events written by their own index writer and merged into {@link #index} when finished,
+     * or null if events are written directly to the rebuilt index. See {@link #rebuildShards}.
+     */
+    private Index[] shards;
+
+    /**
+     * Number of documents per event written to the rebuilt index, validated before replacing the live index.
+     */
+    private final ConcurrentMap<Long, Integer> documentsPerEvent = new ConcurrentHashMap<>();
+
+    /**
+     * Latest documents of events updated in the live index while rebuilding, empty if deleted,
+     * replayed on the rebuilt index as the export might be older.
+     */
+    private final ConcurrentMap<Long, List<Document>> replay = new ConcurrentHashMap<>();
+
+    /**
+     * Events with all shows ended before this are written to the archive rather than to the rebuilt index.
+     */
+    private long archivedBeforeEpochMilliseconds;
+
+    /**
+     * Events written to the archive while rebuilding.
+     */
+    private final Set<Long> archived = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    /**
+     * Events with all shows starting at or after this are written to the future tier rather than to the rebuilt index.
+     */
+    private long futureFromEpochMilliseconds;
+
+    /**
+     * Events written to the future tier while rebuilding.
+     */
+    private final Set<Long> future = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+  }
+
+  private volatile Rebuild rebuild;
+
+  /**
+   * Events whose last show ended more than {@link #archiveAfterMilliseconds} ago, moved here from the live index by {@link #archive()}.
+   * Only searched by requests reaching that far into the past. Null if archiving is disabled and nothing has been archived.
+   */
+  private Index archive;
+
+  /**
+   * Events with all shows starting beyond the hot tier horizon, moved here from the live index by {@link #updateHotTier()},
+   * i.e. the live index is the hot tier of current, upcoming and recently passed events.
+   * Only searched by requests not restricted to shows starting before {@link #futureFromEpochMilliseconds}.
+   * Null if the hot tier is disabled and nothing has been moved to the future tier.
+   */
+  private Index future;
+
+  /**
+   * The future tier only contains events with all shows starting at or after this.
+   */
+  private volatile long futureFromEpochMilliseconds = Long.MAX_VALUE;
+
+  /**
+   * Events updated or deleted in the live index while moving events between the live index and the archive
+   * or the future tier, kept where the update put them. Null unless moving.
+   */
+  private volatile Set<Long> updatedWhileMoving;
+
+  /**
+   * Events are archived when their last show ended more than this long ago, or never if 0.
+   */
+  private long archiveAfterMilliseconds = TimeUnit.DAYS.toMillis(30);
+
+  /**
+   * Time between archiving events and updating the hot tier, or 0 to only do so when {@link #archive()}
+   * and {@link #updateHotTier()} are called.
+   */
+  private long archiveIntervalMilliseconds = TimeUnit.HOURS.toMillis(1);
+
+  /**
+   * Events with shows starting within this time from now are kept in the live index, i.e. the hot tier,
+   * and events with all shows starting later in the future tier. 0 keeps all upcoming events in the live index.
+   */
+  private long hotTierMilliseconds = 0;
+
+  /**
+   * If true the files of the live and rebuilt index are memory mapped and loaded into physical memory when opened.
+   * The archive and the future tier are not preloaded.
+   */
+  private boolean preload = true;
+
+  /**
+   * A rebuilt index with less events than this ratio of the live index is considered broken, e.g. a truncated export.
+   */
+  private double rebuildMinimumEventsRatio = 0.5;
+
+  /**
+   * Index writer buffer while rebuilding, flushing less often than updates do. Shared by all shards.
+   */
+  private double rebuildRAMBufferSizeMB = 128;
+
+  /**
+   * Number of partitions of the events written to temporary indices of their own while rebuilding,
+   * each by a single writer thread, see {@link #getRebuiltIndexShard(long)}. 1 writes directly to the rebuilt index.
+   */
+  private int rebuildShards = 1;
+
+  /**
+   * If positive the rebuilt index is force merged to at most this many segments before replacing the live index.
+   */
+  private int rebuildMaximumSegments = 0;
+
+  /**
+   * Durably commits updates and reclaims deletes in the background.
+   */
+  private ScheduledExecutorService maintenanceScheduler;
+
+  /**
+   * Updates are visible to searches within this time.
+   */
+  private long maximumStaleMilliseconds = 1000;
+
+  /**
+   * Updates are visible to searches within this time when someone is waiting for them, see {@link #waitForGeneration(long)}.
+   */
+  private long minimumStaleMilliseconds = 25;
+
+  /**
+   * Searches passing a consistency token wait at most this long for the update to become visible,
+   * then search the stale index rather than failing.
+   */
+  private long maximumConsistencyWaitMilliseconds = 1000;
+
+  /**
+   * Time between durable commits of updates, or 0 to only commit when {@link #commit()} is called.
+   */
+  private long commitIntervalMilliseconds = TimeUnit.MINUTES.toMillis(1);
+
+  /**
+   * Time between checks for deleted documents to reclaim, or 0 to only reclaim when {@link #reclaimDeletes()} is called.
+   */
+  private long reclaimDeletesIntervalMilliseconds = TimeUnit.HOURS.toMillis(1);
+
+  /**
+   * Deleted documents are reclaimed when they make up at least this ratio of all documents.
+   */
+  private double reclaimDeletesMinimumRatio = 0.1;
+
+  /**
+   * Set when opened, as uncommitted generations are lost on restart and might thus be reused.
+   */
+  private long openedEpochMilliseconds;
+
+  private SearchCoalescer searchCoalescer = new SearchCoalescer();
+
+  /**
+   * If false every search is executed, e.g. when benchmarking.
+   */
+  private boolean searchCoalescing = true;
+
+  /**
+   * Searches estimated to cost more than this are rejected, see {@link QueryCostEstimator}.
+   */
+  private long maximumQueryCost = Long.MAX_VALUE;
+
+  /**
+   * At most this many of the requests of a batch are executed at the same time, including the calling thread,
+   * i.e. a single batch never occupies more than this minus one threads or queue slots of the executor.
+   */
+  private int maximumBatchParallelism = 4;
+
+  /**
+   * Searches requesting results beyond this are limited.
+   */
+  private int maximumResults = Integer.MAX_VALUE;
+
+  /**
+   * Content hash and generation of an update, see {@link #findContentHash(long, long)}.
+   */
+  private static class IndexedContentHash {
+
+    private final long contentHash;
+    private final long generation;
+
+    private IndexedContentHash(long contentHash, long generation) {
+      this.contentHash = contentHash;
+      this.generation = generation;
+    }
+  }
+
+  /**
+   * Content hashes of updates not yet visible to searches, by event identity. Removed when refreshed.
+   */
+  private final ConcurrentMap<Long, IndexedContentHash> unrefreshedContentHashes = new ConcurrentHashMap<>();
+
+  /**
+   * System.nanoTime of the oldest update not yet visible to searches, or 0 if none.
+   */
+  private final AtomicLong unrefreshedSinceNanos = new AtomicLong();
+
+  private final Metrics.Histogram refreshDuration = Metrics.getInstance().getHistogram("index_refresh_duration_seconds", "Time spent refreshing the searcher.", "");
+  private final Metrics.Histogram commitDuration = Metrics.getInstance().getHistogram("index_commit_duration_seconds", "Time spent durably committing the index.", "");
+  private final Metrics.Counter costRejected = Metrics.getInstance().getCounter("search_cost_rejected_total", "Searches rejected as the estimated cost exceeded the budget.");
+  private final Metrics.Counter timedOut = Metrics.getInstance().getCounter("search_timeout_total", "Searches exceeding their timeout, responding with partial results.");
+  private final Metrics.Counter consistencyTimedOut = Metrics.getInstance().getCounter("search_consistency_timeout_total", "Searches with a consistency token executed before the update became visible.");
+  private final Metrics.Counter limitDegraded = Metrics.getInstance().getCounter("search_limit_degraded_total", "Searches with limit reduced to the maximum number of results.");
+  private final Metrics.Counter replaced = Metrics.getInstance().getCounter("index_replaced_total", "Live indices replaced by a rebuilt index.");
+  private final Metrics.Counter reclaimedDeletes = Metrics.getInstance().getCounter("index_reclaim_deletes_total", "Merges started to reclaim deleted documents.");
+  private final Metrics.Counter archivedEvents = Metrics.getInstance().getCounter("index_archived_events_total", "Events moved from the live index to the archive.");
+  private final Metrics.Counter archiveSearches = Metrics.getInstance().getCounter("search_archive_total", "Searches reaching into the past and thus also searching the archive.");
+  private final Metrics.Counter futureEvents = Metrics.getInstance().getCounter("index_tier_moved_events_total", "Events moved between the live index and the future tier.", Metrics.label("to", "future"));
+  private final Metrics.Counter hotEvents = Metrics.getInstance().getCounter("index_tier_moved_events_total", "Events moved between the live index and the future tier.", Metrics.label("to", "live"));
+  private final Metrics.Counter futureSearches = Metrics.getInstance().getCounter("search_future_total", "Searches reaching beyond the hot tier and thus also searching the future tier.");
 
   public void open() throws Exception {
 
@@ -80,65 +388,1453 @@ public class IndexManager {
       log.error("Could not mkdirs " + dataPath.getAbsolutePath());
     }
 
-    directory = FSDirectory.open(dataPath.toPath());
+    openedEpochMilliseconds = System.currentTimeMillis();
 
-    IndexWriterConfig indexWriterConfig = new IndexWriterConfig(new EventIndexAnalyzerBuilder().build());
-    indexWriterConfig.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+    File currentIndexFile = new File(dataPath, CURRENT_INDEX_FILE);
+    File path;
+    if (currentIndexFile.exists()) {
+      path = new File(dataPath, FileUtils.readFileToString(currentIndexFile, "UTF-8").trim());
+    } else if (isIndex(dataPath)) {
+      // created before indices were kept in directories of their own
+      path = dataPath;
+    } else {
+      path = new File(dataPath, INDEX_DIRECTORY_PREFIX + Long.toString(openedEpochMilliseconds, 36));
+      setCurrentIndex(path);
+    }
 
-    indexWriter = new IndexWriter(directory, indexWriterConfig);
-    searcherManager = new SearcherManager(indexWriter, true, new SearcherFactory());
+    // left behind by rebuilds that never finished
+    File[] files = dataPath.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.isDirectory() && file.getName().startsWith(INDEX_DIRECTORY_PREFIX) && !file.equals(path)) {
+          log.info("Deleting abandoned index " + file.getAbsolutePath());
+          FileUtils.deleteQuietly(file);
+        }
+      }
+    }
+
+    index = openIndex(path, IndexWriterConfig.OpenMode.CREATE_OR_APPEND, preload);
+    openSearcher(index);
+
+    File archivePath = new File(dataPath, ARCHIVE_DIRECTORY);
+    if (archiveAfterMilliseconds > 0 || archivePath.exists()) {
+      // archived events are still searchable if archiving has been disabled
+      archive = openIndex(archivePath, IndexWriterConfig.OpenMode.CREATE_OR_APPEND, false);
+      archive.openedEpochMilliseconds = openedEpochMilliseconds;
+      archive.searcherManager = new SearcherManager(archive.indexWriter, true, new SearcherFactory());
+    }
+
+    File futurePath = new File(dataPath, FUTURE_DIRECTORY);
+    if (hotTierMilliseconds > 0 || futurePath.exists()) {
+      // events in the future tier are still searchable if the hot tier has been disabled
+      future = openIndex(futurePath, IndexWriterConfig.OpenMode.CREATE_OR_APPEND, false);
+      future.openedEpochMilliseconds = openedEpochMilliseconds;
+      future.searcherManager = new SearcherManager(future.indexWriter, true, new SearcherFactory());
+      IndexSearcher indexSearcher = future.searcherManager.acquire();
+      try {
+        // possibly of deleted shows not yet merged away, i.e. earlier than needed
+        Terms terms = MultiFields.getTerms(indexSearcher.getIndexReader(), FIELD_EVENT_SHOW_START_DATE_TIME);
+        Long futureFrom = terms == null ? null : NumericUtils.getMinLong(terms);
+        futureFromEpochMilliseconds = futureFrom == null ? Long.MAX_VALUE : futureFrom;
+      } finally {
+        future.searcherManager.release(indexSearcher);
+      }
+    }
+
+    maintenanceScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "index-maintenance");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    if (commitIntervalMilliseconds > 0) {
+      maintenanceScheduler.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          replaceLock.readLock().lock();
+          try {
+            if (index.indexWriter.hasUncommittedChanges()) {
+              long started = System.nanoTime();
+              index.indexWriter.commit();
+              commitDuration.observeNanos(System.nanoTime() - started);
+            }
+            if (archive != null && archive.indexWriter.hasUncommittedChanges()) {
+              archive.indexWriter.commit();
+            }
+            if (future != null && future.indexWriter.hasUncommittedChanges()) {
+              future.indexWriter.commit();
+            }
+          } catch (Exception e) {
+            log.error("Exception caught when committing index", e);
+          } finally {
+            replaceLock.readLock().unlock();
+          }
+        }
+      }, commitIntervalMilliseconds, commitIntervalMilliseconds, TimeUnit.MILLISECONDS);
+    }
+    if (reclaimDeletesIntervalMilliseconds > 0) {
+      maintenanceScheduler.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            reclaimDeletes();
+          } catch (Exception e) {
+            log.error("Exception caught when reclaiming deletes", e);
+          }
+        }
+      }, reclaimDeletesIntervalMilliseconds, reclaimDeletesIntervalMilliseconds, TimeUnit.MILLISECONDS);
+    }
+    if (archive != null && archiveAfterMilliseconds > 0 && archiveIntervalMilliseconds > 0) {
+      maintenanceScheduler.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            archive();
+          } catch (Exception e) {
+            log.error("Exception caught when archiving events", e);
+          }
+        }
+      }, archiveIntervalMilliseconds, archiveIntervalMilliseconds, TimeUnit.MILLISECONDS);
+    }
+    if (future != null && archiveIntervalMilliseconds > 0) {
+      maintenanceScheduler.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            updateHotTier();
+          } catch (Exception e) {
+            log.error("Exception caught when updating the hot tier", e);
+          }
+        }
+      }, 0, archiveIntervalMilliseconds, TimeUnit.MILLISECONDS);
+    }
+
+    registerGauges();
 
     // todo: if index is empty then reconstruct
 
     log.info("Started.");
   }
 
-  public void close() throws Exception {
-    log.info("Closing...");
+  private boolean isIndex(File path) throws IOException {
+    try (Directory directory = FSDirectory.open(path.toPath())) {
+      return DirectoryReader.indexExists(directory);
+    }
+  }
+
+  /**
+   * Atomically points {@link #CURRENT_INDEX_FILE} at the index, i.e. the index opened on restart.
+   */
+  private void setCurrentIndex(File path) throws IOException {
+    File temporary = new File(dataPath, CURRENT_INDEX_FILE + ".tmp");
+    FileUtils.writeStringToFile(temporary, path.getName(), "UTF-8");
+    Files.move(temporary.toPath(), new File(dataPath, CURRENT_INDEX_FILE).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * @param preload See {@link #preload}
+   */
+  private Index openIndex(File path, IndexWriterConfig.OpenMode openMode, boolean preload) throws Exception {
+
+    if (!path.exists() && !path.mkdirs()) {
+      throw new IOException("Could not mkdirs " + path.getAbsolutePath());
+    }
+
+    Index index = new Index();
+    index.path = path;
+    if (preload) {
+      // also if unmapping is not supported by the JVM, then released when garbage collected
+      MMapDirectory directory = new MMapDirectory(path.toPath());
+      directory.setPreload(true);
+      index.directory = directory;
+    } else {
+      index.directory = FSDirectory.open(path.toPath());
+    }
+
+    IndexWriterConfig indexWriterConfig = new IndexWriterConfig(new EventIndexAnalyzerBuilder().build());
+    indexWriterConfig.setOpenMode(openMode);
+
+    index.indexWriter = new IndexWriter(index.directory, indexWriterConfig);
+    index.trackingIndexWriter = new TrackingIndexWriter(index.indexWriter);
+    return index;
+  }
+
+  /**
+   * Starts serving searches from the index.
+   */
+  private void openSearcher(final Index index) throws IOException {
+
+    index.openedEpochMilliseconds = System.currentTimeMillis();
+    index.searcherManager = new SearcherManager(index.indexWriter, true, new SearcherFactory() {
+      @Override
+      public IndexSearcher newSearcher(IndexReader indexReader, IndexReader previousReader) throws IOException {
+        // reader versions of different indices are not comparable
+        return new VersionedIndexSearcher(indexReader, Long.toString(index.openedEpochMilliseconds, 36) + "." + Long.toString(((DirectoryReader) indexReader).getVersion(), 36), indexReader);
+      }
+    });
+    index.searcherManager.addListener(new ReferenceManager.RefreshListener() {
+
+      // refreshes are serialized by the searcher manager
+      private long started;
+      private long unrefreshedSince;
+      private long visibleGeneration;
+
+      @Override
+      public void beforeRefresh() throws IOException {
+        started = System.nanoTime();
+        unrefreshedSince = unrefreshedSinceNanos.get();
+        // updates returning a lower generation were completed before the generation was incremented, i.e. before this refresh
+        visibleGeneration = index.generationOffset + index.trackingIndexWriter.getGeneration() - 1;
+        // events are deleted from the archive and the future tier before updated in the live index, i.e. searches never see both
+        Index archive = IndexManager.this.archive;
+        if (archive != null) {
+          archive.searcherManager.maybeRefreshBlocking();
+        }
+        Index future = IndexManager.this.future;
+        if (future != null) {
+          future.searcherManager.maybeRefreshBlocking();
+        }
+      }
+
+      @Override
+      public void afterRefresh(boolean didRefresh) throws IOException {
+        if (didRefresh) {
+          refreshDuration.observeNanos(System.nanoTime() - started);
+        }
+        // updates made during the refresh might not be visible, but then they are also lagging less than this.
+        unrefreshedSinceNanos.compareAndSet(unrefreshedSince, 0);
+        // the refreshed searcher is already in use
+        for (Map.Entry<Long, IndexedContentHash> unrefreshed : unrefreshedContentHashes.entrySet()) {
+          if (unrefreshed.getValue().generation <= visibleGeneration) {
+            unrefreshedContentHashes.remove(unrefreshed.getKey(), unrefreshed.getValue());
+          }
+        }
+      }
+    });
+
+    index.reopenThread = new ControlledRealTimeReopenThread<>(index.trackingIndexWriter, index.searcherManager,
+        maximumStaleMilliseconds / 1000d, minimumStaleMilliseconds / 1000d);
+    index.reopenThread.setName("index-reopen");
+    index.reopenThread.setDaemon(true);
+    index.reopenThread.start();
+  }
+
+  /**
+   * Searches already holding a searcher of the index can still complete.
+   */
+  private void closeIndex(Index index) throws IOException {
+    if (index.reopenThread != null) {
+      index.reopenThread.close();
+    }
+    if (index.searcherManager != null) {
+      index.searcherManager.close();
+    }
+    // commits on close
+    index.indexWriter.close();
+    index.directory.close();
+  }
+
+  public void close() throws Exception {
+    log.info("Closing...");
+
+    maintenanceScheduler.shutdown();
+    maintenanceScheduler.awaitTermination(1, TimeUnit.MINUTES);
+    abortRebuild();
+    closeIndex(index);
+    if (archive != null) {
+      closeIndex(archive);
+    }
+    if (future != null) {
+      closeIndex(future);
+    }
+
+    log.info("Closed.");
+  }
+
+  /**
+   * Starts rebuilding the index from scratch in a new directory, side by side with the live index.
+   * <p/>
+   * Events are written to the rebuilt index using {@link #updateRebuiltIndex(long, List)} while the live index keeps
+   * serving searches and updates. Updates of the live index are replayed on the rebuilt index by
+   * {@link #finishRebuild()}, which then replaces the live index.
+   *
+   * @throws IllegalStateException if already rebuilding
+   */
+  public synchronized void beginRebuild() throws Exception {
+    if (rebuild != null) {
+      throw new IllegalStateException("Already rebuilding index " + rebuild.index.path.getAbsolutePath());
+    }
+    Rebuild rebuild = new Rebuild();
+    rebuild.archivedBeforeEpochMilliseconds = getArchivedBeforeEpochMilliseconds();
+    rebuild.futureFromEpochMilliseconds = futureFromEpochMilliseconds;
+    rebuild.index = openIndex(new File(dataPath, INDEX_DIRECTORY_PREFIX + Long.toString(System.currentTimeMillis(), 36)), IndexWriterConfig.OpenMode.CREATE, preload);
+    try {
+      if (rebuildShards > 1) {
+        rebuild.shards = new Index[rebuildShards];
+        for (int shard = 0; shard < rebuildShards; shard++) {
+          rebuild.shards[shard] = openIndex(new File(dataPath, rebuild.index.path.getName() + "-shard-" + shard), IndexWriterConfig.OpenMode.CREATE, false);
+          rebuild.shards[shard].indexWriter.getConfig().setRAMBufferSizeMB(rebuildRAMBufferSizeMB / rebuildShards);
+        }
+      } else {
+        rebuild.index.indexWriter.getConfig().setRAMBufferSizeMB(rebuildRAMBufferSizeMB);
+      }
+    } catch (Exception e) {
+      discardRebuild(rebuild);
+      throw e;
+    }
+    log.info("Rebuilding index in " + rebuild.index.path.getAbsolutePath() + (rebuild.shards != null ? " from " + rebuild.shards.length + " shards" : ""));
+    this.rebuild = rebuild;
+  }
+
+  /**
+   * @return Number of partitions of the index being rebuilt, see {@link #getRebuiltIndexShard(long)}.
+   */
+  public int getRebuiltIndexShards() {
+    Rebuild rebuild = this.rebuild;
+    return rebuild == null || rebuild.shards == null ? 1 : rebuild.shards.length;
+  }
+
+  /**
+   * Events of different partitions are written to different index writers while rebuilding.
+   *
+   * @return Partition of the event, from 0 to {@link #getRebuiltIndexShards()} exclusive.
+   */
+  public int getRebuiltIndexShard(long eventId) {
+    int shards = getRebuiltIndexShards();
+    return (int) (((eventId % shards) + shards) % shards);
+  }
+
+  public boolean isRebuilding() {
+    return rebuild != null;
+  }
+
+  /**
+   * Replaces all documents of the event in the index being rebuilt. Thread safe.
+   *
+   * @throws IllegalStateException if not rebuilding
+   */
+  public void updateRebuiltIndex(long eventId, List<Document> documents) throws IOException {
+    Rebuild rebuild = this.rebuild;
+    if (rebuild == null) {
+      throw new IllegalStateException("Not rebuilding index");
+    }
+    Term identityTerm = new Term(FIELD_EVENT_IDENTITY_INDEXED, String.valueOf(eventId));
+    if (archive != null && isEnded(documents, rebuild.archivedBeforeEpochMilliseconds)) {
+      // as moved by archive(), rather than back in to the live index
+      archive.indexWriter.updateDocuments(identityTerm, documents);
+      rebuild.archived.add(eventId);
+      return;
+    }
+    if (future != null && isStartingFrom(documents, rebuild.futureFromEpochMilliseconds)) {
+      // as moved by updateHotTier()
+      future.indexWriter.updateDocuments(identityTerm, documents);
+      rebuild.future.add(eventId);
+      return;
+    }
+    Index index = rebuild.shards == null ? rebuild.index : rebuild.shards[getRebuiltIndexShard(eventId)];
+    index.indexWriter.updateDocuments(identityTerm, documents);
+    rebuild.documentsPerEvent.put(eventId, documents.size());
+  }
+
+  /**
+   * @return True if the event has shows, all of them started and ended before the time. See {@link #archive()}.
+   */
+  private boolean isEnded(List<Document> documents, long before) {
+    boolean shows = false;
+    for (Document document : documents) {
+      for (IndexableField start : document.getFields(FIELD_EVENT_SHOW_START_DATE_TIME)) {
+        if (start.numericValue().longValue() >= before) {
+          return false;
+        }
+        shows = true;
+      }
+      for (IndexableField end : document.getFields(FIELD_EVENT_SHOW__END_DATE_TIME)) {
+        if (end.numericValue().longValue() >= before) {
+          return false;
+        }
+      }
+    }
+    return shows;
+  }
+
+  /**
+   * @return True if the event has shows, all of them starting at or after the time. See {@link #updateHotTier()}.
+   */
+  private boolean isStartingFrom(List<Document> documents, long from) {
+    boolean shows = false;
+    for (Document document : documents) {
+      for (IndexableField start : document.getFields(FIELD_EVENT_SHOW_START_DATE_TIME)) {
+        if (start.numericValue().longValue() < from) {
+          return false;
+        }
+        shows = true;
+      }
+    }
+    return shows;
+  }
+
+  /**
+   * Merges the shards, validates the rebuilt index, replays updates of the live index on it and replaces the live index with it.
+   * Searches are served by the live index until the rebuilt index is visible to them, updates block while replaying.
+   *
+   * @param stageTimings Time spent per phase is added to this
+   * @throws IOException if the rebuilt index does not contain what was written to it,
+   *                     or less events than {@link #rebuildMinimumEventsRatio} of the live index.
+   *                     The live index is then kept and the rebuild must be aborted.
+   */
+  public synchronized void finishRebuild(StageTimings stageTimings) throws Exception {
+    Rebuild rebuild = this.rebuild;
+    if (rebuild == null) {
+      throw new IllegalStateException("Not rebuilding index");
+    }
+    Index rebuilt = rebuild.index;
+
+    if (rebuild.shards != null) {
+      Directory[] directories = new Directory[rebuild.shards.length];
+      for (int shard = 0; shard < rebuild.shards.length; shard++) {
+        // commits on close
+        rebuild.shards[shard].indexWriter.close();
+        directories[shard] = rebuild.shards[shard].directory;
+      }
+      stageTimings.stage("commit shards");
+      rebuilt.indexWriter.addIndexes(directories);
+      stageTimings.stage("merge shards");
+    }
+    if (rebuildMaximumSegments > 0) {
+      rebuilt.indexWriter.forceMerge(rebuildMaximumSegments);
+      stageTimings.stage("force merge");
+    }
+    rebuilt.indexWriter.commit();
+    stageTimings.stage("commit");
+
+    long expectedDocuments = 0;
+    for (Integer documents : rebuild.documentsPerEvent.values()) {
+      expectedDocuments += documents;
+    }
+    try (DirectoryReader indexReader = DirectoryReader.open(rebuilt.indexWriter, true)) {
+      if (indexReader.numDocs() != expectedDocuments) {
+        throw new IOException("Rebuilt index contains " + indexReader.numDocs() + " documents, expected " + expectedDocuments);
+      }
+      long events = countEvents(indexReader);
+      if (events != rebuild.documentsPerEvent.size()) {
+        throw new IOException("Rebuilt index contains " + events + " events, expected " + rebuild.documentsPerEvent.size());
+      }
+    }
+    IndexSearcher indexSearcher = acquireSearcher();
+    try {
+      long liveEvents = countEvents(indexSearcher.getIndexReader());
+      // the live index might still contain events archived or moved to the future tier while rebuilding
+      if (rebuild.documentsPerEvent.size() + rebuild.archived.size() + rebuild.future.size() < liveEvents * rebuildMinimumEventsRatio) {
+        throw new IOException("Rebuilt index contains " + rebuild.documentsPerEvent.size() + " events, archived "
+            + rebuild.archived.size() + " and future " + rebuild.future.size() + ", live index " + liveEvents);
+      }
+    } finally {
+      releaseSearcher(indexSearcher);
+    }
+    stageTimings.stage("validate");
+
+    Index replacedIndex;
+    replaceLock.writeLock().lock();
+    try {
+      for (Map.Entry<Long, List<Document>> replay : rebuild.replay.entrySet()) {
+        Term identityTerm = new Term(FIELD_EVENT_IDENTITY_INDEXED, String.valueOf(replay.getKey()));
+        if (replay.getValue().isEmpty()) {
+          // deleted or archived
+          rebuilt.indexWriter.deleteDocuments(identityTerm);
+        } else {
+          rebuilt.indexWriter.updateDocuments(identityTerm, replay.getValue());
+          // the export might have been archived or moved to the future tier after the update deleted it from there
+          if (archive != null) {
+            archive.indexWriter.deleteDocuments(identityTerm);
+          }
+          if (future != null) {
+            future.indexWriter.deleteDocuments(identityTerm);
+          }
+        }
+      }
+      if (archive != null) {
+        archive.indexWriter.commit();
+        archive.searcherManager.maybeRefreshBlocking();
+      }
+      if (future != null) {
+        future.indexWriter.commit();
+        future.searcherManager.maybeRefreshBlocking();
+      }
+      rebuilt.indexWriter.getConfig().setRAMBufferSizeMB(IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB);
+      rebuilt.indexWriter.commit();
+      setCurrentIndex(rebuilt.path);
+
+      replacedIndex = index;
+      rebuilt.generationOffset = replacedIndex.generationOffset + replacedIndex.trackingIndexWriter.getGeneration();
+      openSearcher(rebuilt);
+      index = rebuilt;
+      this.rebuild = null;
+    } finally {
+      replaceLock.writeLock().unlock();
+    }
+    replaced.increment();
+    log.info("Replaced index " + replacedIndex.path.getAbsolutePath() + " with rebuilt index " + rebuilt.path.getAbsolutePath()
+        + ", " + rebuild.documentsPerEvent.size() + " events and " + rebuild.replay.size() + " replayed updates"
+        + ", " + rebuild.archived.size() + " events archived and " + rebuild.future.size() + " in the future tier.");
+
+    stageTimings.stage("replay and replace");
+
+    closeIndex(replacedIndex);
+    deleteIndex(replacedIndex.path);
+    deleteShards(rebuild);
+    stageTimings.stage("delete replaced index");
+  }
+
+  /**
+   * Discards the index being rebuilt, if any.
+   */
+  public synchronized void abortRebuild() throws IOException {
+    Rebuild rebuild = this.rebuild;
+    if (rebuild == null) {
+      return;
+    }
+    this.rebuild = null;
+    discardRebuild(rebuild);
+    log.info("Aborted rebuilding index " + rebuild.index.path.getAbsolutePath());
+  }
+
+  private void discardRebuild(Rebuild rebuild) throws IOException {
+    rebuild.index.indexWriter.rollback();
+    rebuild.index.directory.close();
+    deleteIndex(rebuild.index.path);
+    deleteShards(rebuild);
+  }
+
+  private void deleteShards(Rebuild rebuild) throws IOException {
+    if (rebuild.shards == null) {
+      return;
+    }
+    for (Index shard : rebuild.shards) {
+      if (shard != null) {
+        // no-op if closed
+        shard.indexWriter.rollback();
+        shard.directory.close();
+        deleteIndex(shard.path);
+      }
+    }
+  }
+
+  private void deleteIndex(File path) {
+    if (path.equals(dataPath)) {
+      // created before indices were kept in directories of their own, keep the directories of the newer indices
+      File[] files = dataPath.listFiles();
+      if (files != null) {
+        for (File file : files) {
+          if (file.isFile() && !file.getName().startsWith(CURRENT_INDEX_FILE)) {
+            FileUtils.deleteQuietly(file);
+          }
+        }
+      }
+    } else {
+      FileUtils.deleteQuietly(path);
+    }
+  }
+
+  /**
+   * @return Number of distinct events in the index.
+   */
+  private long countEvents(IndexReader indexReader) throws IOException {
+    Terms terms = MultiFields.getTerms(indexReader, FIELD_EVENT_IDENTITY_INDEXED);
+    if (terms == null) {
+      return 0;
+    }
+    Bits liveDocs = MultiFields.getLiveDocs(indexReader);
+    long events = 0;
+    TermsEnum termsEnum = terms.iterator();
+    PostingsEnum postingsEnum = null;
+    while (termsEnum.next() != null) {
+      postingsEnum = termsEnum.postings(postingsEnum, PostingsEnum.NONE);
+      int doc;
+      while ((doc = postingsEnum.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+        if (liveDocs == null || liveDocs.get(doc)) {
+          events++;
+          break;
+        }
+      }
+    }
+    return events;
+  }
+
+  /**
+   * Acquires a searcher of the live index, retrying if the index was replaced meanwhile.
+   */
+  private IndexSearcher acquireSearcher() throws IOException {
+    while (true) {
+      Index index = this.index;
+      try {
+        return index.searcherManager.acquire();
+      } catch (AlreadyClosedException e) {
+        if (index == this.index) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * @param searchArchive If true the searcher also searches the archive, if any, see {@link #isReachingIntoArchive(Query)}.
+   * @param searchFuture  If true the searcher also searches the future tier, if any, see {@link #isReachingIntoFuture(Query)}.
+   */
+  private IndexSearcher acquireSearcher(boolean searchArchive, boolean searchFuture) throws IOException {
+    IndexSearcher indexSearcher = acquireSearcher();
+    if ((!searchArchive || archive == null) && (!searchFuture || future == null)) {
+      return indexSearcher;
+    }
+    try {
+      return tieredSearcherFactory(indexSearcher, searchArchive, searchFuture);
+    } finally {
+      releaseSearcher(indexSearcher);
+    }
+  }
+
+  /**
+   * @param indexSearcher Searcher of the live index, still to be released by the caller.
+   * @return Searcher of the live index followed by the archive and the future tier, i.e. documents of the live index
+   * are collected first and an event found in more than one of them while moved is collected once, see {@link #search(IndexSearcher, SearchRequest)}.
+   * Released using {@link #releaseSearcher(IndexSearcher)}. Versioned as the live index, as the archive and the future tier
+   * only change together with the live index, i.e. when events are moved, updated or deleted.
+   */
+  private IndexSearcher tieredSearcherFactory(IndexSearcher indexSearcher, boolean searchArchive, boolean searchFuture) throws IOException {
+    List<IndexReader> indexReaders = new ArrayList<>(3);
+    indexReaders.add(indexSearcher.getIndexReader());
+    IndexSearcher archiveSearcher = null;
+    IndexSearcher futureSearcher = null;
+    try {
+      if (searchArchive && archive != null) {
+        archiveSearcher = archive.searcherManager.acquire();
+        indexReaders.add(archiveSearcher.getIndexReader());
+      }
+      if (searchFuture && future != null) {
+        futureSearcher = future.searcherManager.acquire();
+        indexReaders.add(futureSearcher.getIndexReader());
+      }
+      // references the readers until released
+      return new VersionedIndexSearcher(new MultiReader(indexReaders.toArray(new IndexReader[indexReaders.size()]), false),
+          getIndexVersion(indexSearcher), indexSearcher.getIndexReader());
+    } finally {
+      if (archiveSearcher != null) {
+        archive.searcherManager.release(archiveSearcher);
+      }
+      if (futureSearcher != null) {
+        future.searcherManager.release(futureSearcher);
+      }
+    }
+  }
+
+  /**
+   * Events are only archived when all their shows has ended before this.
+   */
+  private long getArchivedBeforeEpochMilliseconds() {
+    return System.currentTimeMillis() - archiveAfterMilliseconds;
+  }
+
+  /**
+   * Searches explicitly reaching into the past, i.e. with a range on show start or end
+   * from before {@link #getArchivedBeforeEpochMilliseconds()}, also search the archive.
+   * Searches not restricted in time only search the live index, i.e. current, future and recently passed events.
+   */
+  boolean isReachingIntoArchive(Query query) {
+    return archive != null && isReachingIntoArchive(query, getArchivedBeforeEpochMilliseconds());
+  }
+
+  private boolean isReachingIntoArchive(Query query, long archivedBefore) {
+    if (query instanceof BooleanQuery) {
+      for (BooleanClause clause : ((BooleanQuery) query).clauses()) {
+        if (clause.getOccur() != BooleanClause.Occur.MUST_NOT && isReachingIntoArchive(clause.getQuery(), archivedBefore)) {
+          return true;
+        }
+      }
+    } else if (query instanceof ConstantScoreQuery) {
+      return isReachingIntoArchive(((ConstantScoreQuery) query).getQuery(), archivedBefore);
+    } else if (query instanceof CachingWrapperQuery) {
+      return isReachingIntoArchive(((CachingWrapperQuery) query).getQuery(), archivedBefore);
+    } else if (query instanceof NumericRangeQuery) {
+      NumericRangeQuery<?> range = (NumericRangeQuery<?>) query;
+      if (FIELD_EVENT_SHOW_START_DATE_TIME.equals(range.getField()) || FIELD_EVENT_SHOW__END_DATE_TIME.equals(range.getField())) {
+        return range.getMin() == null || range.getMin().longValue() < archivedBefore;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Searches not restricted to shows starting before {@link #futureFromEpochMilliseconds} also search the future tier,
+   * including searches not restricted in time. Searches for e.g. events of the next few weeks only search the live index.
+   */
+  boolean isReachingIntoFuture(Query query) {
+    return future != null && !isStartingBefore(query, futureFromEpochMilliseconds);
+  }
+
+  /**
+   * @return True if the query only matches shows starting before the time, i.e. requires a show start or end range ending before it.
+   */
+  private boolean isStartingBefore(Query query, long before) {
+    if (query instanceof BooleanQuery) {
+      boolean required = false;
+      int optional = 0;
+      int optionalStartingBefore = 0;
+      for (BooleanClause clause : ((BooleanQuery) query).clauses()) {
+        if (clause.getOccur() == BooleanClause.Occur.MUST || clause.getOccur() == BooleanClause.Occur.FILTER) {
+          if (isStartingBefore(clause.getQuery(), before)) {
+            return true;
+          }
+          required = true;
+        } else if (clause.getOccur() == BooleanClause.Occur.SHOULD) {
+          optional++;
+          if (isStartingBefore(clause.getQuery(), before)) {
+            optionalStartingBefore++;
+          }
+        }
+      }
+      // without required clauses one of the optional clauses must match
+      return !required && optional > 0 && optionalStartingBefore == optional;
+    } else if (query instanceof ConstantScoreQuery) {
+      return isStartingBefore(((ConstantScoreQuery) query).getQuery(), before);
+    } else if (query instanceof CachingWrapperQuery) {
+      return isStartingBefore(((CachingWrapperQuery) query).getQuery(), before);
+    } else if (query instanceof NumericRangeQuery) {
+      NumericRangeQuery<?> range = (NumericRangeQuery<?>) query;
+      // shows end after they start
+      if (FIELD_EVENT_SHOW_START_DATE_TIME.equals(range.getField()) || FIELD_EVENT_SHOW__END_DATE_TIME.equals(range.getField())) {
+        return range.getMax() != null && range.getMax().longValue() < before;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Releases a searcher acquired by {@link #acquireSearcher()}, even if the index has been replaced since.
+   */
+  private void releaseSearcher(IndexSearcher indexSearcher) throws IOException {
+    indexSearcher.getIndexReader().decRef();
+  }
+
+
+  /**
+   * Durably commits all updates and makes them visible to searches.
+   * <p/>
+   * Updates are committed in the background every {@link #commitIntervalMilliseconds} and become visible
+   * within {@link #maximumStaleMilliseconds} anyway. Callers that need to see their own update should
+   * rather use {@link #waitForGeneration(long)}.
+   */
+  public void commit() throws Exception {
+    replaceLock.readLock().lock();
+    try {
+      long started = System.nanoTime();
+      index.indexWriter.commit();
+      commitDuration.observeNanos(System.nanoTime() - started);
+      index.searcherManager.maybeRefreshBlocking();
+      if (archive != null) {
+        archive.indexWriter.commit();
+        archive.searcherManager.maybeRefreshBlocking();
+      }
+      if (future != null) {
+        future.indexWriter.commit();
+        future.searcherManager.maybeRefreshBlocking();
+      }
+    } finally {
+      replaceLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Starts merging away deleted documents in the background if they make up at least {@link #reclaimDeletesMinimumRatio}
+   * of the index. Merges reclaim deletes of small segments anyway, but deleted shows in large segments might linger.
+   *
+   * @return True if merges were started.
+   */
+  public boolean reclaimDeletes() throws IOException {
+    replaceLock.readLock().lock();
+    try {
+      IndexWriter indexWriter = index.indexWriter;
+      int maxDoc = indexWriter.maxDoc();
+      int deletedDocs = maxDoc - indexWriter.numDocs();
+      if (maxDoc == 0 || deletedDocs < maxDoc * reclaimDeletesMinimumRatio) {
+        return false;
+      }
+      log.info("Reclaiming " + deletedDocs + " deleted of " + maxDoc + " documents.");
+      indexWriter.forceMergeDeletes(false);
+      reclaimedDeletes.increment();
+      return true;
+    } finally {
+      replaceLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Moves events whose last show ended more than {@link #archiveAfterMilliseconds} ago from the live index to the archive,
+   * keeping the live index small. Events without shows are never archived.
+   * <p/>
+   * The events are durably written to the archive before they are deleted from the live index,
+   * i.e. they are found in both rather than in none for a while. Events updated meanwhile are kept in the live index.
+   *
+   * @return Number of events archived.
+   */
+  public synchronized int archive() throws Exception {
+    if (archive == null) {
+      return 0;
+    }
+    long archivedBefore = getArchivedBeforeEpochMilliseconds();
+    BooleanQuery.Builder notEnded = new BooleanQuery.Builder();
+    notEnded.add(NumericRangeQuery.newLongRange(FIELD_EVENT_SHOW_START_DATE_TIME, archivedBefore, null, true, true), BooleanClause.Occur.SHOULD);
+    notEnded.add(NumericRangeQuery.newLongRange(FIELD_EVENT_SHOW__END_DATE_TIME, archivedBefore, null, true, true), BooleanClause.Occur.SHOULD);
+    int archived = moveFromLiveIndex(archive,
+        NumericRangeQuery.newLongRange(FIELD_EVENT_SHOW_START_DATE_TIME, null, archivedBefore, true, false), notEnded.build(),
+        "with all shows ended before " + new Date(archivedBefore));
+    archivedEvents.add(archived);
+    return archived;
+  }
+
+  /**
+   * Keeps the live index to the hot tier of current, recently passed and upcoming events with shows starting
+   * within {@link #hotTierMilliseconds}, and the future tier to events with all shows starting later than that.
+   * Called every {@link #archiveIntervalMilliseconds}, hence events with shows starting within the next interval
+   * are moved to the live index too, and only events with all shows starting after the interval after that
+   * are moved to the future tier.
+   * <p/>
+   * Events moved to the live index are visible to searches and durably committed before they are deleted from the
+   * future tier, and the other way around, i.e. they are found in both rather than in none for a while.
+   * Events updated meanwhile are kept where the update put them, i.e. in the live index.
+   *
+   * @return Number of events moved.
+   */
+  public synchronized int updateHotTier() throws Exception {
+    if (future == null) {
+      return 0;
+    }
+    long horizon = System.currentTimeMillis() + hotTierMilliseconds + archiveIntervalMilliseconds;
+
+    int hot = moveToLiveIndex(future, NumericRangeQuery.newLongRange(FIELD_EVENT_SHOW_START_DATE_TIME, null, horizon, true, false),
+        "with shows starting before " + new Date(horizon));
+    hotEvents.add(hot);
+    // events of the export starting from before the horizon might still be written to the future tier
+    Rebuild rebuild = this.rebuild;
+    futureFromEpochMilliseconds = rebuild == null ? horizon : Math.min(horizon, rebuild.futureFromEpochMilliseconds);
+
+    if (hotTierMilliseconds == 0) {
+      // disabled, only emptying the future tier
+      return hot;
+    }
+    long futureFrom = horizon + archiveIntervalMilliseconds;
+    int moved = moveFromLiveIndex(future,
+        NumericRangeQuery.newLongRange(FIELD_EVENT_SHOW_START_DATE_TIME, futureFrom, null, true, true),
+        NumericRangeQuery.newLongRange(FIELD_EVENT_SHOW_START_DATE_TIME, null, futureFrom, true, false),
+        "with all shows starting after " + new Date(futureFrom));
+    futureEvents.add(moved);
+    return hot + moved;
+  }
+
+  /**
+   * Collects events updated or deleted from now on, until {@link #updatedWhileMoving} is reset.
+   */
+  private Set<Long> trackUpdates() {
+    Set<Long> updated = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    replaceLock.writeLock().lock();
+    try {
+      // updates are either visible to the refreshed searcher or recorded
+      updatedWhileMoving = updated;
+    } finally {
+      replaceLock.writeLock().unlock();
+    }
+    return updated;
+  }
+
+  /**
+   * Moves events matching the query but not the other from the live index to the archive or the future tier.
+   * The events are durably written to the target before they are deleted from the live index.
+   *
+   * @param description Of the moved events, logged
+   * @return Number of events moved.
+   */
+  private int moveFromLiveIndex(Index target, Query moved, Query kept, String description) throws Exception {
+    long started = System.nanoTime();
+    Set<Long> updated = trackUpdates();
+    try {
+
+      Map<Long, Integer> documentByEvent;
+      index.searcherManager.maybeRefreshBlocking();
+      IndexSearcher indexSearcher = acquireSearcher();
+      try {
+        documentByEvent = collectEvents(indexSearcher, moved);
+        documentByEvent.keySet().removeAll(collectEvents(indexSearcher, kept).keySet());
+
+        for (Map.Entry<Long, Integer> eventDocument : documentByEvent.entrySet()) {
+          target.indexWriter.updateDocuments(new Term(FIELD_EVENT_IDENTITY_INDEXED, String.valueOf(eventDocument.getKey())),
+              loadDocuments(indexSearcher, eventDocument.getKey(), eventDocument.getValue()));
+        }
+      } finally {
+        releaseSearcher(indexSearcher);
+      }
+      target.indexWriter.commit();
+      target.searcherManager.maybeRefreshBlocking();
+
+      Set<Long> deleted = new HashSet<>(documentByEvent.keySet());
+      Set<Long> updatedMeanwhile = new HashSet<>();
+      long generation = 0;
+      replaceLock.writeLock().lock();
+      try {
+        updatedWhileMoving = null;
+        for (Long eventId : updated) {
+          if (deleted.remove(eventId)) {
+            updatedMeanwhile.add(eventId);
+          }
+        }
+        if (!deleted.isEmpty()) {
+          generation = deleteFromIndex(deleted, true);
+        }
+      } finally {
+        replaceLock.writeLock().unlock();
+      }
+
+      if (!updatedMeanwhile.isEmpty()) {
+        // the live index is more recent
+        target.indexWriter.deleteDocuments(identityTermsFactory(updatedMeanwhile));
+        target.searcherManager.maybeRefreshBlocking();
+      }
+      if (generation > 0) {
+        waitForGeneration(generation);
+      }
+
+      log.info("Moved " + deleted.size() + " events " + description + " to " + target.path.getName()
+          + ", kept " + updatedMeanwhile.size() + " updated meanwhile, in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + " milliseconds.");
+      return deleted.size();
+
+    } finally {
+      updatedWhileMoving = null;
+    }
+  }
+
+  /**
+   * Moves events matching the query from the future tier to the live index.
+   * The events are visible to searches and durably committed in the live index before they are deleted from the source.
+   *
+   * @param description Of the moved events, logged
+   * @return Number of events moved.
+   */
+  private int moveToLiveIndex(Index source, Query moved, String description) throws Exception {
+    long started = System.nanoTime();
+    Set<Long> updated = trackUpdates();
+    try {
+
+      Map<Long, List<Document>> documentsByEvent = new HashMap<>();
+      source.searcherManager.maybeRefreshBlocking();
+      IndexSearcher indexSearcher = source.searcherManager.acquire();
+      try {
+        for (Map.Entry<Long, Integer> eventDocument : collectEvents(indexSearcher, moved).entrySet()) {
+          documentsByEvent.put(eventDocument.getKey(), loadDocuments(indexSearcher, eventDocument.getKey(), eventDocument.getValue()));
+        }
+      } finally {
+        source.searcherManager.release(indexSearcher);
+      }
+
+      int written = 0;
+      long generation = 0;
+      replaceLock.writeLock().lock();
+      try {
+        updatedWhileMoving = null;
+        for (Map.Entry<Long, List<Document>> eventDocuments : documentsByEvent.entrySet()) {
+          // updated or deleted meanwhile, i.e. already deleted from the source
+          if (!updated.contains(eventDocuments.getKey())) {
+            generation = updateLiveIndex(eventDocuments.getKey(), eventDocuments.getValue());
+            written++;
+          }
+        }
+      } finally {
+        replaceLock.writeLock().unlock();
+      }
+
+      if (generation > 0) {
+        waitForGeneration(generation);
+        replaceLock.readLock().lock();
+        try {
+          index.indexWriter.commit();
+        } finally {
+          replaceLock.readLock().unlock();
+        }
+      }
+      if (!documentsByEvent.isEmpty()) {
+        source.indexWriter.deleteDocuments(identityTermsFactory(documentsByEvent.keySet()));
+        source.indexWriter.commit();
+        source.searcherManager.maybeRefreshBlocking();
+      }
+
+      log.info("Moved " + written + " events " + description + " from " + source.path.getName()
+          + ", kept " + (documentsByEvent.size() - written) + " updated meanwhile, in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + " milliseconds.");
+      return written;
+
+    } finally {
+      updatedWhileMoving = null;
+    }
+  }
+
+  /**
+   * @return Documents of the event built from the JSON of one of its documents, e.g. for writing it to another index.
+   */
+  private List<Document> loadDocuments(IndexSearcher indexSearcher, long eventId, int document) throws Exception {
+    SearchResult searchResult = new SearchResult();
+    searchResult.setEventId(eventId);
+    searchResult.setDocument(document);
+    loadEventJson(indexSearcher, searchResult, false);
+    JSONObject json = new JSONObject(searchResult.getJson().utf8ToString());
+    return documentsFactory(new EventJSONSerialization().unmarshalEvent(json), json);
+  }
+
+  /**
+   * @return Any matching document per event matching the query, by event identity.
+   */
+  private Map<Long, Integer> collectEvents(IndexSearcher indexSearcher, Query query) throws IOException {
+    final Map<Long, Integer> documentByEvent = new HashMap<>();
+    indexSearcher.search(query, new Collector() {
+      @Override
+      public LeafCollector getLeafCollector(final LeafReaderContext leafReaderContext) throws IOException {
+        final NumericDocValues identityValues = leafReaderContext.reader().getNumericDocValues(FIELD_EVENT_IDENTITY_VALUE);
+        return new LeafCollector() {
+          @Override
+          public void setScorer(Scorer scorer) throws IOException {
+          }
+
+          @Override
+          public void collect(int doc) throws IOException {
+            documentByEvent.put(identityValues.get(doc), leafReaderContext.docBase + doc);
+          }
+        };
+      }
+
+      @Override
+      public boolean needsScores() {
+        return false;
+      }
+    });
+    return documentByEvent;
+  }
+
+  /**
+   * @param generation Generation returned by an update
+   * @return Opaque token identifying the update, valid until the index is reopened, see {@link #awaitConsistencyToken(String, long)}
+   */
+  public String getConsistencyToken(long generation) {
+    return Long.toString(openedEpochMilliseconds, 36) + "." + Long.toString(generation, 36);
+  }
+
+  /**
+   * Blocks until the update identified by the token is visible to searches, or the timeout is reached.
+   * Tokens from before the index was reopened are already as visible as they will ever be.
+   *
+   * @return False if the timeout was reached before the update became visible.
+   * @throws IllegalArgumentException if the token is not a token of this index
+   */
+  public boolean awaitConsistencyToken(String consistencyToken, long timeoutMilliseconds) throws InterruptedException {
+    return awaitGeneration(parseConsistencyToken(consistencyToken), timeoutMilliseconds);
+  }
+
+  /**
+   * @return Generation of the update identified by the token, or 0 if the token is from before the index was reopened.
+   * @throws IllegalArgumentException if the token is not a token of this index
+   */
+  private long parseConsistencyToken(String consistencyToken) {
+    long opened;
+    long generation;
+    try {
+      int separator = consistencyToken.indexOf('.');
+      opened = Long.parseLong(consistencyToken.substring(0, separator), 36);
+      generation = Long.parseLong(consistencyToken.substring(separator + 1), 36);
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException("Malformed consistency token: " + consistencyToken);
+    }
+    if (opened != openedEpochMilliseconds) {
+      return 0;
+    }
+    Index index = this.index;
+    if (generation > index.generationOffset + index.trackingIndexWriter.getGeneration()) {
+      throw new IllegalArgumentException("Unknown consistency token: " + consistencyToken);
+    }
+    return generation;
+  }
+
+  /**
+   * @return False if the timeout was reached before the update became visible.
+   */
+  private boolean awaitGeneration(long generation, long timeoutMilliseconds) throws InterruptedException {
+    Index index = this.index;
+    if (generation <= index.generationOffset) {
+      // update of a replaced index, replayed before the rebuilt index was made visible
+      return true;
+    }
+    return index.reopenThread.waitForGeneration(generation - index.generationOffset, (int) Math.min(Integer.MAX_VALUE, timeoutMilliseconds));
+  }
+
+  /**
+   * Waits at most {@link #maximumConsistencyWaitMilliseconds} for the consistency token of the request, if any.
+   *
+   * @return False if searches still do not see the update of the token.
+   */
+  private boolean awaitConsistency(SearchRequest searchRequest) throws InterruptedException {
+    if (searchRequest.getConsistencyToken() == null) {
+      return true;
+    }
+    boolean consistent = awaitConsistencyToken(searchRequest.getConsistencyToken(), maximumConsistencyWaitMilliseconds);
+    if (!consistent) {
+      consistencyTimedOut.increment();
+    }
+    searchRequest.getStageTimings().stage("consistency wait");
+    return consistent;
+  }
+
+  /**
+   * Waits once for the highest generation of the consistency tokens of the requests, if any,
+   * at most {@link #maximumConsistencyWaitMilliseconds} in total.
+   *
+   * @return Per request, false if searches still do not see the update of its token.
+   */
+  private boolean[] awaitConsistency(List<SearchRequest> searchRequests) throws InterruptedException {
+    long[] generations = new long[searchRequests.size()];
+    long maximumGeneration = 0;
+    for (int i = 0; i < generations.length; i++) {
+      String consistencyToken = searchRequests.get(i).getConsistencyToken();
+      if (consistencyToken != null) {
+        generations[i] = parseConsistencyToken(consistencyToken);
+        maximumGeneration = Math.max(maximumGeneration, generations[i]);
+      }
+    }
+    boolean consistent = awaitGeneration(maximumGeneration, maximumConsistencyWaitMilliseconds);
+    boolean[] stale = new boolean[generations.length];
+    for (int i = 0; i < generations.length; i++) {
+      SearchRequest searchRequest = searchRequests.get(i);
+      if (searchRequest.getConsistencyToken() == null) {
+        continue;
+      }
+      // lower generations might have become visible before the timeout
+      if (!consistent && !awaitGeneration(generations[i], 0)) {
+        stale[i] = true;
+        consistencyTimedOut.increment();
+      }
+      searchRequest.getStageTimings().stage("consistency wait");
+    }
+    return stale;
+  }
+
+  /**
+   * Blocks until the update that returned the generation is visible to searches,
+   * which takes at most {@link #minimumStaleMilliseconds} plus the time to refresh.
+   */
+  public void waitForGeneration(long generation) throws InterruptedException {
+    // the index might be replaced while waiting
+    while (!awaitGeneration(generation, TimeUnit.SECONDS.toMillis(1))) {
+    }
+  }
 
-    searcherManager.close();
-    indexWriter.close();
-    directory.close();
+  /**
+   * Registers gauges on the state of the index, read when metrics are requested.
+   */
+  private void registerGauges() {
+    Metrics metrics = Metrics.getInstance();
 
-    log.info("Closed.");
+    metrics.setGauge("index_segments", "Number of segments in the searcher.", "", new Metrics.Gauge() {
+      @Override
+      public double getValue() throws Exception {
+        IndexSearcher indexSearcher = acquireSearcher();
+        try {
+          return indexSearcher.getIndexReader().leaves().size();
+        } finally {
+          releaseSearcher(indexSearcher);
+        }
+      }
+    });
+    metrics.setGauge("index_documents", "Number of live documents in the searcher, i.e. event shows.", "", new Metrics.Gauge() {
+      @Override
+      public double getValue() throws Exception {
+        IndexSearcher indexSearcher = acquireSearcher();
+        try {
+          return indexSearcher.getIndexReader().numDocs();
+        } finally {
+          releaseSearcher(indexSearcher);
+        }
+      }
+    });
+    metrics.setGauge("index_archive_documents", "Number of documents in the archive, i.e. shows of archived events.", "", new Metrics.Gauge() {
+      @Override
+      public double getValue() throws Exception {
+        if (archive == null) {
+          return 0;
+        }
+        IndexSearcher indexSearcher = archive.searcherManager.acquire();
+        try {
+          return indexSearcher.getIndexReader().numDocs();
+        } finally {
+          archive.searcherManager.release(indexSearcher);
+        }
+      }
+    });
+    metrics.setGauge("index_future_documents", "Number of documents in the future tier, i.e. shows of events beyond the hot tier.", "", new Metrics.Gauge() {
+      @Override
+      public double getValue() throws Exception {
+        if (future == null) {
+          return 0;
+        }
+        IndexSearcher indexSearcher = future.searcherManager.acquire();
+        try {
+          return indexSearcher.getIndexReader().numDocs();
+        } finally {
+          future.searcherManager.release(indexSearcher);
+        }
+      }
+    });
+    metrics.setGauge("index_deleted_documents", "Number of deleted documents in the searcher not yet merged away.", "", new Metrics.Gauge() {
+      @Override
+      public double getValue() throws Exception {
+        IndexSearcher indexSearcher = acquireSearcher();
+        try {
+          return indexSearcher.getIndexReader().numDeletedDocs();
+        } finally {
+          releaseSearcher(indexSearcher);
+        }
+      }
+    });
+    metrics.setGauge("index_size_bytes", "Size of the index directory on disk.", "", new Metrics.Gauge() {
+      @Override
+      public double getValue() throws Exception {
+        Directory directory = index.directory;
+        long size = 0;
+        for (String file : directory.listAll()) {
+          try {
+            size += directory.fileLength(file);
+          } catch (IOException e) {
+            // deleted by merge since listed
+          }
+        }
+        return size;
+      }
+    });
+    metrics.setGauge("index_writer_ram_bytes", "Memory used by the index writer for buffered documents and deletes.", "", new Metrics.Gauge() {
+      @Override
+      public double getValue() throws Exception {
+        return index.indexWriter.ramBytesUsed();
+      }
+    });
+    metrics.setGauge("index_nrt_lag_seconds", "Time since the oldest index update not yet visible to searches.", "", new Metrics.Gauge() {
+      @Override
+      public double getValue() throws Exception {
+        long since = unrefreshedSinceNanos.get();
+        return since == 0 ? 0 : (System.nanoTime() - since) / 1000000000d;
+      }
+    });
+    metrics.setGauge("query_cache_hit_ratio", "Hit ratio of the Lucene query cache.", "", new Metrics.Gauge() {
+      @Override
+      public double getValue() throws Exception {
+        if (!(IndexSearcher.getDefaultQueryCache() instanceof LRUQueryCache)) {
+          return Double.NaN;
+        }
+        LRUQueryCache queryCache = (LRUQueryCache) IndexSearcher.getDefaultQueryCache();
+        long lookups = queryCache.getHitCount() + queryCache.getMissCount();
+        return lookups == 0 ? Double.NaN : (double) queryCache.getHitCount() / lookups;
+      }
+    });
   }
 
+  /**
+   * @return Generation of the update, see {@link #waitForGeneration(long)}
+   */
+  public long updateIndex(Event event, JSONObject json) throws Exception {
+    return updateIndex(event.getEventId(), documentsFactory(event, json));
+  }
 
-  public void commit() throws Exception {
-    indexWriter.commit();
-    searcherManager.maybeRefresh();
+  /**
+   * Builds the documents of an event, one per show, without touching the index.
+   * Thread safe, i.e. documents can be built in parallel and later written using {@link #updateIndex(long, List)}.
+   */
+  public List<Document> documentsFactory(Event event, JSONObject json) throws Exception {
+    return documentsFactory(event, json, contentHashFactory(json));
   }
 
-  public void updateIndex(Event event, JSONObject json) throws Exception {
+  /**
+   * @param contentHash See {@link #contentHashFactory(JSONObject)}
+   */
+  public List<Document> documentsFactory(Event event, JSONObject json, long contentHash) throws Exception {
 
     List<Document> documents = new ArrayList<>();
 
-    String eventIdString = String.valueOf(event.getEventId());
+    BytesRef jsonBytes = new BytesRef(json.toString());
+    BytesRef precompressedJsonBytes = DeflateUtil.precompress(jsonBytes);
 
     if (event.getShows() != null && !event.getShows().isEmpty()) {
       for (Show show : event.getShows()) {
-        documents.add(documentFactory(event, json, show));
+        documents.add(documentFactory(event, jsonBytes, precompressedJsonBytes, contentHash, show));
       }
     } else {
-      documents.add(documentFactory(event, json));
+      documents.add(documentFactory(event, jsonBytes, precompressedJsonBytes, contentHash));
+    }
+
+    return documents;
+  }
+
+  /**
+   * Hash of the event JSON, independent of attribute order and formatting. Thread safe.
+   *
+   * @return Hash of the content, never 0 as that is the value of documents indexed without a hash.
+   */
+  public long contentHashFactory(JSONObject json) throws Exception {
+    byte[] digest = MessageDigest.getInstance("SHA-1").digest(JSONUtil.toCanonicalString(json).getBytes(StandardCharsets.UTF_8));
+    long contentHash = 0;
+    for (int i = 0; i < 8; i++) {
+      contentHash = (contentHash << 8) | (digest[i] & 0xff);
+    }
+    return contentHash == 0 ? 1 : contentHash;
+  }
+
+  /**
+   * Looks up the content hash of the event, including updates not yet visible to searches.
+   * Used to skip updates that would not change the index.
+   *
+   * @return Generation of the update that indexed the event with the content hash, 0 if it is visible to searches,
+   * or -1 if the event is not indexed with that content hash.
+   */
+  public long findContentHash(long eventId, long contentHash) throws IOException {
+    IndexedContentHash unrefreshed = unrefreshedContentHashes.get(eventId);
+    if (unrefreshed != null) {
+      return unrefreshed.contentHash == contentHash ? unrefreshed.generation : -1;
+    }
+    // unchanged archived events are not moved back to the live index
+    IndexSearcher indexSearcher = acquireSearcher(true, true);
+    try {
+      TopDocs topDocs = indexSearcher.search(new TermQuery(new Term(FIELD_EVENT_IDENTITY_INDEXED, String.valueOf(eventId))), 1);
+      if (topDocs.scoreDocs.length == 0) {
+        return -1;
+      }
+      List<LeafReaderContext> leaves = indexSearcher.getIndexReader().leaves();
+      LeafReaderContext leafReaderContext = leaves.get(ReaderUtil.subIndex(topDocs.scoreDocs[0].doc, leaves));
+      NumericDocValues contentHashValues = leafReaderContext.reader().getNumericDocValues(FIELD_EVENT_CONTENT_HASH_VALUE);
+      if (contentHashValues == null) {
+        // indexed before content hashes was introduced
+        return -1;
+      }
+      return contentHashValues.get(topDocs.scoreDocs[0].doc - leafReaderContext.docBase) == contentHash ? 0 : -1;
+    } finally {
+      releaseSearcher(indexSearcher);
+    }
+  }
+
+  /**
+   * Deletes all documents of the events, e.g. events deleted or unpublished in the primary persistence. Thread safe.
+   *
+   * @return Generation of the update, see {@link #waitForGeneration(long)}
+   */
+  public long deleteFromIndex(Collection<Long> eventIds) throws Exception {
+    return deleteFromIndex(eventIds, false);
+  }
+
+  /**
+   * @param moved If false the events are also deleted from the archive and the future tier.
+   */
+  private long deleteFromIndex(Collection<Long> eventIds, boolean moved) throws Exception {
+    Term[] identityTerms = identityTermsFactory(eventIds);
+    replaceLock.readLock().lock();
+    try {
+      if (!moved) {
+        if (archive != null) {
+          archive.indexWriter.deleteDocuments(identityTerms);
+        }
+        if (future != null) {
+          future.indexWriter.deleteDocuments(identityTerms);
+        }
+      }
+      Index index = this.index;
+      long generation = index.generationOffset + index.trackingIndexWriter.deleteDocuments(identityTerms);
+      if (!moved) {
+        Set<Long> updatedWhileMoving = this.updatedWhileMoving;
+        if (updatedWhileMoving != null) {
+          updatedWhileMoving.addAll(eventIds);
+        }
+      }
+      Rebuild rebuild = this.rebuild;
+      for (Long eventId : eventIds) {
+        if (rebuild != null) {
+          rebuild.replay.put(eventId, Collections.<Document>emptyList());
+        }
+        // matches no content hash, as the searcher might still contain the event
+        unrefreshedContentHashes.put(eventId, new IndexedContentHash(0, generation));
+      }
+      unrefreshedSinceNanos.compareAndSet(0, System.nanoTime());
+      return generation;
+    } finally {
+      replaceLock.readLock().unlock();
     }
+  }
 
-    Term identityTerm = new Term(FIELD_EVENT_IDENTITY_INDEXED, eventIdString);
-    indexWriter.updateDocuments(identityTerm, documents);
+  private Term[] identityTermsFactory(Collection<Long> eventIds) {
+    Term[] identityTerms = new Term[eventIds.size()];
+    int i = 0;
+    for (Long eventId : eventIds) {
+      identityTerms[i++] = new Term(FIELD_EVENT_IDENTITY_INDEXED, String.valueOf(eventId));
+    }
+    return identityTerms;
+  }
 
+  /**
+   * Replaces all documents of the event. Thread safe.
+   *
+   * @return Generation of the update, see {@link #waitForGeneration(long)}
+   */
+  public long updateIndex(long eventId, List<Document> documents) throws Exception {
+    Term identityTerm = new Term(FIELD_EVENT_IDENTITY_INDEXED, String.valueOf(eventId));
+    replaceLock.readLock().lock();
+    try {
+      // archived or moved to the future tier again by the next run, and until then only found in the live index
+      if (archive != null) {
+        archive.indexWriter.deleteDocuments(identityTerm);
+      }
+      if (future != null) {
+        future.indexWriter.deleteDocuments(identityTerm);
+      }
+      long generation = updateLiveIndex(eventId, documents);
+      Set<Long> updatedWhileMoving = this.updatedWhileMoving;
+      if (updatedWhileMoving != null) {
+        updatedWhileMoving.add(eventId);
+      }
+      return generation;
+    } finally {
+      replaceLock.readLock().unlock();
+    }
+  }
 
+  /**
+   * Replaces all documents of the event in the live index. The caller holds {@link #replaceLock}.
+   */
+  private long updateLiveIndex(long eventId, List<Document> documents) throws Exception {
+    Index index = this.index;
+    long generation = index.generationOffset + index.trackingIndexWriter.updateDocuments(new Term(FIELD_EVENT_IDENTITY_INDEXED, String.valueOf(eventId)), documents);
+    IndexableField contentHash = documents.isEmpty() ? null : documents.get(0).getField(FIELD_EVENT_CONTENT_HASH_VALUE);
+    if (contentHash != null) {
+      unrefreshedContentHashes.put(eventId, new IndexedContentHash(contentHash.numericValue().longValue(), generation));
+    } else {
+      unrefreshedContentHashes.remove(eventId);
+    }
+    Rebuild rebuild = this.rebuild;
+    if (rebuild != null) {
+      rebuild.replay.put(eventId, documents);
+    }
+    unrefreshedSinceNanos.compareAndSet(0, System.nanoTime());
+    return generation;
   }
 
 
-  private Document documentFactory(Event event, JSONObject json) throws Exception {
+  private Document documentFactory(Event event, BytesRef jsonBytes, BytesRef precompressedJsonBytes, long contentHash) throws Exception {
 
     String eventIdString = String.valueOf(event.getEventId());
 
     final Document document = new Document();
 
-    document.add(new BinaryDocValuesField(FIELD_EVENT_JSON_VALUE, new BytesRef(json.toString())));
+    document.add(new BinaryDocValuesField(FIELD_EVENT_JSON_VALUE, jsonBytes));
+    document.add(new BinaryDocValuesField(FIELD_EVENT_JSON_PRECOMPRESSED_VALUE, precompressedJsonBytes));
 
     document.add(new NumericDocValuesField(FIELD_EVENT_IDENTITY_VALUE, event.getEventId()));
+    document.add(new NumericDocValuesField(FIELD_EVENT_CONTENT_HASH_VALUE, contentHash));
     document.add(new StringField(FIELD_EVENT_IDENTITY_INDEXED, eventIdString, Field.Store.NO));
 
     document.add(new LongField(FIELD_EVENT_CREATED, event.getCreatedEpochMilliseconds(), StoredField.Store.NO));
@@ -226,9 +1922,9 @@ public class IndexManager {
 
   }
 
-  private Document documentFactory(Event event, JSONObject json, Show show) throws Exception {
+  private Document documentFactory(Event event, BytesRef jsonBytes, BytesRef precompressedJsonBytes, long contentHash, Show show) throws Exception {
 
-    Document document = documentFactory(event, json);
+    Document document = documentFactory(event, jsonBytes, precompressedJsonBytes, contentHash);
 
     document.add(new StringField(FIELD_EVENT_SHOW_STATUS, show.getStatus() != null ? show.getStatus().name() : ShowStatus.scheduled.name(), StoredField.Store.NO));
 
@@ -245,22 +1941,230 @@ public class IndexManager {
   }
 
 
+  /**
+   * Identical concurrent searches are executed once, see {@link SearchCoalescer}.
+   */
   public SearchResults search(final SearchRequest searchRequest) throws Exception {
+    boolean stale = !awaitConsistency(searchRequest);
+    boolean searchArchive = isReachingIntoArchive(searchRequest.getQuery());
+    if (searchArchive) {
+      archiveSearches.increment();
+    }
+    boolean searchFuture = isReachingIntoFuture(searchRequest.getQuery());
+    if (searchFuture) {
+      futureSearches.increment();
+    }
+    final IndexSearcher indexSearcher = acquireSearcher(searchArchive, searchFuture);
+    try {
+      admit(indexSearcher, searchRequest);
+      searchRequest.getStageTimings().stage("admit");
+      if (!searchCoalescing || stale) {
+        // stale results are not shared with searches that might not be stale
+        SearchResults searchResults = search(indexSearcher, searchRequest);
+        searchResults.setStale(stale);
+        return searchResults;
+      }
+      return searchCoalescer.search(((VersionedIndexSearcher) indexSearcher).liveIndexReader, searchRequest, new Callable<SearchResults>() {
+        @Override
+        public SearchResults call() throws Exception {
+          return search(indexSearcher, searchRequest);
+        }
+      });
+    } finally {
+      releaseSearcher(indexSearcher);
+    }
+  }
+
+  /**
+   * Executes all search requests in parallel against the same searcher, i.e. results are consistent with each other.
+   * Filters used by more than one of the requests are evaluated once per segment and shared.
+   * <p/>
+   * The calling thread and at most {@link #maximumBatchParallelism} minus one tasks of the executor take turns
+   * picking up the requests, hence it's safe to call from a thread of the same executor
+   * and a large batch does not crowd out other searches.
+   *
+   * @return Search results in the same order as the requests.
+   */
+  public List<SearchResults> search(List<SearchRequest> searchRequests, Executor executor) throws Exception {
+
+    shareFilters(searchRequests);
+
+    boolean[] stale = awaitConsistency(searchRequests);
+
+    IndexSearcher indexSearcher = acquireSearcher();
+    // only requests reaching into the past or beyond the hot tier search the archive or the future tier,
+    // together with the same searcher of the live index. Indexed by archive 1 and future 2.
+    IndexSearcher[] tieredSearchers = new IndexSearcher[4];
+    tieredSearchers[0] = indexSearcher;
+    try {
+
+      List<IndexSearcher> searchers = new ArrayList<>(searchRequests.size());
+      for (SearchRequest searchRequest : searchRequests) {
+        boolean searchArchive = isReachingIntoArchive(searchRequest.getQuery());
+        if (searchArchive) {
+          archiveSearches.increment();
+        }
+        boolean searchFuture = isReachingIntoFuture(searchRequest.getQuery());
+        if (searchFuture) {
+          futureSearches.increment();
+        }
+        int tiers = (searchArchive ? 1 : 0) | (searchFuture ? 2 : 0);
+        if (tieredSearchers[tiers] == null) {
+          tieredSearchers[tiers] = tieredSearcherFactory(indexSearcher, searchArchive, searchFuture);
+        }
+        searchers.add(tieredSearchers[tiers]);
+      }
+
+      for (int i = 0; i < searchRequests.size(); i++) {
+        admit(searchers.get(i), searchRequests.get(i));
+        searchRequests.get(i).getStageTimings().stage("admit");
+      }
+
+      List<FutureTask<SearchResults>> tasks = new ArrayList<>(searchRequests.size());
+      final Queue<FutureTask<SearchResults>> pendingTasks = new ConcurrentLinkedQueue<>();
+      for (int i = 0; i < searchRequests.size(); i++) {
+        final IndexSearcher searcher = searchers.get(i);
+        final SearchRequest searchRequest = searchRequests.get(i);
+        FutureTask<SearchResults> task = new FutureTask<>(new Callable<SearchResults>() {
+          @Override
+          public SearchResults call() throws Exception {
+            return search(searcher, searchRequest);
+          }
+        });
+        tasks.add(task);
+        pendingTasks.add(task);
+      }
+
+      Runnable worker = new Runnable() {
+        @Override
+        public void run() {
+          FutureTask<SearchResults> task;
+          while ((task = pendingTasks.poll()) != null) {
+            task.run();
+          }
+        }
+      };
+      for (int i = 1; i < Math.min(maximumBatchParallelism, tasks.size()); i++) {
+        try {
+          executor.execute(worker);
+        } catch (RejectedExecutionException e) {
+          // executed by this thread
+          break;
+        }
+      }
+      worker.run();
+
+      List<SearchResults> searchResults = new ArrayList<>(searchRequests.size());
+      Exception exception = null;
+      for (FutureTask<SearchResults> task : tasks) {
+        try {
+          searchResults.add(task.get());
+        } catch (ExecutionException e) {
+          // keep on waiting for the other tasks, as they use the searcher
+          if (exception == null) {
+            exception = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+          }
+        }
+      }
+      if (exception != null) {
+        throw exception;
+      }
+      for (int i = 0; i < stale.length; i++) {
+        searchResults.get(i).setStale(stale[i]);
+      }
+
+      return searchResults;
+
+    } finally {
+      for (IndexSearcher tieredSearcher : tieredSearchers) {
+        if (tieredSearcher != null) {
+          releaseSearcher(tieredSearcher);
+        }
+      }
+    }
+  }
+
+  /**
+   * Limits searches requesting too many results and rejects searches estimated to cost too much,
+   * before they are executed.
+   *
+   * @throws QueryCostExceededException if the estimated cost of the search exceeds {@link #maximumQueryCost}
+   */
+  private void admit(IndexSearcher indexSearcher, SearchRequest searchRequest) throws IOException {
+
+    if ((long) searchRequest.getStartIndex() + searchRequest.getLimit() > maximumResults) {
+      searchRequest.setLimit(Math.max(0, maximumResults - searchRequest.getStartIndex()));
+      limitDegraded.increment();
+    }
+
+    long cost = new QueryCostEstimator(indexSearcher.getIndexReader()).estimate(searchRequest);
+    if (cost > maximumQueryCost) {
+      costRejected.increment();
+      throw new QueryCostExceededException(cost, maximumQueryCost);
+    }
+  }
+
+  /**
+   * Replaces filter clauses used by more than one request with a shared instance caching matching documents per segment.
+   */
+  private void shareFilters(List<SearchRequest> searchRequests) {
+
+    Map<Query, Integer> filterUsages = new HashMap<>();
+    for (SearchRequest searchRequest : searchRequests) {
+      if (searchRequest.getQuery() instanceof BooleanQuery) {
+        for (BooleanClause clause : ((BooleanQuery) searchRequest.getQuery()).clauses()) {
+          if (clause.getOccur() == BooleanClause.Occur.FILTER) {
+            Integer usages = filterUsages.get(clause.getQuery());
+            filterUsages.put(clause.getQuery(), usages == null ? 1 : usages + 1);
+          }
+        }
+      }
+    }
+
+    Map<Query, Query> sharedFilters = new HashMap<>();
+    for (Map.Entry<Query, Integer> filterUsage : filterUsages.entrySet()) {
+      if (filterUsage.getValue() > 1) {
+        sharedFilters.put(filterUsage.getKey(), new CachingWrapperQuery(filterUsage.getKey(), QueryCachingPolicy.ALWAYS_CACHE));
+      }
+    }
+    if (sharedFilters.isEmpty()) {
+      return;
+    }
+
+    for (SearchRequest searchRequest : searchRequests) {
+      if (searchRequest.getQuery() instanceof BooleanQuery) {
+        BooleanQuery query = (BooleanQuery) searchRequest.getQuery();
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        builder.setDisableCoord(query.isCoordDisabled());
+        builder.setMinimumNumberShouldMatch(query.getMinimumNumberShouldMatch());
+        for (BooleanClause clause : query.clauses()) {
+          Query sharedFilter = clause.getOccur() == BooleanClause.Occur.FILTER ? sharedFilters.get(clause.getQuery()) : null;
+          builder.add(sharedFilter != null ? sharedFilter : clause.getQuery(), clause.getOccur());
+        }
+        BooleanQuery sharingQuery = builder.build();
+        sharingQuery.setBoost(query.getBoost());
+        searchRequest.setQuery(sharingQuery);
+      }
+    }
+
+  }
+
+  private SearchResults search(IndexSearcher indexSearcher, final SearchRequest searchRequest) throws Exception {
 
     /** Multiple index points for the same event, i.e. shows on multiple dates. */
     final Map<Long, SearchResult> indexResultsById = new HashMap<>();
 
-    IndexSearcher indexSearcher = searcherManager.acquire();
-    try {
+    SearchResults searchResults = new SearchResults();
+    searchResults.setIndexVersion(getIndexVersion(indexSearcher));
 
+    {
 
-      indexSearcher.search(searchRequest.getQuery(), new Collector() {
+      Collector collector = new Collector() {
         @Override
         public LeafCollector getLeafCollector(final LeafReaderContext leafReaderContext) throws IOException {
           return new LeafCollector() {
             Scorer scorer;
             NumericDocValues identityValues;
-            BinaryDocValues jsonValues;
 
             @Override
             public void setScorer(Scorer scorer) throws IOException {
@@ -278,14 +2182,9 @@ public class IndexManager {
               if (searchResult == null) {
                 searchResult = new SearchResult();
                 searchResult.setEventId(eventId);
+                searchResult.setDocument(leafReaderContext.docBase + doc);
                 indexResultsById.put(eventId, searchResult);
               }
-              if (searchRequest.isEventJsonOutput() && searchResult.getJson() == null) {
-                if (jsonValues == null) {
-                  jsonValues = leafReaderContext.reader().getBinaryDocValues(FIELD_EVENT_JSON_VALUE);
-                }
-                searchResult.setJson(jsonValues.get(doc).utf8ToString());
-              }
               if (searchRequest.isScoring()) {
                 float score = scorer.score();
                 if (searchResult.getScore() < score) {
@@ -298,37 +2197,269 @@ public class IndexManager {
 
         @Override
         public boolean needsScores() {
-          return true;
+          return searchRequest.isScoring();
         }
 
+      };
+
+      if (searchRequest.getTimeoutMillis() > 0) {
+        collector = new TimeLimitingCollector(collector, TimeLimitingCollector.getGlobalCounter(), searchRequest.getTimeoutMillis());
+      }
+
+      try {
+        indexSearcher.search(searchRequest.getQuery(), collector);
+      } catch (TimeLimitingCollector.TimeExceededException e) {
+        // results collected so far are returned
+        searchResults.setPartial(true);
+        timedOut.increment();
+      }
+      searchRequest.getStageTimings().stage("search");
+
+      List<SearchResult> orderedSearchResults = new ArrayList<>(indexResultsById.values());
+      // todo sort order
+      Collections.sort(orderedSearchResults, new Comparator<SearchResult>() {
+        @Override
+        public int compare(SearchResult o1, SearchResult o2) {
+          return Float.compare(o2.getScore(), o1.getScore());
+        }
       });
 
+      searchResults.setTotalNumberOfSearchResults(orderedSearchResults.size());
+      searchResults.setSearchResults(new ArrayList<SearchResult>(searchRequest.getLimit()));
+      for (int i = searchRequest.getStartIndex(); i < searchRequest.getLimit() + searchRequest.getStartIndex() && i < indexResultsById.size(); i++) {
+        searchResults.getSearchResults().add(orderedSearchResults.get(i));
+      }
+      searchRequest.getStageTimings().stage("group and sort");
+
+      if (searchRequest.isEventJsonOutput()) {
+        // only the requested page is loaded, copied once from the doc values and never decoded.
+        for (SearchResult searchResult : searchResults.getSearchResults()) {
+          loadEventJson(indexSearcher, searchResult, searchRequest.isPrecompressedEventJson());
+        }
+      }
+      searchRequest.getStageTimings().stage("load event json");
+
+    }
+
+    return searchResults;
+
+  }
+
+
+  /**
+   * Loads event JSON for the first document of the search result.
+   *
+   * @param precompressed If true, the precompressed JSON is loaded, falling back on plain JSON if missing.
+   */
+  private void loadEventJson(IndexSearcher indexSearcher, SearchResult searchResult, boolean precompressed) throws IOException {
+    List<LeafReaderContext> leaves = indexSearcher.getIndexReader().leaves();
+    LeafReaderContext leafReaderContext = leaves.get(ReaderUtil.subIndex(searchResult.getDocument(), leaves));
+    int doc = searchResult.getDocument() - leafReaderContext.docBase;
+
+    if (precompressed) {
+      BinaryDocValues precompressedJsonValues = leafReaderContext.reader().getBinaryDocValues(FIELD_EVENT_JSON_PRECOMPRESSED_VALUE);
+      if (precompressedJsonValues != null) {
+        BytesRef precompressedJson = precompressedJsonValues.get(doc);
+        if (precompressedJson.length > 0) {
+          searchResult.setPrecompressedJson(BytesRef.deepCopyOf(precompressedJson));
+          return;
+        }
+      }
+      // indexed before precompressed payloads was introduced
+    }
+
+    BinaryDocValues jsonValues = leafReaderContext.reader().getBinaryDocValues(FIELD_EVENT_JSON_VALUE);
+    searchResult.setJson(BytesRef.deepCopyOf(jsonValues.get(doc)));
+  }
 
+  /**
+   * Changes whenever the searcher is refreshed with modifications to the index,
+   * i.e. search results are the same for all searches executed at the same index version.
+   *
+   * @return Opaque index version, safe for use in HTTP headers.
+   */
+  public String getIndexVersion() throws Exception {
+    IndexSearcher indexSearcher = acquireSearcher();
+    try {
+      return getIndexVersion(indexSearcher);
     } finally {
-      searcherManager.release(indexSearcher);
+      releaseSearcher(indexSearcher);
     }
+  }
 
+  /**
+   * @return Version of the live index searched by the searcher, see {@link SearchResults#getIndexVersion()}.
+   */
+  private String getIndexVersion(IndexSearcher indexSearcher) {
+    return ((VersionedIndexSearcher) indexSearcher).indexVersion;
+  }
 
-    List<SearchResult> orderedSearchResults = new ArrayList<>(indexResultsById.values());
-    // todo sort order
-    Collections.sort(orderedSearchResults, new Comparator<SearchResult>() {
-      @Override
-      public int compare(SearchResult o1, SearchResult o2) {
-        return Float.compare(o2.getScore(), o1.getScore());
+  /**
+   * @param precompressed If true, the precompressed JSON is loaded, falling back on plain JSON if missing.
+   * @return Event JSON, or null if event is not in the index.
+   */
+  public SearchResult getEvent(long eventId, boolean precompressed) throws Exception {
+    IndexSearcher indexSearcher = acquireSearcher(true, true);
+    try {
+      TopDocs topDocs = indexSearcher.search(new TermQuery(new Term(FIELD_EVENT_IDENTITY_INDEXED, String.valueOf(eventId))), 1);
+      if (topDocs.scoreDocs.length == 0) {
+        return null;
       }
-    });
+      SearchResult searchResult = new SearchResult();
+      searchResult.setEventId(eventId);
+      searchResult.setDocument(topDocs.scoreDocs[0].doc);
+      loadEventJson(indexSearcher, searchResult, precompressed);
+      return searchResult;
 
-    SearchResults searchResults = new SearchResults();
-    searchResults.setTotalNumberOfSearchResults(orderedSearchResults.size());
-    searchResults.setSearchResults(new ArrayList<SearchResult>(searchRequest.getLimit()));
-    for (int i = searchRequest.getStartIndex(); i < searchRequest.getLimit() + searchRequest.getStartIndex() && i < indexResultsById.size(); i++) {
-      searchResults.getSearchResults().add(orderedSearchResults.get(i));
+    } finally {
+      releaseSearcher(indexSearcher);
     }
+  }
 
-    return searchResults;
 
+  public long getMaximumStaleMilliseconds() {
+    return maximumStaleMilliseconds;
+  }
+
+  public void setMaximumStaleMilliseconds(long maximumStaleMilliseconds) {
+    this.maximumStaleMilliseconds = maximumStaleMilliseconds;
+  }
+
+  public long getMinimumStaleMilliseconds() {
+    return minimumStaleMilliseconds;
+  }
+
+  public void setMinimumStaleMilliseconds(long minimumStaleMilliseconds) {
+    this.minimumStaleMilliseconds = minimumStaleMilliseconds;
+  }
+
+  public long getMaximumConsistencyWaitMilliseconds() {
+    return maximumConsistencyWaitMilliseconds;
+  }
+
+  public void setMaximumConsistencyWaitMilliseconds(long maximumConsistencyWaitMilliseconds) {
+    this.maximumConsistencyWaitMilliseconds = maximumConsistencyWaitMilliseconds;
+  }
+
+  public long getCommitIntervalMilliseconds() {
+    return commitIntervalMilliseconds;
+  }
+
+  public void setCommitIntervalMilliseconds(long commitIntervalMilliseconds) {
+    this.commitIntervalMilliseconds = commitIntervalMilliseconds;
+  }
+
+  public long getReclaimDeletesIntervalMilliseconds() {
+    return reclaimDeletesIntervalMilliseconds;
+  }
+
+  public void setReclaimDeletesIntervalMilliseconds(long reclaimDeletesIntervalMilliseconds) {
+    this.reclaimDeletesIntervalMilliseconds = reclaimDeletesIntervalMilliseconds;
+  }
+
+  public double getReclaimDeletesMinimumRatio() {
+    return reclaimDeletesMinimumRatio;
+  }
+
+  public void setReclaimDeletesMinimumRatio(double reclaimDeletesMinimumRatio) {
+    this.reclaimDeletesMinimumRatio = reclaimDeletesMinimumRatio;
+  }
+
+  public long getArchiveAfterMilliseconds() {
+    return archiveAfterMilliseconds;
+  }
+
+  public void setArchiveAfterMilliseconds(long archiveAfterMilliseconds) {
+    this.archiveAfterMilliseconds = archiveAfterMilliseconds;
+  }
+
+  public long getArchiveIntervalMilliseconds() {
+    return archiveIntervalMilliseconds;
+  }
+
+  public void setArchiveIntervalMilliseconds(long archiveIntervalMilliseconds) {
+    this.archiveIntervalMilliseconds = archiveIntervalMilliseconds;
+  }
+
+  public long getHotTierMilliseconds() {
+    return hotTierMilliseconds;
+  }
+
+  public void setHotTierMilliseconds(long hotTierMilliseconds) {
+    this.hotTierMilliseconds = hotTierMilliseconds;
+  }
+
+  public boolean isPreload() {
+    return preload;
+  }
+
+  public void setPreload(boolean preload) {
+    this.preload = preload;
+  }
+
+  public boolean isSearchCoalescing() {
+    return searchCoalescing;
+  }
+
+  public void setSearchCoalescing(boolean searchCoalescing) {
+    this.searchCoalescing = searchCoalescing;
+  }
+
+  public long getMaximumQueryCost() {
+    return maximumQueryCost;
+  }
+
+  public void setMaximumQueryCost(long maximumQueryCost) {
+    this.maximumQueryCost = maximumQueryCost;
+  }
+
+  public int getMaximumBatchParallelism() {
+    return maximumBatchParallelism;
+  }
+
+  public void setMaximumBatchParallelism(int maximumBatchParallelism) {
+    this.maximumBatchParallelism = maximumBatchParallelism;
+  }
+
+  public int getMaximumResults() {
+    return maximumResults;
+  }
+
+  public void setMaximumResults(int maximumResults) {
+    this.maximumResults = maximumResults;
+  }
+
+  public double getRebuildMinimumEventsRatio() {
+    return rebuildMinimumEventsRatio;
+  }
+
+  public void setRebuildMinimumEventsRatio(double rebuildMinimumEventsRatio) {
+    this.rebuildMinimumEventsRatio = rebuildMinimumEventsRatio;
+  }
+
+  public double getRebuildRAMBufferSizeMB() {
+    return rebuildRAMBufferSizeMB;
+  }
+
+  public void setRebuildRAMBufferSizeMB(double rebuildRAMBufferSizeMB) {
+    this.rebuildRAMBufferSizeMB = rebuildRAMBufferSizeMB;
+  }
+
+  public int getRebuildShards() {
+    return rebuildShards;
+  }
+
+  public void setRebuildShards(int rebuildShards) {
+    this.rebuildShards = rebuildShards;
+  }
+
+  public int getRebuildMaximumSegments() {
+    return rebuildMaximumSegments;
   }
 
+  public void setRebuildMaximumSegments(int rebuildMaximumSegments) {
+    this.rebuildMaximumSegments = rebuildMaximumSegments;
+  }
 
   public File getDataPath() {
     return dataPath;
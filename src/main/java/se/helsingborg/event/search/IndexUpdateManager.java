@@ -1,63 +1,462 @@
 package se.helsingborg.event.search;
 
+import org.apache.lucene.document.Document;
 import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.helsingborg.event.Metrics;
 import se.helsingborg.event.PrimaryPersistence;
-import se.helsingborg.event.domin.Event;
+import se.helsingborg.event.SystemErrorManager;
 import se.helsingborg.event.domin.EventJSONSerialization;
 import se.helsingborg.event.util.JSONUtil;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.concurrent.TimeUnit;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
+ * Polls the primary persistence for modified events and writes them to the index.
+ * <p/>
+ * Events are processed in a pipeline with bounded queues between the stages:
+ * <ol>
+ * <li>Fetch: iterating the events from the primary persistence, on the calling thread.</li>
+ * <li>Parse: unmarshalling the JSON and building the documents, on {@link #parserThreads} threads.</li>
+ * <li>Write: updating the documents in the index, on {@link #writerThreads} threads.</li>
+ * </ol>
+ * Each parser and writer thread has a queue of its own, and events are partitioned over them by event id.
+ * All versions of an event thus pass the same ordered lane and are written in the order fetched.
+ * The index is committed every {@link #commitEveryEvents} events or {@link #commitEveryMilliseconds},
+ * whichever comes first, and when all events have been written.
+ * <p/>
+ * Events with the same content hash as in the index are skipped before parsing, see {@link IndexManager#findContentHash(long, long)}.
+ * Tombstones, i.e. <code>{"eventId": 123, "deleted": true}</code>, delete the event from the index. Deletes are
+ * applied in batches of {@link #deleteBatchSize} per writer thread.
+ * <p/>
+ * Events that can not be parsed are reported and skipped. If the index or any stage fails the whole pass fails
+ * and the same events are requested again at the next poll, see {@link #run()}.
+ * <p/>
+ * The same pipeline rebuilds the index from scratch, see {@link #rebuild(Iterator)}. If the rebuilt index is sharded,
+ * see {@link IndexManager#setRebuildShards(int)}, there is one writer thread per shard.
+ *
  * @author kalle
  * @since 2015-10-25 16:03
  */
 public class IndexUpdateManager {
 
-  // todo: job that checks for updates since previous request.
-  // todo: requires local persistence to keep track of when the previous request was made
+  private static final Logger log = LoggerFactory.getLogger(IndexUpdateManager.class);
 
   private long millisecondsDelayBetweenUpdate = TimeUnit.MINUTES.toMillis(1);
 
+  /**
+   * Defaults to the primary persistence of {@link Service}, connected while the service is open.
+   */
   private PrimaryPersistence primaryPersistence;
 
+  /**
+   * Defaults to the index manager of {@link Service}.
+   */
+  private IndexManager indexManager;
+
+  private int parserThreads = Runtime.getRuntime().availableProcessors();
+  private int writerThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+  private int queueCapacity = 1024;
+
+  private int deleteBatchSize = 1000;
+
+  private int commitEveryEvents = 10000;
+  private long commitEveryMilliseconds = TimeUnit.SECONDS.toMillis(10);
+
+  private final Metrics.Counter updatedEvents = Metrics.getInstance().getCounter("index_update_events_total", "Events written to the index by the update pipeline.");
+  private final Metrics.Counter deletedEvents = Metrics.getInstance().getCounter("index_update_deleted_total", "Events deleted from the index by tombstones in the update pipeline.");
+  private final Metrics.Counter malformedEvents = Metrics.getInstance().getCounter("index_update_malformed_total", "Events not written to the index as they could not be parsed.");
+  private final Metrics.Counter skippedEvents = Metrics.getInstance().getCounter("index_update_skipped_total", "Events not written to the index as their content hash was unchanged.", Metrics.label("source", "pipeline"));
+  private final Metrics.Histogram updateDuration = Metrics.getInstance().getHistogram("index_update_duration_seconds", "Time to fetch, parse and write all modified events of a poll.", "");
+  private final Metrics.Histogram rebuildDuration = Metrics.getInstance().getHistogram("index_rebuild_duration_seconds", "Time to rebuild the index from scratch and replace the live index.", "");
+
+  /**
+   * Signals the end of a queue.
+   */
+  private static final Object END = new Object();
+
+  private static class ParsedEvent {
+    private final long eventId;
+    /**
+     * Null if deleted.
+     */
+    private final List<Document> documents;
+
+    private ParsedEvent(long eventId, List<Document> documents) {
+      this.eventId = eventId;
+      this.documents = documents;
+    }
+  }
+
+  /**
+   * Polls until interrupted. A failed poll is logged and retried at the next poll from the same timestamp.
+   */
   public void run() throws Exception {
 
-    primaryPersistence.connect();
-    try {
+    long delay = millisecondsDelayBetweenUpdate;
+    while (true) {
+      if (delay > 0) {
+        Thread.sleep(delay);
+      }
+      long started = System.currentTimeMillis();
+      long previousTimestampListModifiedEvents = JSONUtil.optLong(Service.getInstance().getLocalPersistence().getJSONObject(), "previousTimestampListModifiedEvents", 0l);
 
-      EventJSONSerialization serialization = new EventJSONSerialization();
+      int numberOfEvents;
+      try {
+        numberOfEvents = update(getPrimaryPersistence().listUpdated(previousTimestampListModifiedEvents));
+      } catch (InterruptedException e) {
+        throw e;
+      } catch (Exception e) {
+        SystemErrorManager.getInstance().log("Exception caught when updating index, retrying at next poll.", e);
+        delay = millisecondsDelayBetweenUpdate;
+        continue;
+      }
 
-      while (true) {
-        Thread.sleep(millisecondsDelayBetweenUpdate);
-        long started = System.currentTimeMillis();
-        long previousTimestampListModifiedEvents = JSONUtil.optLong(Service.getInstance().getLocalPersistence().getJSONObject(), "previousTimestampListModifiedEvents", 0l);
+      Service.getInstance().getLocalPersistence().getJSONObject().put("previousTimestampListModifiedEvents", started);
+      Service.getInstance().getLocalPersistence().commit();
 
-        for (Iterator<JSONObject> jsonEvents = primaryPersistence.listUpdated(previousTimestampListModifiedEvents); jsonEvents.hasNext(); ) {
-          JSONObject jsonEvent = jsonEvents.next();
+      long elapsed = System.currentTimeMillis() - started;
+      if (numberOfEvents >= commitEveryEvents) {
+        // catching up, poll again immediately
+        delay = 0;
+      } else {
+        delay = millisecondsDelayBetweenUpdate - elapsed;
+      }
+    }
+  }
+
+  /**
+   * Writes all events to the index and commits.
+   *
+   * @return Number of events written
+   */
+  public int update(Iterator<JSONObject> jsonEvents) throws Exception {
+    long started = System.nanoTime();
+    int written = write(jsonEvents, false);
+    updateDuration.observeNanos(System.nanoTime() - started);
+    if (written > 0) {
+      log.info("Updated " + written + " events in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + " ms.");
+    }
+    return written;
+  }
+
+  /**
+   * Writes all events to a new index, side by side with the live index which keeps serving searches and updates,
+   * and then replaces the live index with it. See {@link IndexManager#beginRebuild()}.
+   *
+   * @param export All events, e.g. {@link PrimaryPersistence#export()}. Called once rebuilding, as updates of the live
+   *               index are only replayed on the rebuilt index from then on.
+   * @return Number of events written
+   */
+  public int rebuild(Callable<Iterator<JSONObject>> export) throws Exception {
+    IndexManager indexManager = getIndexManager();
+    StageTimings stageTimings = new StageTimings();
+    indexManager.beginRebuild();
+    int written;
+    try {
+      stageTimings.stage("open");
+      written = write(export.call(), true);
+      stageTimings.stage("write");
+      indexManager.finishRebuild(stageTimings);
+    } finally {
+      // no-op if finished
+      indexManager.abortRebuild();
+    }
+    rebuildDuration.observeNanos(stageTimings.getTotalNanos());
+
+    final double eventsPerSecond = written / (stageTimings.getTotalNanos() / 1000000000d);
+    log.info("Rebuilt index with " + written + " events in " + TimeUnit.NANOSECONDS.toMillis(stageTimings.getTotalNanos()) + " ms"
+        + ", " + Math.round(eventsPerSecond) + " events per second, " + stageTimings);
 
-          Event event = serialization.unmarshalEvent(jsonEvent);
-          Service.getInstance().getIndexManager().updateIndex(event, jsonEvent);
+    Metrics.getInstance().setGauge("index_rebuild_events_per_second", "Throughput of the latest rebuild, from start to replacing the live index.", "", new Metrics.Gauge() {
+      @Override
+      public double getValue() throws Exception {
+        return eventsPerSecond;
+      }
+    });
+    for (Map.Entry<String, Long> stage : stageTimings.getStages().entrySet()) {
+      final double seconds = stage.getValue() / 1000000000d;
+      Metrics.getInstance().setGauge("index_rebuild_phase_seconds", "Time spent per phase of the latest rebuild.", Metrics.label("phase", stage.getKey()), new Metrics.Gauge() {
+        @Override
+        public double getValue() throws Exception {
+          return seconds;
         }
+      });
+    }
+
+    return written;
+  }
+
+  /**
+   * @param rebuild If true events are written to the index being rebuilt, which is not committed until finished.
+   */
+  private int write(Iterator<JSONObject> jsonEvents, final boolean rebuild) throws Exception {
+
+    final IndexManager indexManager = getIndexManager();
+
+    // a sharded rebuild writes each shard from a thread of its own
+    final int shards = rebuild ? indexManager.getRebuiltIndexShards() : 1;
+    final int writerThreads = shards > 1 ? shards : this.writerThreads;
+
+    final List<BlockingQueue<Object>> parseQueues = new ArrayList<>(parserThreads);
+    for (int i = 0; i < parserThreads; i++) {
+      parseQueues.add(new ArrayBlockingQueue<Object>(queueCapacity));
+    }
+    final List<BlockingQueue<Object>> writeQueues = new ArrayList<>(writerThreads);
+    for (int i = 0; i < writerThreads; i++) {
+      writeQueues.add(new ArrayBlockingQueue<Object>(queueCapacity));
+    }
 
-        Service.getInstance().getLocalPersistence().getJSONObject().put("previousTimestampListModifiedEvents", started);
-        Service.getInstance().getLocalPersistence().commit();
+    final AtomicReference<Exception> failure = new AtomicReference<>();
+    final AtomicInteger runningParsers = new AtomicInteger(parserThreads);
+    final AtomicInteger written = new AtomicInteger();
+    final AtomicInteger skipped = new AtomicInteger();
+    final AtomicInteger malformed = new AtomicInteger();
+    final AtomicInteger deleted = new AtomicInteger();
+    final AtomicInteger writtenSinceCommit = new AtomicInteger();
+    final AtomicLong lastCommit = new AtomicLong(System.currentTimeMillis());
+    final Object commitLock = new Object();
 
+    ExecutorService executor = Executors.newFixedThreadPool(parserThreads + writerThreads, new ThreadFactory() {
+      private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "index-update-" + threadNumber.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    try {
+
+      for (int i = 0; i < parserThreads; i++) {
+        final BlockingQueue<Object> parseQueue = parseQueues.get(i);
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            EventJSONSerialization serialization = new EventJSONSerialization();
+            // events of the lane with a tombstone not yet applied, i.e. their content hash in the index is about to be deleted
+            Set<Long> tombstoned = new HashSet<>();
+            try {
+              Object item;
+              while ((item = parseQueue.take()) != END) {
+                // after a failure the queue is still drained so that the fetcher is not blocked
+                if (failure.get() != null) {
+                  continue;
+                }
+                JSONObject jsonEvent = (JSONObject) item;
+                try {
+                  boolean tombstone;
+                  long eventId;
+                  long contentHash = 0;
+                  try {
+                    tombstone = JSONUtil.optBoolean(jsonEvent, "deleted", false);
+                    eventId = jsonEvent.getLong("eventId");
+                    if (!tombstone) {
+                      contentHash = indexManager.contentHashFactory(jsonEvent);
+                    }
+                  } catch (Exception e) {
+                    skipMalformed(jsonEvent, e);
+                    malformed.incrementAndGet();
+                    continue;
+                  }
+                  if (tombstone) {
+                    // an index being rebuilt does not contain the event in the first place
+                    if (!rebuild) {
+                      tombstoned.add(eventId);
+                      writeQueues.get(lane(eventId, writerThreads)).put(new ParsedEvent(eventId, null));
+                    }
+                    continue;
+                  }
+                  if (!rebuild && !tombstoned.contains(eventId) && indexManager.findContentHash(eventId, contentHash) >= 0) {
+                    skipped.incrementAndGet();
+                    skippedEvents.increment();
+                    continue;
+                  }
+                  List<Document> documents;
+                  try {
+                    documents = indexManager.documentsFactory(serialization.unmarshalEvent(jsonEvent), jsonEvent, contentHash);
+                  } catch (Exception e) {
+                    skipMalformed(jsonEvent, e);
+                    malformed.incrementAndGet();
+                    continue;
+                  }
+                  writeQueues.get(lane(eventId, writerThreads)).put(new ParsedEvent(eventId, documents));
+                } catch (Exception e) {
+                  // the index or the pipeline failed, rather than the event
+                  failure.compareAndSet(null, e);
+                }
+              }
+              // the last parser to finish ends the write queues
+              if (runningParsers.decrementAndGet() == 0) {
+                for (BlockingQueue<Object> writeQueue : writeQueues) {
+                  writeQueue.put(END);
+                }
+              }
+            } catch (InterruptedException e) {
+              failure.compareAndSet(null, e);
+            }
+          }
+        });
       }
+
+      for (int i = 0; i < writerThreads; i++) {
+        final BlockingQueue<Object> writeQueue = writeQueues.get(i);
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            // an update of the event replaces a pending delete, which is thus applied in order
+            Set<Long> deletes = new LinkedHashSet<>();
+            try {
+              Object item;
+              while ((item = writeQueue.take()) != END) {
+                // after a failure the queue is still drained so that parsers are not blocked
+                if (failure.get() != null) {
+                  continue;
+                }
+                try {
+                  ParsedEvent parsedEvent = (ParsedEvent) item;
+                  if (parsedEvent.documents == null) {
+                    deletes.add(parsedEvent.eventId);
+                    if (deletes.size() >= deleteBatchSize) {
+                      delete(deletes);
+                    }
+                    continue;
+                  }
+                  deletes.remove(parsedEvent.eventId);
+                  if (rebuild) {
+                    indexManager.updateRebuiltIndex(parsedEvent.eventId, parsedEvent.documents);
+                    written.incrementAndGet();
+                    continue;
+                  }
+                  indexManager.updateIndex(parsedEvent.eventId, parsedEvent.documents);
+                  written.incrementAndGet();
+                  updatedEvents.increment();
+
+                  if (writtenSinceCommit.incrementAndGet() >= commitEveryEvents
+                      || System.currentTimeMillis() - lastCommit.get() >= commitEveryMilliseconds) {
+                    synchronized (commitLock) {
+                      // another writer might just have committed
+                      if (writtenSinceCommit.get() >= commitEveryEvents
+                          || System.currentTimeMillis() - lastCommit.get() >= commitEveryMilliseconds) {
+                        writtenSinceCommit.set(0);
+                        lastCommit.set(System.currentTimeMillis());
+                        indexManager.commit();
+                      }
+                    }
+                  }
+                } catch (Exception e) {
+                  failure.compareAndSet(null, e);
+                }
+              }
+              if (failure.get() == null && !deletes.isEmpty()) {
+                delete(deletes);
+              }
+            } catch (Exception e) {
+              failure.compareAndSet(null, e);
+            }
+          }
+
+          private void delete(Set<Long> deletes) throws Exception {
+            indexManager.deleteFromIndex(deletes);
+            deleted.addAndGet(deletes.size());
+            deletedEvents.add(deletes.size());
+            deletes.clear();
+          }
+        });
+      }
+
+      try {
+        while (jsonEvents.hasNext() && failure.get() == null) {
+          JSONObject jsonEvent = jsonEvents.next();
+          // events without a valid identity are reported by the parser
+          Object eventId = jsonEvent.opt("eventId");
+          parseQueues.get(eventId instanceof Number ? lane(((Number) eventId).longValue(), parserThreads) : 0).put(jsonEvent);
+        }
+      } catch (Exception e) {
+        failure.compareAndSet(null, e);
+      } finally {
+        for (BlockingQueue<Object> parseQueue : parseQueues) {
+          parseQueue.put(END);
+        }
+      }
+
+      executor.shutdown();
+      while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+        log.info("Waiting for index update pipeline to finish, " + written.get() + " events written so far.");
+      }
+
     } finally {
-      primaryPersistence.disconnect();
+      executor.shutdownNow();
+    }
+
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+
+    if (!rebuild) {
+      indexManager.commit();
+    }
+    if (deleted.get() > 0) {
+      log.info("Deleted " + deleted.get() + " events.");
+    }
+    if (skipped.get() > 0) {
+      log.info("Skipped " + skipped.get() + " events with unchanged content hash.");
+    }
+    if (malformed.get() > 0) {
+      log.warn("Skipped " + malformed.get() + " malformed events.");
     }
+
+    return written.get();
+  }
+
+  /**
+   * Reports an event that can not be parsed, which is then skipped rather than failing the whole pass.
+   * It is not requested again until modified in the primary persistence.
+   */
+  private void skipMalformed(JSONObject jsonEvent, Exception e) {
+    malformedEvents.increment();
+    log.warn("Skipped malformed event " + jsonEvent.opt("eventId"), e);
+    SystemErrorManager.getInstance().log("Skipped malformed event " + jsonEvent.opt("eventId") + ".", e);
+  }
+
+  /**
+   * Same partitioning as {@link IndexManager#getRebuiltIndexShard(long)}, i.e. writer threads of a sharded rebuild
+   * write one shard each.
+   *
+   * @return Lane of the event, from 0 to lanes exclusive.
+   */
+  private static int lane(long eventId, int lanes) {
+    return (int) (((eventId % lanes) + lanes) % lanes);
   }
 
   public PrimaryPersistence getPrimaryPersistence() {
-    return primaryPersistence;
+    return primaryPersistence != null ? primaryPersistence : Service.getInstance().getPrimaryPersistence();
   }
 
   public void setPrimaryPersistence(PrimaryPersistence primaryPersistence) {
     this.primaryPersistence = primaryPersistence;
   }
 
+  public IndexManager getIndexManager() {
+    return indexManager != null ? indexManager : Service.getInstance().getIndexManager();
+  }
+
+  public void setIndexManager(IndexManager indexManager) {
+    this.indexManager = indexManager;
+  }
+
   public long getMillisecondsDelayBetweenUpdate() {
     return millisecondsDelayBetweenUpdate;
   }
@@ -65,4 +464,52 @@ public class IndexUpdateManager {
   public void setMillisecondsDelayBetweenUpdate(long millisecondsDelayBetweenUpdate) {
     this.millisecondsDelayBetweenUpdate = millisecondsDelayBetweenUpdate;
   }
+
+  public int getParserThreads() {
+    return parserThreads;
+  }
+
+  public void setParserThreads(int parserThreads) {
+    this.parserThreads = parserThreads;
+  }
+
+  public int getWriterThreads() {
+    return writerThreads;
+  }
+
+  public void setWriterThreads(int writerThreads) {
+    this.writerThreads = writerThreads;
+  }
+
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  public void setQueueCapacity(int queueCapacity) {
+    this.queueCapacity = queueCapacity;
+  }
+
+  public int getDeleteBatchSize() {
+    return deleteBatchSize;
+  }
+
+  public void setDeleteBatchSize(int deleteBatchSize) {
+    this.deleteBatchSize = deleteBatchSize;
+  }
+
+  public int getCommitEveryEvents() {
+    return commitEveryEvents;
+  }
+
+  public void setCommitEveryEvents(int commitEveryEvents) {
+    this.commitEveryEvents = commitEveryEvents;
+  }
+
+  public long getCommitEveryMilliseconds() {
+    return commitEveryMilliseconds;
+  }
+
+  public void setCommitEveryMilliseconds(long commitEveryMilliseconds) {
+    this.commitEveryMilliseconds = commitEveryMilliseconds;
+  }
 }
@@ -0,0 +1,28 @@
+package se.helsingborg.event.search;
+
+/**
+ * Thrown when the estimated cost of a search exceeds the budget,
+ * i.e. the search is rejected before executed.
+ *
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class QueryCostExceededException extends IllegalArgumentException {
+
+  private final long estimatedCost;
+  private final long maximumCost;
+
+  public QueryCostExceededException(long estimatedCost, long maximumCost) {
+    super("Estimated query cost " + estimatedCost + " exceeds maximum " + maximumCost);
+    this.estimatedCost = estimatedCost;
+    this.maximumCost = maximumCost;
+  }
+
+  public long getEstimatedCost() {
+    return estimatedCost;
+  }
+
+  public long getMaximumCost() {
+    return maximumCost;
+  }
+}
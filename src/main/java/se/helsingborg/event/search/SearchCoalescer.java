@@ -0,0 +1,126 @@
+package se.helsingborg.event.search;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Query;
+import se.helsingborg.event.Metrics;
+
+import java.util.concurrent.*;
+
+/**
+ * Executes identical concurrent searches against the same index version once,
+ * with all callers but the first waiting for and sharing the results of the first.
+ * <p/>
+ * Shared search results must thus not be modified by the callers.
+ *
+ * @author kalle
+ * @since 2026-10-19
+ */
+class SearchCoalescer {
+
+  private final ConcurrentMap<Key, FutureTask<SearchResults>> inFlight = new ConcurrentHashMap<>();
+
+  private final Metrics.Counter executed = Metrics.getInstance().getCounter("search_executed_total", "Searches executed against the index.");
+  private final Metrics.Counter coalesced = Metrics.getInstance().getCounter("search_coalesced_total", "Searches served by an identical concurrent search.");
+
+  /**
+   * @param liveIndexReader Reader of the live index searched, also if the archive is searched with it.
+   */
+  public SearchResults search(IndexReader liveIndexReader, SearchRequest searchRequest, Callable<SearchResults> search) throws Exception {
+
+    Key key = new Key(liveIndexReader, searchRequest);
+
+    FutureTask<SearchResults> task = new FutureTask<>(search);
+    FutureTask<SearchResults> existing = inFlight.putIfAbsent(key, task);
+    if (existing == null) {
+      executed.increment();
+      try {
+        task.run();
+      } finally {
+        inFlight.remove(key, task);
+      }
+      return get(task);
+
+    } else {
+      coalesced.increment();
+      SearchResults searchResults = get(existing);
+      searchRequest.getStageTimings().stage("coalesced wait");
+      return searchResults;
+    }
+  }
+
+  private SearchResults get(FutureTask<SearchResults> task) throws Exception {
+    try {
+      return task.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Everything in the search request that affects the search results.
+   */
+  private static class Key {
+
+    /**
+     * Compared by identity, as versions of different indices might be the same, see {@link IndexManager#finishRebuild()}.
+     */
+    private final IndexReader indexReader;
+
+    /**
+     * Canonical JSON of the query if known, see {@link SearchRequest#getQueryKey()}, as parsed queries of identical
+     * time relative requests differ. Otherwise the query.
+     */
+    private final Object query;
+    private final boolean scoring;
+    private final boolean eventJsonOutput;
+    private final boolean precompressedEventJson;
+    private final int startIndex;
+    private final int limit;
+    private final long timeoutMillis;
+
+    private Key(IndexReader indexReader, SearchRequest searchRequest) {
+      this.indexReader = indexReader;
+      query = searchRequest.getQueryKey() != null ? searchRequest.getQueryKey() : searchRequest.getQuery();
+      scoring = searchRequest.isScoring();
+      eventJsonOutput = searchRequest.isEventJsonOutput();
+      precompressedEventJson = searchRequest.isPrecompressedEventJson();
+      startIndex = searchRequest.getStartIndex();
+      limit = searchRequest.getLimit();
+      timeoutMillis = searchRequest.getTimeoutMillis();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      Key key = (Key) o;
+
+      if (indexReader != key.indexReader) return false;
+      if (scoring != key.scoring) return false;
+      if (eventJsonOutput != key.eventJsonOutput) return false;
+      if (precompressedEventJson != key.precompressedEventJson) return false;
+      if (startIndex != key.startIndex) return false;
+      if (limit != key.limit) return false;
+      if (timeoutMillis != key.timeoutMillis) return false;
+      return query.equals(key.query);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = System.identityHashCode(indexReader);
+      result = 31 * result + query.hashCode();
+      result = 31 * result + (scoring ? 1 : 0);
+      result = 31 * result + (eventJsonOutput ? 1 : 0);
+      result = 31 * result + (precompressedEventJson ? 1 : 0);
+      result = 31 * result + startIndex;
+      result = 31 * result + limit;
+      result = 31 * result + (int) (timeoutMillis ^ (timeoutMillis >>> 32));
+      return result;
+    }
+  }
+
+}
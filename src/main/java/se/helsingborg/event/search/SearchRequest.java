@@ -11,13 +11,52 @@ public class SearchRequest {
   private boolean scoring;
   private boolean identityOutput;
   private boolean eventJsonOutput;
+  private boolean queryPlanOutput;
+  private boolean debugTimingsOutput;
+
+  /**
+   * If true and event JSON is output, then the precompressed event payload is loaded rather than the plain JSON.
+   */
+  private boolean precompressedEventJson;
 
   private String reference;
   private int startIndex;
   private int limit;
 
+  /**
+   * Maximum time spent collecting matching documents, or 0 for no limit.
+   */
+  private long timeoutMillis;
+
+  /**
+   * Token returned by an update that must be visible to this search, or null.
+   * See {@link IndexManager#awaitConsistencyToken(String, long)}.
+   */
+  private String consistencyToken;
+
+  /**
+   * "Now" the time relative parts of the query was parsed against, or 0 if the results does not depend on the time.
+   */
+  private long nowEpochMilliseconds;
+
+  /**
+   * Canonical JSON of the query including its now, identifying identical queries, or null.
+   * See {@link SearchCoalescer}.
+   */
+  private String queryKey;
+
   private Query query;
 
+  /**
+   * The query as parsed from the request, before optimization. Only used for output.
+   */
+  private Query parsedQuery;
+
+  /**
+   * Time spent per stage of the search is added to these timings.
+   */
+  private StageTimings stageTimings = new StageTimings();
+
   public boolean isIdentityOutput() {
     return identityOutput;
   }
@@ -50,6 +89,22 @@ public class SearchRequest {
     this.limit = limit;
   }
 
+  public long getTimeoutMillis() {
+    return timeoutMillis;
+  }
+
+  public void setTimeoutMillis(long timeoutMillis) {
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  public String getConsistencyToken() {
+    return consistencyToken;
+  }
+
+  public void setConsistencyToken(String consistencyToken) {
+    this.consistencyToken = consistencyToken;
+  }
+
   public Query getQuery() {
     return query;
   }
@@ -58,6 +113,14 @@ public class SearchRequest {
     this.query = query;
   }
 
+  public Query getParsedQuery() {
+    return parsedQuery;
+  }
+
+  public void setParsedQuery(Query parsedQuery) {
+    this.parsedQuery = parsedQuery;
+  }
+
   public boolean isEventJsonOutput() {
     return eventJsonOutput;
   }
@@ -66,6 +129,54 @@ public class SearchRequest {
     this.eventJsonOutput = eventJsonOutput;
   }
 
+  public boolean isQueryPlanOutput() {
+    return queryPlanOutput;
+  }
+
+  public void setQueryPlanOutput(boolean queryPlanOutput) {
+    this.queryPlanOutput = queryPlanOutput;
+  }
+
+  public boolean isDebugTimingsOutput() {
+    return debugTimingsOutput;
+  }
+
+  public void setDebugTimingsOutput(boolean debugTimingsOutput) {
+    this.debugTimingsOutput = debugTimingsOutput;
+  }
+
+  public StageTimings getStageTimings() {
+    return stageTimings;
+  }
+
+  public void setStageTimings(StageTimings stageTimings) {
+    this.stageTimings = stageTimings;
+  }
+
+  public boolean isPrecompressedEventJson() {
+    return precompressedEventJson;
+  }
+
+  public void setPrecompressedEventJson(boolean precompressedEventJson) {
+    this.precompressedEventJson = precompressedEventJson;
+  }
+
+  public long getNowEpochMilliseconds() {
+    return nowEpochMilliseconds;
+  }
+
+  public void setNowEpochMilliseconds(long nowEpochMilliseconds) {
+    this.nowEpochMilliseconds = nowEpochMilliseconds;
+  }
+
+  public String getQueryKey() {
+    return queryKey;
+  }
+
+  public void setQueryKey(String queryKey) {
+    this.queryKey = queryKey;
+  }
+
   public boolean isScoring() {
     return scoring;
   }
@@ -1,5 +1,7 @@
 package se.helsingborg.event.search;
 
+import org.apache.lucene.util.BytesRef;
+
 /**
  * @author kalle
  * @since 2015-10-25 13:33
@@ -8,17 +10,39 @@ public class SearchResult {
 
   private float score;
   private long eventId;
-  private String json;
 
+  /**
+   * UTF-8 encoded event JSON as stored in the index.
+   */
+  private BytesRef json;
+
+  /**
+   * Deflated event JSON as stored in the index, see {@link se.helsingborg.event.util.DeflateUtil}.
+   */
+  private BytesRef precompressedJson;
+
+  /**
+   * Top level document number of the first document matching the event,
+   * only valid in the context of the searcher that produced this result.
+   */
+  private int document;
 
-  public String getJson() {
+  public BytesRef getJson() {
     return json;
   }
 
-  public void setJson(String json) {
+  public void setJson(BytesRef json) {
     this.json = json;
   }
 
+  public BytesRef getPrecompressedJson() {
+    return precompressedJson;
+  }
+
+  public void setPrecompressedJson(BytesRef precompressedJson) {
+    this.precompressedJson = precompressedJson;
+  }
+
   public float getScore() {
     return score;
   }
@@ -34,4 +58,12 @@ public class SearchResult {
   public void setEventId(long eventId) {
     this.eventId = eventId;
   }
+
+  int getDocument() {
+    return document;
+  }
+
+  void setDocument(int document) {
+    this.document = document;
+  }
 }
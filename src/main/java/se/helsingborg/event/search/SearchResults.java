@@ -12,6 +12,29 @@ public class SearchResults {
   private int startIndex;
   private List<SearchResult> searchResults;
 
+  /**
+   * True if the search timed out, i.e. not all matching documents were collected.
+   */
+  private boolean partial;
+
+  /**
+   * True if the update of the consistency token of the request was not yet visible when searching.
+   */
+  private boolean stale;
+
+  /**
+   * Version of the live index searched, see {@link IndexManager#getIndexVersion()}.
+   */
+  private String indexVersion;
+
+  public String getIndexVersion() {
+    return indexVersion;
+  }
+
+  public void setIndexVersion(String indexVersion) {
+    this.indexVersion = indexVersion;
+  }
+
   public int getTotalNumberOfSearchResults() {
     return totalNumberOfSearchResults;
   }
@@ -28,6 +51,22 @@ public class SearchResults {
     this.startIndex = startIndex;
   }
 
+  public boolean isPartial() {
+    return partial;
+  }
+
+  public void setPartial(boolean partial) {
+    this.partial = partial;
+  }
+
+  public boolean isStale() {
+    return stale;
+  }
+
+  public void setStale(boolean stale) {
+    this.stale = stale;
+  }
+
   public List<SearchResult> getSearchResults() {
     return searchResults;
   }
@@ -2,11 +2,17 @@ package se.helsingborg.event.search;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import se.helsingborg.event.Metrics;
 import se.helsingborg.event.PrimaryPersistence;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author kalle
@@ -33,6 +39,21 @@ public class Service {
 
   private LocalPersistence localPersistence;
 
+  /**
+   * Connected while the service is open and shared by all requests, i.e. thread safe.
+   */
+  private PrimaryPersistence primaryPersistence;
+
+  /**
+   * Executes searches, bounded in order to reject requests rather than letting them pile up.
+   */
+  private ThreadPoolExecutor searchExecutor;
+
+  /**
+   * Executes index updates, separated from searches in order not to be starved by search load.
+   */
+  private ThreadPoolExecutor indexingExecutor;
+
   public void open() throws Exception {
 
     log.info("Starting up...");
@@ -40,20 +61,55 @@ public class Service {
     properties = new Properties();
     properties.load(getClass().getResourceAsStream("/settings.properties"));
 
-    dataPath = new File(properties.getProperty("DataPath", "./data"));
+    if (dataPath == null) {
+      dataPath = new File(properties.getProperty("DataPath", "./data"));
+    }
     if (!dataPath.exists() && !dataPath.mkdirs()) {
       throw new IOException("Could not mkdirs " + dataPath.getAbsolutePath());
     }
 
 
+    if (primaryPersistence == null) {
+      primaryPersistence = new PrimaryPersistence();
+    }
+    primaryPersistence.connect();
+
     localPersistence = new LocalPersistence();
     localPersistence.setFile(new File(dataPath, "local.json"));
     localPersistence.open();
 
     indexManager = new IndexManager();
     indexManager.setDataPath(new File(dataPath, "lucene"));
+    indexManager.setMaximumQueryCost(Long.valueOf(properties.getProperty("SearchMaximumCost", String.valueOf(Long.MAX_VALUE))));
+    indexManager.setSearchCoalescing(Boolean.valueOf(properties.getProperty("SearchCoalescing", "true")));
+    indexManager.setMaximumResults(Integer.valueOf(properties.getProperty("SearchMaximumResults", String.valueOf(Integer.MAX_VALUE))));
+    indexManager.setMaximumStaleMilliseconds(Long.valueOf(properties.getProperty("IndexMaximumStaleMilliseconds", "1000")));
+    indexManager.setMinimumStaleMilliseconds(Long.valueOf(properties.getProperty("IndexMinimumStaleMilliseconds", "25")));
+    indexManager.setMaximumConsistencyWaitMilliseconds(Long.valueOf(properties.getProperty("SearchConsistencyMaximumWaitMilliseconds", "1000")));
+    indexManager.setRebuildShards(Integer.valueOf(properties.getProperty("IndexRebuildShards", "1")));
+    indexManager.setRebuildMaximumSegments(Integer.valueOf(properties.getProperty("IndexRebuildMaximumSegments", "0")));
+    indexManager.setRebuildMinimumEventsRatio(Double.valueOf(properties.getProperty("IndexRebuildMinimumEventsRatio", "0.5")));
+    indexManager.setReclaimDeletesIntervalMilliseconds(TimeUnit.MINUTES.toMillis(Long.valueOf(properties.getProperty("IndexReclaimDeletesIntervalMinutes", "60"))));
+    indexManager.setReclaimDeletesMinimumRatio(Double.valueOf(properties.getProperty("IndexReclaimDeletesMinimumRatio", "0.1")));
+    indexManager.setPreload(Boolean.valueOf(properties.getProperty("IndexPreload", "true")));
+    indexManager.setArchiveAfterMilliseconds(TimeUnit.DAYS.toMillis(Long.valueOf(properties.getProperty("IndexArchiveAfterDays", "30"))));
+    indexManager.setArchiveIntervalMilliseconds(TimeUnit.MINUTES.toMillis(Long.valueOf(properties.getProperty("IndexArchiveIntervalMinutes", "60"))));
+    indexManager.setHotTierMilliseconds(TimeUnit.DAYS.toMillis(7 * Long.valueOf(properties.getProperty("IndexHotTierWeeks", "8"))));
+    indexManager.setMaximumBatchParallelism(Integer.valueOf(properties.getProperty("SearchBatchParallelism", "4")));
+    indexManager.setCommitIntervalMilliseconds(TimeUnit.SECONDS.toMillis(Long.valueOf(properties.getProperty("IndexCommitIntervalSeconds", "60"))));
     indexManager.open();
 
+    searchExecutor = executorFactory("search",
+        Integer.valueOf(properties.getProperty("SearchThreads", String.valueOf(Runtime.getRuntime().availableProcessors()))),
+        Integer.valueOf(properties.getProperty("SearchQueueCapacity", "64")));
+
+    indexingExecutor = executorFactory("indexing",
+        Integer.valueOf(properties.getProperty("IndexingThreads", "2")),
+        Integer.valueOf(properties.getProperty("IndexingQueueCapacity", "256")));
+
+    registerGauges("search", searchExecutor);
+    registerGauges("indexing", indexingExecutor);
+
     log.info("Service has been started.");
   }
 
@@ -61,12 +117,50 @@ public class Service {
 
     log.info("Service closing...");
 
+    searchExecutor.shutdown();
+    indexingExecutor.shutdown();
+    searchExecutor.awaitTermination(1, TimeUnit.MINUTES);
+    indexingExecutor.awaitTermination(1, TimeUnit.MINUTES);
+
     indexManager.close();
 
+    primaryPersistence.disconnect();
+
     log.info("Service has been closed.");
 
   }
 
+  private ThreadPoolExecutor executorFactory(final String name, int threads, int queueCapacity) {
+    return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(queueCapacity),
+        new ThreadFactory() {
+          private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name + "-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+          }
+        },
+        new ThreadPoolExecutor.AbortPolicy());
+  }
+
+  private void registerGauges(String name, final ThreadPoolExecutor executor) {
+    Metrics.getInstance().setGauge("executor_queue_size", "Requests waiting for a thread.", Metrics.label("executor", name), new Metrics.Gauge() {
+      @Override
+      public double getValue() throws Exception {
+        return executor.getQueue().size();
+      }
+    });
+    Metrics.getInstance().setGauge("executor_active_threads", "Threads currently processing requests.", Metrics.label("executor", name), new Metrics.Gauge() {
+      @Override
+      public double getValue() throws Exception {
+        return executor.getActiveCount();
+      }
+    });
+  }
+
   public Properties getProperties() {
     return properties;
   }
@@ -86,4 +180,20 @@ public class Service {
   public LocalPersistence getLocalPersistence() {
     return localPersistence;
   }
+
+  public PrimaryPersistence getPrimaryPersistence() {
+    return primaryPersistence;
+  }
+
+  public void setPrimaryPersistence(PrimaryPersistence primaryPersistence) {
+    this.primaryPersistence = primaryPersistence;
+  }
+
+  public ThreadPoolExecutor getSearchExecutor() {
+    return searchExecutor;
+  }
+
+  public ThreadPoolExecutor getIndexingExecutor() {
+    return indexingExecutor;
+  }
 }
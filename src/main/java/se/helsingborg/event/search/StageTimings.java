@@ -0,0 +1,72 @@
+package se.helsingborg.event.search;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Time spent per stage of processing a request, measured with the monotonic clock.
+ * <p/>
+ * Stages are consecutive and does not overlap, i.e. they sum up to the total time.
+ * Stages with the same name are accumulated.
+ * <p/>
+ * Not thread safe, but may be passed on between threads as long as only one thread at the time use it.
+ *
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class StageTimings {
+
+  private final long startNanos = System.nanoTime();
+  private long stageStartNanos = startNanos;
+
+  private final Map<String, Long> stages = new LinkedHashMap<>();
+
+  /**
+   * Ends a stage that started when the previous stage ended.
+   */
+  public void stage(String name) {
+    long now = System.nanoTime();
+    accumulate(name, now - stageStartNanos);
+    stageStartNanos = now;
+  }
+
+  /**
+   * Adds a stage measured by the caller, taking place within the current stage.
+   * The time is excluded from the current stage.
+   */
+  public void add(String name, long nanos) {
+    accumulate(name, nanos);
+    stageStartNanos += nanos;
+  }
+
+  private void accumulate(String name, long nanos) {
+    Long previous = stages.get(name);
+    stages.put(name, previous == null ? nanos : previous + nanos);
+  }
+
+  /**
+   * @return Nanoseconds since created.
+   */
+  public long getTotalNanos() {
+    return System.nanoTime() - startNanos;
+  }
+
+  /**
+   * @return Nanoseconds per stage, in the order they first ended.
+   */
+  public Map<String, Long> getStages() {
+    return Collections.unmodifiableMap(stages);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder(128);
+    for (Map.Entry<String, Long> stage : stages.entrySet()) {
+      sb.append(stage.getKey()).append('=').append(stage.getValue() / 1000 / 1000d).append("ms, ");
+    }
+    sb.append("total=").append(getTotalNanos() / 1000 / 1000d).append("ms");
+    return sb.toString();
+  }
+
+}
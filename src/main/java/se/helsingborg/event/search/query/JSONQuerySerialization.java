@@ -6,6 +6,11 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import se.helsingborg.event.search.IndexManager;
+import se.helsingborg.event.search.StageTimings;
+import se.helsingborg.event.util.JSONUtil;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author kalle
@@ -13,6 +18,44 @@ import se.helsingborg.event.search.IndexManager;
  */
 public class JSONQuerySerialization {
 
+  /**
+   * Maximum number of clauses in boolean queries, summed up over the whole query.
+   */
+  private int maximumClauses = BooleanQuery.getMaxClauseCount();
+
+  private int clauses;
+
+  /**
+   * Event text longer than this is truncated.
+   */
+  private int maximumTextLength = Integer.MAX_VALUE;
+
+  /**
+   * Queries parsed by previous requests, e.g. in the same batch of searches. Optional.
+   */
+  private QueryCache queryCache;
+
+  /**
+   * Time spent building event text queries is added to these timings. Optional.
+   */
+  private StageTimings stageTimings;
+
+  /**
+   * "Now" of time relative queries such as future events is truncated to this, allowing identical requests
+   * during the same period to share search results and entity tags. 1 for exact time.
+   */
+  private long timeResolutionMilliseconds = 1;
+
+  /**
+   * Now of the last parsed query, or 0 until needed.
+   */
+  private long nowEpochMilliseconds;
+
+  /**
+   * True if the last parsed query depends on {@link #nowEpochMilliseconds}.
+   */
+  private boolean timeRelative;
+
   private Query parseBoost(JSONObject jsonQuery, Query query) throws JSONException {
     if (jsonQuery.has("boost")) {
       double boost = jsonQuery.getDouble("boost");
@@ -22,6 +65,57 @@ public class JSONQuerySerialization {
   }
 
   public Query parse(JSONObject jsonQuery) throws Exception {
+    clauses = 0;
+    nowEpochMilliseconds = 0;
+    timeRelative = false;
+    return parseQuery(jsonQuery);
+  }
+
+  /**
+   * @return Now truncated to {@link #timeResolutionMilliseconds}, the same for all time relative parts of a query.
+   */
+  private long now() {
+    timeRelative = true;
+    if (nowEpochMilliseconds == 0) {
+      nowEpochMilliseconds = System.currentTimeMillis() / timeResolutionMilliseconds * timeResolutionMilliseconds;
+    }
+    return nowEpochMilliseconds;
+  }
+
+  private void countClauses(int count) {
+    clauses += count;
+    if (clauses > maximumClauses) {
+      throw new IllegalArgumentException("Query exceeds maximum " + maximumClauses + " clauses.");
+    }
+  }
+
+  private Query parseQuery(JSONObject jsonQuery) throws Exception {
+
+    if (queryCache == null) {
+      return parseUncachedQuery(jsonQuery);
+    }
+
+    String key = JSONUtil.toCanonicalString(jsonQuery);
+    CachedQuery cached = queryCache.queries.get(key);
+    if (cached == null) {
+      int clausesBefore = clauses;
+      boolean timeRelativeBefore = timeRelative;
+      timeRelative = false;
+      cached = new CachedQuery(parseUncachedQuery(jsonQuery), clauses - clausesBefore, timeRelative ? nowEpochMilliseconds : 0);
+      timeRelative |= timeRelativeBefore;
+      queryCache.queries.put(key, cached);
+    } else {
+      countClauses(cached.clauses);
+      if (cached.nowEpochMilliseconds != 0) {
+        // shared with the request that parsed it
+        timeRelative = true;
+        nowEpochMilliseconds = Math.max(nowEpochMilliseconds, cached.nowEpochMilliseconds);
+      }
+    }
+    return cached.query;
+  }
+
+  private Query parseUncachedQuery(JSONObject jsonQuery) throws Exception {
 
     String type = jsonQuery.getString("type");
     if ("boolean query".equalsIgnoreCase(type)) {
@@ -29,6 +123,7 @@ public class JSONQuerySerialization {
       BooleanQuery.Builder booleanQuery = new BooleanQuery.Builder();
 
       JSONArray jsonClauses = jsonQuery.getJSONArray("clauses");
+      countClauses(jsonClauses.length());
 
       for (int i = 0; i < jsonClauses.length(); i++) {
 
@@ -46,7 +141,7 @@ public class JSONQuerySerialization {
           throw new IllegalArgumentException("Expected occurs with value 'must', 'should' or 'must not', but was '" + jsonOccur + "'.");
         }
 
-        booleanQuery.add(new BooleanClause(parse(jsonClause.getJSONObject("query")), occur));
+        booleanQuery.add(new BooleanClause(parseQuery(jsonClause.getJSONObject("query")), occur));
 
       }
 
@@ -133,12 +228,21 @@ public class JSONQuerySerialization {
 
     } else if ("event text".equalsIgnoreCase(type)) {
 
-      return parseBoost(jsonQuery, new EventTextQueryBuilder().setText(jsonQuery.getString("text")).build());
+      String text = jsonQuery.getString("text");
+      // each token expands in to several clauses, rather truncate than reject
+      text = truncate(text, maximumTextLength);
+      long started = System.nanoTime();
+      Query query = new EventTextQueryBuilder().setText(text).build();
+      if (stageTimings != null) {
+        stageTimings.add("build event text query", System.nanoTime() - started);
+      }
+      return parseBoost(jsonQuery, query);
 
     } else if ("event tags".equalsIgnoreCase(type)) {
 
       BooleanQuery.Builder query = new BooleanQuery.Builder();
       JSONArray values = jsonQuery.getJSONArray("values");
+      countClauses(values.length());
       for (int i = 0; i < values.length(); i++) {
         query.add(new BooleanClause(new TermQuery(new Term(IndexManager.FIELD_EVENT_TAG, values.getString(i).toUpperCase())), BooleanClause.Occur.MUST));
       }
@@ -146,11 +250,11 @@ public class JSONQuerySerialization {
 
     } else if ("future events".equalsIgnoreCase(type)) {
 
-      return parseBoost(jsonQuery, NumericRangeQuery.newLongRange(IndexManager.FIELD_EVENT_SHOW_START_DATE_TIME, System.currentTimeMillis(), Long.MAX_VALUE, false, true));
+      return parseBoost(jsonQuery, NumericRangeQuery.newLongRange(IndexManager.FIELD_EVENT_SHOW_START_DATE_TIME, now(), Long.MAX_VALUE, false, true));
 
     } else if ("past events".equalsIgnoreCase(type)) {
 
-      return parseBoost(jsonQuery, NumericRangeQuery.newLongRange(IndexManager.FIELD_EVENT_SHOW_START_DATE_TIME, Long.MIN_VALUE, System.currentTimeMillis(), true, false));
+      return parseBoost(jsonQuery, NumericRangeQuery.newLongRange(IndexManager.FIELD_EVENT_SHOW_START_DATE_TIME, Long.MIN_VALUE, now(), true, false));
 
     } else if ("event location coordinate envelope".equalsIgnoreCase(type)) {
 
@@ -182,5 +286,89 @@ public class JSONQuerySerialization {
 
   }
 
+  /**
+   * @return The text cut at the length, or one char less rather than splitting a surrogate pair.
+   */
+  static String truncate(String text, int length) {
+    if (text.length() <= length) {
+      return text;
+    }
+    if (length > 0 && Character.isHighSurrogate(text.charAt(length - 1))) {
+      length--;
+    }
+    return text.substring(0, length);
+  }
+
+  public int getMaximumClauses() {
+    return maximumClauses;
+  }
+
+  public JSONQuerySerialization setMaximumClauses(int maximumClauses) {
+    this.maximumClauses = maximumClauses;
+    return this;
+  }
+
+  public int getMaximumTextLength() {
+    return maximumTextLength;
+  }
+
+  public JSONQuerySerialization setMaximumTextLength(int maximumTextLength) {
+    this.maximumTextLength = maximumTextLength;
+    return this;
+  }
+
+  public StageTimings getStageTimings() {
+    return stageTimings;
+  }
+
+  public JSONQuerySerialization setStageTimings(StageTimings stageTimings) {
+    this.stageTimings = stageTimings;
+    return this;
+  }
+
+  public long getTimeResolutionMilliseconds() {
+    return timeResolutionMilliseconds;
+  }
+
+  public JSONQuerySerialization setTimeResolutionMilliseconds(long timeResolutionMilliseconds) {
+    this.timeResolutionMilliseconds = Math.max(1, timeResolutionMilliseconds);
+    return this;
+  }
+
+  /**
+   * @return "Now" the time relative parts of the last parsed query was parsed against, or 0 if it did not depend on the time.
+   */
+  public long getNowEpochMilliseconds() {
+    return timeRelative ? nowEpochMilliseconds : 0;
+  }
+
+  public QueryCache getQueryCache() {
+    return queryCache;
+  }
+
+  public JSONQuerySerialization setQueryCache(QueryCache queryCache) {
+    this.queryCache = queryCache;
+    return this;
+  }
+
+  /**
+   * Queries keyed by canonical JSON, allowing identical queries and sub queries to be parsed once and shared.
+   * Queries are shared instances and must thus not be modified.
+   */
+  public static class QueryCache {
+    private final Map<String, CachedQuery> queries = new ConcurrentHashMap<>();
+  }
+
+  private static class CachedQuery {
+    private final Query query;
+    private final int clauses;
+    private final long nowEpochMilliseconds;
+
+    private CachedQuery(Query query, int clauses, long nowEpochMilliseconds) {
+      this.query = query;
+      this.clauses = clauses;
+      this.nowEpochMilliseconds = nowEpochMilliseconds;
+    }
+  }
 
 }
@@ -0,0 +1,200 @@
+package se.helsingborg.event.search.query;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.search.*;
+import org.apache.lucene.search.spans.SpanNearQuery;
+import org.apache.lucene.search.spans.SpanOrQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanTermQuery;
+import org.apache.lucene.util.NumericUtils;
+import se.helsingborg.event.search.SearchRequest;
+
+import java.io.IOException;
+
+/**
+ * Estimates the cost of executing a search as roughly the number of postings visited,
+ * using the document frequencies of the terms in the index.
+ * <p/>
+ * Numeric ranges are estimated from the smallest and largest value of the field, assuming values are evenly spread.
+ * Clauses of a boolean query with required clauses are only visited where its cheapest required clause matches.
+ * Queries that can't be estimated, e.g. match all documents, are assumed to visit every document.
+ *
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class QueryCostEstimator {
+
+  /**
+   * Cost per clause in boolean and disjunction queries, i.e. the overhead of the scorer.
+   */
+  private long clauseCost = 1;
+
+  /**
+   * Factor applied to the document frequency of terms in span and phrase queries, as positions are read.
+   */
+  private long positionsFactor = 4;
+
+  /**
+   * Cost per event JSON loaded for the response.
+   */
+  private long eventJsonCost = 10;
+
+  private final IndexReader indexReader;
+
+  public QueryCostEstimator(IndexReader indexReader) {
+    this.indexReader = indexReader;
+  }
+
+  public long estimate(SearchRequest searchRequest) throws IOException {
+    long cost = estimate(searchRequest.getQuery());
+    if (searchRequest.isEventJsonOutput()) {
+      cost += eventJsonCost * Math.max(0, searchRequest.getLimit());
+    }
+    return cost;
+  }
+
+  public long estimate(Query query) throws IOException {
+
+    if (query instanceof TermQuery) {
+      return docFreq(((TermQuery) query).getTerm());
+
+    } else if (query instanceof BooleanQuery) {
+      BooleanQuery booleanQuery = (BooleanQuery) query;
+      long[] estimates = new long[booleanQuery.clauses().size()];
+      // the conjunction is led by the cheapest required clause, the other clauses are advanced to its matches
+      long lead = Long.MAX_VALUE;
+      for (int i = 0; i < estimates.length; i++) {
+        BooleanClause clause = booleanQuery.clauses().get(i);
+        estimates[i] = estimate(clause.getQuery());
+        if (clause.isRequired()) {
+          lead = Math.min(lead, estimates[i]);
+        }
+      }
+      long cost = 0;
+      for (long estimate : estimates) {
+        cost += clauseCost + Math.min(lead, estimate);
+      }
+      return cost;
+
+    } else if (query instanceof NumericRangeQuery) {
+      return estimateRange((NumericRangeQuery<?>) query);
+
+    } else if (query instanceof DisjunctionMaxQuery) {
+      long cost = 0;
+      for (Query disjunct : ((DisjunctionMaxQuery) query).getDisjuncts()) {
+        cost += clauseCost + estimate(disjunct);
+      }
+      return cost;
+
+    } else if (query instanceof ConstantScoreQuery) {
+      return estimate(((ConstantScoreQuery) query).getQuery());
+
+    } else if (query instanceof CachingWrapperQuery) {
+      return estimate(((CachingWrapperQuery) query).getQuery());
+
+    } else if (query instanceof PhraseQuery) {
+      long cost = 0;
+      for (Term term : ((PhraseQuery) query).getTerms()) {
+        cost += positionsFactor * docFreq(term);
+      }
+      return cost;
+
+    } else if (query instanceof SpanTermQuery) {
+      return positionsFactor * docFreq(((SpanTermQuery) query).getTerm());
+
+    } else if (query instanceof SpanNearQuery) {
+      return estimateSpans(((SpanNearQuery) query).getClauses());
+
+    } else if (query instanceof SpanOrQuery) {
+      return estimateSpans(((SpanOrQuery) query).getClauses());
+
+    } else {
+      return indexReader.maxDoc();
+    }
+  }
+
+  /**
+   * @return Number of documents with a value of the field, times the share of the indexed values covered by the range.
+   */
+  private long estimateRange(NumericRangeQuery<?> range) throws IOException {
+    Terms terms = MultiFields.getTerms(indexReader, range.getField());
+    if (terms == null) {
+      return 1;
+    }
+    long documents = terms.getDocCount() < 0 ? indexReader.maxDoc() : terms.getDocCount();
+
+    Number type = range.getMin() != null ? range.getMin() : range.getMax();
+    Double indexedMinimum;
+    Double indexedMaximum;
+    if (type instanceof Long || type instanceof Double) {
+      Long minimum = NumericUtils.getMinLong(terms);
+      Long maximum = NumericUtils.getMaxLong(terms);
+      if (minimum == null || maximum == null) {
+        return documents;
+      }
+      indexedMinimum = type instanceof Long ? minimum.doubleValue() : NumericUtils.sortableLongToDouble(minimum);
+      indexedMaximum = type instanceof Long ? maximum.doubleValue() : NumericUtils.sortableLongToDouble(maximum);
+    } else if (type instanceof Integer || type instanceof Float) {
+      Integer minimum = NumericUtils.getMinInt(terms);
+      Integer maximum = NumericUtils.getMaxInt(terms);
+      if (minimum == null || maximum == null) {
+        return documents;
+      }
+      indexedMinimum = type instanceof Integer ? minimum.doubleValue() : NumericUtils.sortableIntToFloat(minimum);
+      indexedMaximum = type instanceof Integer ? maximum.doubleValue() : NumericUtils.sortableIntToFloat(maximum);
+    } else {
+      return documents;
+    }
+
+    double from = range.getMin() == null ? indexedMinimum : Math.max(indexedMinimum, range.getMin().doubleValue());
+    double to = range.getMax() == null ? indexedMaximum : Math.min(indexedMaximum, range.getMax().doubleValue());
+    if (to < from) {
+      return 1;
+    } else if (indexedMaximum <= indexedMinimum) {
+      return documents;
+    }
+    return Math.max(1, (long) Math.ceil(documents * ((to - from) / (indexedMaximum - indexedMinimum))));
+  }
+
+  private long estimateSpans(SpanQuery[] clauses) throws IOException {
+    long cost = 0;
+    for (SpanQuery clause : clauses) {
+      cost += clauseCost + estimate(clause);
+    }
+    return cost;
+  }
+
+  private long docFreq(Term term) throws IOException {
+    return Math.max(1, indexReader.docFreq(term));
+  }
+
+  public long getClauseCost() {
+    return clauseCost;
+  }
+
+  public QueryCostEstimator setClauseCost(long clauseCost) {
+    this.clauseCost = clauseCost;
+    return this;
+  }
+
+  public long getPositionsFactor() {
+    return positionsFactor;
+  }
+
+  public QueryCostEstimator setPositionsFactor(long positionsFactor) {
+    this.positionsFactor = positionsFactor;
+    return this;
+  }
+
+  public long getEventJsonCost() {
+    return eventJsonCost;
+  }
+
+  public QueryCostEstimator setEventJsonCost(long eventJsonCost) {
+    this.eventJsonCost = eventJsonCost;
+    return this;
+  }
+}
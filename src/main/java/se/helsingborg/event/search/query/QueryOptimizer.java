@@ -0,0 +1,292 @@
+package se.helsingborg.event.search.query;
+
+import org.apache.lucene.search.*;
+
+import java.util.*;
+
+/**
+ * Rewrites a query as parsed by {@link JSONQuerySerialization} to something cheaper to execute
+ * without changing the set of matching documents or the relative order of scored results.
+ * <p/>
+ * <ul>
+ * <li>Nested conjunctive boolean queries are flattened in to their parent.</li>
+ * <li>Duplicate non scoring clauses are removed, and when not scoring all duplicate clauses.</li>
+ * <li>Non scoring required clauses, e.g. numeric ranges, are turned in to {@link BooleanClause.Occur#FILTER}
+ * unless next to optional clauses.</li>
+ * <li>Numeric ranges on the same field filtering the same boolean query are merged to their intersection.</li>
+ * <li>Boolean queries with a single clause are replaced by the clause query.</li>
+ * </ul>
+ *
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class QueryOptimizer {
+
+  /**
+   * If false, then all required clauses are treated as filters.
+   */
+  private boolean scoring = true;
+
+  public Query optimize(Query query) {
+    return optimize(query, scoring);
+  }
+
+  private Query optimize(Query query, boolean scoring) {
+    if (query instanceof BooleanQuery) {
+      return optimizeBooleanQuery((BooleanQuery) query, scoring);
+    }
+    return query;
+  }
+
+  private Query optimizeBooleanQuery(BooleanQuery booleanQuery, boolean scoring) {
+
+    boolean hasShouldClauses = false;
+    for (BooleanClause clause : booleanQuery.clauses()) {
+      if (clause.getOccur() == BooleanClause.Occur.SHOULD) {
+        hasShouldClauses = true;
+        break;
+      }
+    }
+    boolean disjunction = !hasRequiredClauses(booleanQuery) && booleanQuery.getMinimumNumberShouldMatch() == 0;
+
+    List<BooleanClause> clauses = new ArrayList<>();
+
+    for (BooleanClause clause : booleanQuery.clauses()) {
+
+      BooleanClause.Occur occur = clause.getOccur();
+      Query query = optimize(clause.getQuery(), scoring && clause.isScoring());
+
+      // a constant score still adds to the score and to coord, i.e. changes the order of documents matching different optional clauses
+      if (occur == BooleanClause.Occur.MUST && (!scoring || (!isScoring(query) && !hasShouldClauses))) {
+        occur = BooleanClause.Occur.FILTER;
+      }
+
+      if (query instanceof BooleanQuery) {
+        BooleanQuery nested = (BooleanQuery) query;
+
+        if (isConjunction(nested)
+            && (occur == BooleanClause.Occur.FILTER
+            || (occur == BooleanClause.Occur.MUST && nested.getBoost() == 1f && !hasShouldClauses))) {
+
+          // (+a +b) required by parent -> +a +b
+          for (BooleanClause nestedClause : nested.clauses()) {
+            BooleanClause.Occur nestedOccur = nestedClause.getOccur();
+            if (occur == BooleanClause.Occur.FILTER && nestedOccur == BooleanClause.Occur.MUST) {
+              nestedOccur = BooleanClause.Occur.FILTER;
+            }
+            addClause(clauses, new BooleanClause(nestedClause.getQuery(), nestedOccur), scoring);
+          }
+          continue;
+
+        } else if (!scoring && disjunction && occur == BooleanClause.Occur.SHOULD
+            && !hasRequiredClauses(nested) && !hasProhibitedClauses(nested) && nested.getMinimumNumberShouldMatch() == 0) {
+
+          // (a (b c)) not scored -> (a b c), but not (a (b -c)) as -c would then exclude a
+          for (BooleanClause nestedClause : nested.clauses()) {
+            addClause(clauses, new BooleanClause(nestedClause.getQuery(), nestedClause.getOccur()), scoring);
+          }
+          continue;
+        }
+      }
+
+      addClause(clauses, new BooleanClause(query, occur), scoring);
+    }
+
+    // a filter is redundant if the very same query is required in a scoring clause
+    for (Iterator<BooleanClause> iterator = clauses.iterator(); iterator.hasNext(); ) {
+      BooleanClause clause = iterator.next();
+      if (clause.getOccur() == BooleanClause.Occur.FILTER
+          && clauses.contains(new BooleanClause(clause.getQuery(), BooleanClause.Occur.MUST))) {
+        iterator.remove();
+      }
+    }
+
+    List<BooleanClause> optimizedClauses = mergeNumericRangeFilters(clauses);
+
+    if (optimizedClauses.size() == 1) {
+      BooleanClause clause = optimizedClauses.get(0);
+      if (clause.getOccur() == BooleanClause.Occur.MUST
+          || (clause.getOccur() == BooleanClause.Occur.SHOULD && booleanQuery.getMinimumNumberShouldMatch() <= 1)
+          || (clause.getOccur() == BooleanClause.Occur.FILTER && !scoring)) {
+        return boost(clause.getQuery(), booleanQuery.getBoost());
+      }
+    }
+
+    BooleanQuery.Builder builder = new BooleanQuery.Builder();
+    builder.setDisableCoord(booleanQuery.isCoordDisabled());
+    builder.setMinimumNumberShouldMatch(booleanQuery.getMinimumNumberShouldMatch());
+    for (BooleanClause clause : optimizedClauses) {
+      builder.add(clause);
+    }
+    return boost(builder.build(), booleanQuery.getBoost());
+  }
+
+  /**
+   * Adds the clause unless it is a duplicate that does not affect the score, e.g. a repeated scoring clause counts twice.
+   */
+  private void addClause(List<BooleanClause> clauses, BooleanClause clause, boolean scoring) {
+    if ((!scoring || !clause.isScoring()) && clauses.contains(clause)) {
+      return;
+    }
+    clauses.add(clause);
+  }
+
+  private Query boost(Query query, float boost) {
+    if (boost == 1f) {
+      return query;
+    }
+    Query boosted = query.clone();
+    boosted.setBoost(query.getBoost() * boost);
+    return boosted;
+  }
+
+  private boolean hasRequiredClauses(BooleanQuery booleanQuery) {
+    for (BooleanClause clause : booleanQuery.clauses()) {
+      if (clause.isRequired()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean hasProhibitedClauses(BooleanQuery booleanQuery) {
+    for (BooleanClause clause : booleanQuery.clauses()) {
+      if (clause.isProhibited()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return true if all clauses are must, filter or must not, and at least one of them is positive.
+   */
+  private boolean isConjunction(BooleanQuery booleanQuery) {
+    if (booleanQuery.getMinimumNumberShouldMatch() != 0) {
+      return false;
+    }
+    boolean positive = false;
+    for (BooleanClause clause : booleanQuery.clauses()) {
+      if (clause.getOccur() == BooleanClause.Occur.SHOULD) {
+        return false;
+      } else if (clause.isRequired()) {
+        positive = true;
+      }
+    }
+    return positive;
+  }
+
+  /**
+   * @return false if the query yield the same score for all matching documents.
+   */
+  private boolean isScoring(Query query) {
+    if (query instanceof MatchAllDocsQuery
+        || query instanceof ConstantScoreQuery) {
+      return false;
+
+    } else if (query instanceof MultiTermQuery) {
+      MultiTermQuery.RewriteMethod rewriteMethod = ((MultiTermQuery) query).getRewriteMethod();
+      return rewriteMethod != MultiTermQuery.CONSTANT_SCORE_REWRITE
+          && rewriteMethod != MultiTermQuery.CONSTANT_SCORE_BOOLEAN_REWRITE;
+
+    } else if (query instanceof BooleanQuery) {
+      for (BooleanClause clause : ((BooleanQuery) query).clauses()) {
+        if (clause.isScoring() && isScoring(clause.getQuery())) {
+          return true;
+        }
+      }
+      return false;
+    }
+    return true;
+  }
+
+  private List<BooleanClause> mergeNumericRangeFilters(Collection<BooleanClause> clauses) {
+
+    List<BooleanClause> merged = new ArrayList<>(clauses.size());
+    Map<String, Integer> rangeFilterIndexByKey = new HashMap<>();
+
+    for (BooleanClause clause : clauses) {
+      if (clause.getOccur() == BooleanClause.Occur.FILTER && clause.getQuery() instanceof NumericRangeQuery) {
+        NumericRangeQuery<?> range = (NumericRangeQuery<?>) clause.getQuery();
+        Class<?> type = numericType(range);
+        if (type != null) {
+          String key = range.getField() + "\u0000" + type.getName() + "\u0000" + range.getPrecisionStep();
+          Integer index = rangeFilterIndexByKey.get(key);
+          if (index == null) {
+            rangeFilterIndexByKey.put(key, merged.size());
+          } else {
+            NumericRangeQuery<?> previous = (NumericRangeQuery<?>) merged.get(index).getQuery();
+            merged.set(index, new BooleanClause(intersection(previous, range, type), BooleanClause.Occur.FILTER));
+            continue;
+          }
+        }
+      }
+      merged.add(clause);
+    }
+
+    return merged;
+  }
+
+  private Class<?> numericType(NumericRangeQuery<?> range) {
+    if (range.getMin() != null) {
+      return range.getMin().getClass();
+    } else if (range.getMax() != null) {
+      return range.getMax().getClass();
+    }
+    return null;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Query intersection(NumericRangeQuery<?> a, NumericRangeQuery<?> b, Class<?> type) {
+
+    Number min;
+    boolean includeMinimum;
+    if (a.getMin() == null) {
+      min = b.getMin();
+      includeMinimum = b.includesMin();
+    } else if (b.getMin() == null) {
+      min = a.getMin();
+      includeMinimum = a.includesMin();
+    } else {
+      int comparison = ((Comparable<Number>) a.getMin()).compareTo(b.getMin());
+      min = comparison >= 0 ? a.getMin() : b.getMin();
+      includeMinimum = comparison > 0 ? a.includesMin() : comparison < 0 ? b.includesMin() : a.includesMin() && b.includesMin();
+    }
+
+    Number max;
+    boolean includeMaximum;
+    if (a.getMax() == null) {
+      max = b.getMax();
+      includeMaximum = b.includesMax();
+    } else if (b.getMax() == null) {
+      max = a.getMax();
+      includeMaximum = a.includesMax();
+    } else {
+      int comparison = ((Comparable<Number>) a.getMax()).compareTo(b.getMax());
+      max = comparison <= 0 ? a.getMax() : b.getMax();
+      includeMaximum = comparison < 0 ? a.includesMax() : comparison > 0 ? b.includesMax() : a.includesMax() && b.includesMax();
+    }
+
+    if (type == Long.class) {
+      return NumericRangeQuery.newLongRange(a.getField(), a.getPrecisionStep(), (Long) min, (Long) max, includeMinimum, includeMaximum);
+    } else if (type == Integer.class) {
+      return NumericRangeQuery.newIntRange(a.getField(), a.getPrecisionStep(), (Integer) min, (Integer) max, includeMinimum, includeMaximum);
+    } else if (type == Double.class) {
+      return NumericRangeQuery.newDoubleRange(a.getField(), a.getPrecisionStep(), (Double) min, (Double) max, includeMinimum, includeMaximum);
+    } else if (type == Float.class) {
+      return NumericRangeQuery.newFloatRange(a.getField(), a.getPrecisionStep(), (Float) min, (Float) max, includeMinimum, includeMaximum);
+    } else {
+      throw new IllegalArgumentException("Unsupported numeric range type " + type.getName());
+    }
+  }
+
+  public boolean isScoring() {
+    return scoring;
+  }
+
+  public QueryOptimizer setScoring(boolean scoring) {
+    this.scoring = scoring;
+    return this;
+  }
+
+}
@@ -0,0 +1,340 @@
+package se.helsingborg.event.search.servlet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.helsingborg.event.SystemErrorManager;
+import se.helsingborg.event.search.Service;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Processes a request asynchronously in an executor, releasing the container thread.
+ * If the executor is saturated the request is rejected with 503 and a Retry-After header.
+ * If the container times out the request before the response is written, it responds with 503,
+ * and with 500 on container errors. The worker then finds the response completed, as it claims the response
+ * before writing the body, see {@link ClaimingResponse}.
+ *
+ * @author kalle
+ * @since 2026-10-19
+ */
+public abstract class AsyncExecution implements Runnable {
+
+  private static final Logger log = LoggerFactory.getLogger(AsyncExecution.class);
+
+  private final AsyncContext asyncContext;
+
+  private static final int QUEUED = 0;
+  private static final int PROCESSING = 1;
+  /**
+   * The worker writes the body of the response.
+   */
+  private static final int WRITING = 2;
+  private static final int COMPLETED = 3;
+  /**
+   * Timed out or failed in the container while the worker writes, completed by the container thread once written.
+   */
+  private static final int EXPIRED = 4;
+
+  /**
+   * Set by compare and set, i.e. only one of the worker, a rejection, a timeout or an error completes the response.
+   */
+  private final AtomicInteger state = new AtomicInteger(QUEUED);
+
+  /**
+   * Released when the worker is done with the response.
+   */
+  private final CountDownLatch processed = new CountDownLatch(1);
+
+  private final long timeoutMilliseconds;
+
+  public AsyncExecution(HttpServletRequest request, HttpServletResponse response) {
+    this(request, response, getTimeoutMilliseconds());
+  }
+
+  /**
+   * @param timeoutMilliseconds Time until the container times out the request, including the time queued.
+   *                            Should exceed the time the request takes to process, e.g. the search timeout.
+   */
+  public AsyncExecution(HttpServletRequest request, HttpServletResponse response, long timeoutMilliseconds) {
+    this.timeoutMilliseconds = timeoutMilliseconds;
+    asyncContext = request.startAsync(request, response);
+    asyncContext.setTimeout(timeoutMilliseconds);
+    asyncContext.addListener(new AsyncListener() {
+      @Override
+      public void onComplete(AsyncEvent event) throws IOException {
+      }
+
+      @Override
+      public void onTimeout(AsyncEvent event) throws IOException {
+        if (completeWithStatus(503)) {
+          log.warn("Request timed out before the response was written.");
+        } else if (completeWhenWritten()) {
+          log.warn("Request timed out while the response was written.");
+        }
+      }
+
+      @Override
+      public void onError(AsyncEvent event) throws IOException {
+        log.error("Caught exception in container", event.getThrowable());
+        if (!completeWithStatus(500)) {
+          completeWhenWritten();
+        }
+      }
+
+      @Override
+      public void onStartAsync(AsyncEvent event) throws IOException {
+      }
+    });
+  }
+
+  /**
+   * Responds with the status and completes the async context, unless the worker has claimed the response.
+   *
+   * @return false if the response was claimed by the worker or already completed.
+   */
+  private boolean completeWithStatus(int status) {
+    if (!state.compareAndSet(QUEUED, COMPLETED) && !state.compareAndSet(PROCESSING, COMPLETED)) {
+      return false;
+    }
+    try {
+      HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+      if (!response.isCommitted()) {
+        response.resetBuffer();
+        response.setStatus(status);
+      }
+    } finally {
+      asyncContext.complete();
+    }
+    return true;
+  }
+
+  /**
+   * Keeps the container from recycling the response while the worker is still writing it,
+   * and then completes the async context from the container thread.
+   *
+   * @return false if the worker already completed the async context.
+   */
+  private boolean completeWhenWritten() {
+    if (!state.compareAndSet(WRITING, EXPIRED)) {
+      return false;
+    }
+    try {
+      if (!processed.await(timeoutMilliseconds, TimeUnit.MILLISECONDS)) {
+        log.error("Response still written " + timeoutMilliseconds + " ms after timing out.");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      asyncContext.complete();
+    }
+    return true;
+  }
+
+  /**
+   * Response of the worker. Writing the body claims the response, and once completed by someone else
+   * all changes to the response are refused, as the container might already have recycled it.
+   */
+  private class ClaimingResponse extends HttpServletResponseWrapper {
+
+    private ClaimingResponse(HttpServletResponse response) {
+      super(response);
+    }
+
+    private void claim() {
+      if (state.get() != WRITING && !state.compareAndSet(PROCESSING, WRITING)) {
+        throw new IllegalStateException("Response already completed, the request timed out.");
+      }
+    }
+
+    private void check() {
+      int state = AsyncExecution.this.state.get();
+      if (state != PROCESSING && state != WRITING) {
+        throw new IllegalStateException("Response already completed, the request timed out.");
+      }
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+      claim();
+      return super.getOutputStream();
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+      claim();
+      return super.getWriter();
+    }
+
+    @Override
+    public void sendError(int sc, String msg) throws IOException {
+      claim();
+      super.sendError(sc, msg);
+    }
+
+    @Override
+    public void sendError(int sc) throws IOException {
+      claim();
+      super.sendError(sc);
+    }
+
+    @Override
+    public void sendRedirect(String location) throws IOException {
+      claim();
+      super.sendRedirect(location);
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+      claim();
+      super.flushBuffer();
+    }
+
+    @Override
+    public void setStatus(int sc) {
+      check();
+      super.setStatus(sc);
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+      check();
+      super.setHeader(name, value);
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+      check();
+      super.addHeader(name, value);
+    }
+
+    @Override
+    public void setDateHeader(String name, long date) {
+      check();
+      super.setDateHeader(name, date);
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+      check();
+      super.setIntHeader(name, value);
+    }
+
+    @Override
+    public void setContentType(String type) {
+      check();
+      super.setContentType(type);
+    }
+
+    @Override
+    public void setCharacterEncoding(String charset) {
+      check();
+      super.setCharacterEncoding(charset);
+    }
+
+    @Override
+    public void setContentLength(int len) {
+      check();
+      super.setContentLength(len);
+    }
+
+    @Override
+    public void resetBuffer() {
+      check();
+      super.resetBuffer();
+    }
+
+    @Override
+    public void reset() {
+      check();
+      super.reset();
+    }
+  }
+
+
+  protected abstract void process(HttpServletRequest request, HttpServletResponse response) throws Exception;
+
+  /**
+   * @return false if the executor rejected the request, in which case 503 has been sent.
+   */
+  public boolean execute(Executor executor) throws IOException {
+    try {
+      executor.execute(this);
+      return true;
+    } catch (RejectedExecutionException e) {
+      if (!state.compareAndSet(QUEUED, COMPLETED)) {
+        return false;
+      }
+      try {
+        HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+        response.setStatus(503);
+        response.setHeader("Retry-After", String.valueOf(getRetryAfterSeconds()));
+        response.setContentType("text/plain");
+        response.getOutputStream().write("Service is busy, try again later.".getBytes("UTF8"));
+      } finally {
+        asyncContext.complete();
+      }
+      return false;
+    }
+  }
+
+  @Override
+  public void run() {
+    if (!state.compareAndSet(QUEUED, PROCESSING)) {
+      // timed out while queued
+      return;
+    }
+    HttpServletResponse response = new ClaimingResponse((HttpServletResponse) asyncContext.getResponse());
+    try {
+      process((HttpServletRequest) asyncContext.getRequest(), response);
+    } catch (Exception e) {
+      int state = this.state.get();
+      if (state != PROCESSING && state != WRITING) {
+        log.debug("Abandoned processing of timed out request", e);
+      } else {
+        log.error("Caught exception", e);
+        SystemErrorManager.getInstance().log(e);
+        if (!response.isCommitted()) {
+          response.resetBuffer();
+          response.setStatus(500);
+        }
+      }
+    } finally {
+      try {
+        // unless completed by a timeout or error, or expired in which case the container thread completes once written
+        if (state.compareAndSet(PROCESSING, COMPLETED) || state.compareAndSet(WRITING, COMPLETED)) {
+          asyncContext.complete();
+        }
+      } finally {
+        processed.countDown();
+      }
+    }
+  }
+
+  /**
+   * @return Time until the container times out a request, including the time queued, unless given by the servlet.
+   */
+  static long getTimeoutMilliseconds() {
+    Properties properties = Service.getInstance().getProperties();
+    return Long.valueOf(properties != null ? properties.getProperty("AsyncTimeoutMilliseconds", "60000") : "60000");
+  }
+
+  private static int getRetryAfterSeconds() {
+    Properties properties = Service.getInstance().getProperties();
+    return Integer.valueOf(properties != null ? properties.getProperty("RetryAfterSeconds", "1") : "1");
+  }
+
+}
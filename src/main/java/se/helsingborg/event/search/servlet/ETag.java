@@ -0,0 +1,61 @@
+package se.helsingborg.event.search.servlet;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Entity tags for responses that only change when the index searcher is refreshed.
+ *
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class ETag {
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  /**
+   * @param indexVersion Version of the index the response is produced from, see {@link se.helsingborg.event.search.IndexManager#getIndexVersion()}
+   * @param key          Canonical representation of the request
+   * @param gzip         Whether or not the response is gzip encoded, as the entity then differs
+   * @return Quoted strong entity tag
+   */
+  public static String factory(String indexVersion, String key, boolean gzip) {
+    StringBuilder etag = new StringBuilder(64);
+    etag.append('"').append(indexVersion).append('-');
+    try {
+      for (byte b : MessageDigest.getInstance("MD5").digest(key.getBytes("UTF8"))) {
+        etag.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+      }
+    } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+    if (gzip) {
+      etag.append("-gzip");
+    }
+    etag.append('"');
+    return etag.toString();
+  }
+
+  /**
+   * @return true if request header If-None-Match contains the entity tag or *
+   */
+  public static boolean isMatching(HttpServletRequest request, String etag) {
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.startsWith("W/")) {
+        candidate = candidate.substring(2);
+      }
+      if ("*".equals(candidate) || etag.equals(candidate)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
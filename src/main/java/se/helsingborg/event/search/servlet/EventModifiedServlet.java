@@ -3,17 +3,21 @@ package se.helsingborg.event.search.servlet;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import se.helsingborg.event.Metrics;
 import se.helsingborg.event.SystemErrorManager;
 import se.helsingborg.event.domin.Event;
 import se.helsingborg.event.PrimaryPersistence;
 import se.helsingborg.event.domin.EventJSONSerialization;
+import se.helsingborg.event.search.IndexManager;
 import se.helsingborg.event.search.Service;
+import se.helsingborg.event.util.JSONUtil;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -27,9 +31,31 @@ public class EventModifiedServlet extends HttpServlet {
 
   private static Pattern identityPattern = Pattern.compile(".+/([0-9]+)$");
 
+  private final Metrics.Counter skippedEvents = Metrics.getInstance().getCounter("index_update_skipped_total", "Events not written to the index as their content hash was unchanged.", Metrics.label("source", "event modified"));
+
   @Override
   protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 
+    if (!request.isAsyncSupported()) {
+      process(request, response);
+      return;
+    }
+
+    new AsyncExecution(request, response) {
+      @Override
+      protected void process(HttpServletRequest request, HttpServletResponse response) throws Exception {
+        EventModifiedServlet.this.process(request, response);
+      }
+    }.execute(Service.getInstance().getIndexingExecutor());
+
+  }
+
+  /**
+   * Responds with the consistency token of the update, to be passed along with searches that must see it.
+   * With parameter wait=true the response is not sent until the update is visible to all searches.
+   */
+  private void process(HttpServletRequest request, HttpServletResponse response) throws IOException {
+
     Matcher matcher = identityPattern.matcher(request.getRequestURI());
     if (!matcher.matches()) {
       throw new RuntimeException("Request URI does not match " + identityPattern.pattern());
@@ -37,23 +63,42 @@ public class EventModifiedServlet extends HttpServlet {
     long eventId = Long.valueOf(matcher.group(1));
 
     JSONObject jsonEvent;
-    PrimaryPersistence wordpress = new PrimaryPersistence();
+    // connected by the service
+    PrimaryPersistence wordpress = Service.getInstance().getPrimaryPersistence();
     try {
-      wordpress.connect();
-      try {
-        jsonEvent = wordpress.getEvent(eventId);
-      } finally {
-        wordpress.disconnect();
+      jsonEvent = wordpress.getEvent(eventId);
+
+      IndexManager indexManager = Service.getInstance().getIndexManager();
+      long generation;
+      if (jsonEvent == null || JSONUtil.optBoolean(jsonEvent, "deleted", false)) {
+        generation = indexManager.deleteFromIndex(Collections.singleton(eventId));
+      } else {
+        long contentHash = indexManager.contentHashFactory(jsonEvent);
+        // the generation of the unchanged content, in case it is not yet visible
+        generation = indexManager.findContentHash(eventId, contentHash);
+        if (generation >= 0) {
+          skippedEvents.increment();
+        } else {
+          EventJSONSerialization serialization = new EventJSONSerialization();
+          Event event = serialization.unmarshalEvent(jsonEvent);
+          generation = indexManager.updateIndex(event.getEventId(), indexManager.documentsFactory(event, jsonEvent, contentHash));
+        }
+      }
+      // durably committed in the background
+      if (Boolean.valueOf(request.getParameter("wait"))) {
+        indexManager.waitForGeneration(generation);
       }
 
-      EventJSONSerialization serialization = new EventJSONSerialization();
-      Event event = serialization.unmarshalEvent(jsonEvent);
-      Service.getInstance().getIndexManager().updateIndex(event, jsonEvent);
-      Service.getInstance().getIndexManager().commit();
+      JSONObject json = new JSONObject();
+      json.put("consistencyToken", indexManager.getConsistencyToken(generation));
+      response.setContentType("application/json");
+      response.setCharacterEncoding("UTF-8");
+      response.getWriter().write(json.toString());
 
     } catch (Exception e) {
       log.error("Exception caught when WP repported updated Event.", e);
       SystemErrorManager.getInstance().log("Exception caught when WP repported updated Event.", e);
+      response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
     }
 
   }
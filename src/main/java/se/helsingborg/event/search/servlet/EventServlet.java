@@ -0,0 +1,75 @@
+package se.helsingborg.event.search.servlet;
+
+import se.helsingborg.event.search.SearchResult;
+import se.helsingborg.event.search.Service;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Responds with the event JSON as stored in the index.
+ *
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class EventServlet extends HttpServlet {
+
+  private static Pattern identityPattern = Pattern.compile(".+/([0-9]+)$");
+
+  @Override
+  protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+    long started = System.nanoTime();
+    try {
+      get(request, response);
+    } finally {
+      RequestMetrics.record(getServletName(), null, response.getStatus(), System.nanoTime() - started);
+    }
+  }
+
+  private void get(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+
+    Matcher matcher = identityPattern.matcher(request.getRequestURI());
+    if (!matcher.matches()) {
+      response.sendError(404);
+      return;
+    }
+    long eventId = Long.valueOf(matcher.group(1));
+
+    boolean gzip = GzipJSONResponseWriter.isAccepted(request);
+
+    String etag;
+    SearchResult event;
+    try {
+      etag = ETag.factory(Service.getInstance().getIndexManager().getIndexVersion(), String.valueOf(eventId), gzip);
+      if (ETag.isMatching(request, etag)) {
+        response.setHeader("ETag", etag);
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return;
+      }
+      event = Service.getInstance().getIndexManager().getEvent(eventId, gzip);
+    } catch (Exception e) {
+      throw new ServletException(e);
+    }
+
+    if (event == null) {
+      response.sendError(404);
+      return;
+    }
+
+    response.setHeader("Access-Control-Allow-Origin", "*");
+    response.setContentType("application/json");
+    response.setCharacterEncoding("utf8");
+    response.setHeader("ETag", etag);
+    response.setHeader("Cache-Control", "no-cache");
+
+    JSONResponseWriter out = JSONResponseWriter.factory(response, gzip);
+    out.write(event.getJson(), event.getPrecompressedJson());
+    out.close();
+
+  }
+}
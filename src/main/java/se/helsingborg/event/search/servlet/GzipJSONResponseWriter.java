@@ -0,0 +1,162 @@
+package se.helsingborg.event.search.servlet;
+
+import org.apache.lucene.util.BytesRef;
+import se.helsingborg.event.util.DeflateUtil;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a gzip encoded JSON response where event payloads are passed on as the deflate blocks
+ * precompressed at index time, and only the JSON in between them is compressed per request.
+ *
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class GzipJSONResponseWriter extends JSONResponseWriter {
+
+  private static final byte[] GZIP_HEADER = new byte[]{
+      0x1f, (byte) 0x8b, // magic
+      Deflater.DEFLATED, // compression method
+      0, // flags
+      0, 0, 0, 0, // modification time
+      0, // extra flags
+      (byte) 0xff // operating system, unknown
+  };
+
+  /**
+   * Empty stored block with the final bit set.
+   */
+  private static final byte[] FINAL_BLOCK = new byte[]{0x01, 0x00, 0x00, (byte) 0xff, (byte) 0xff};
+
+  /**
+   * @return true if the request header Accept-Encoding allows for gzip.
+   */
+  public static boolean isAccepted(HttpServletRequest request) {
+    String acceptEncoding = request.getHeader("Accept-Encoding");
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String encoding : acceptEncoding.split(",")) {
+      String[] parameters = encoding.split(";");
+      String name = parameters[0].trim();
+      if ("gzip".equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name) || "*".equals(name)) {
+        for (int i = 1; i < parameters.length; i++) {
+          String parameter = parameters[i].trim();
+          if (parameter.startsWith("q=")) {
+            try {
+              if (Float.parseFloat(parameter.substring(2).trim()) == 0f) {
+                return false;
+              }
+            } catch (NumberFormatException e) {
+              return false;
+            }
+          }
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private final Deflater deflater;
+  private final byte[] deflated = new byte[DEFAULT_BUFFER_SIZE];
+  private final CRC32 crc = new CRC32();
+
+  /**
+   * CRC32 of all bytes up to the most recent precompressed payload.
+   * Bytes written after that are accumulated in {@link #crc}.
+   */
+  private long combinedCrc = 0;
+  private long uncompressedLengthSinceCombine = 0;
+  private long uncompressedLength = 0;
+
+  /**
+   * Set when a precompressed payload has been written, as the deflater then must not refer back to previous input.
+   */
+  private boolean deflaterNeedsReset = false;
+
+  public GzipJSONResponseWriter(OutputStream out) throws IOException {
+    this(out, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  public GzipJSONResponseWriter(OutputStream out, int compressionLevel) throws IOException {
+    super(out);
+    deflater = new Deflater(compressionLevel, true);
+    out.write(GZIP_HEADER);
+  }
+
+  @Override
+  public JSONResponseWriter write(BytesRef utf8, BytesRef precompressed) throws IOException {
+    if (precompressed == null || precompressed.length < DeflateUtil.HEADER_LENGTH) {
+      return write(utf8);
+    }
+
+    drainBuffer();
+
+    combinedCrc = DeflateUtil.crc32Combine(combinedCrc, crc.getValue(), uncompressedLengthSinceCombine);
+    crc.reset();
+    uncompressedLengthSinceCombine = 0;
+
+    int payloadLength = DeflateUtil.getUncompressedLength(precompressed);
+    combinedCrc = DeflateUtil.crc32Combine(combinedCrc, DeflateUtil.getCrc32(precompressed) & 0xffffffffL, payloadLength);
+    uncompressedLength += payloadLength;
+
+    getOutputStream().write(precompressed.bytes, precompressed.offset + DeflateUtil.HEADER_LENGTH, precompressed.length - DeflateUtil.HEADER_LENGTH);
+    deflaterNeedsReset = true;
+
+    return this;
+  }
+
+  @Override
+  protected void writeChunk(byte[] bytes, int offset, int length) throws IOException {
+
+    if (deflaterNeedsReset) {
+      deflater.reset();
+      deflaterNeedsReset = false;
+    }
+
+    crc.update(bytes, offset, length);
+    uncompressedLengthSinceCombine += length;
+    uncompressedLength += length;
+
+    deflater.setInput(bytes, offset, length);
+    int deflatedLength;
+    do {
+      deflatedLength = deflater.deflate(deflated, 0, deflated.length, Deflater.SYNC_FLUSH);
+      getOutputStream().write(deflated, 0, deflatedLength);
+    } while (deflatedLength == deflated.length);
+  }
+
+  /**
+   * Writes any buffered bytes and the gzip trailer to the output stream. Does not close the output stream.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      drainBuffer();
+
+      long crc32 = DeflateUtil.crc32Combine(combinedCrc, crc.getValue(), uncompressedLengthSinceCombine);
+
+      OutputStream out = getOutputStream();
+      out.write(FINAL_BLOCK);
+      writeIntLittleEndian(out, (int) crc32);
+      writeIntLittleEndian(out, (int) uncompressedLength);
+      out.flush();
+
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private void writeIntLittleEndian(OutputStream out, int value) throws IOException {
+    out.write(value);
+    out.write(value >>> 8);
+    out.write(value >>> 16);
+    out.write(value >>> 24);
+  }
+
+}
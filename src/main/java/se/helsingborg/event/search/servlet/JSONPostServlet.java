@@ -1,22 +1,22 @@
 package se.helsingborg.event.search.servlet;
 
-import org.apache.commons.io.IOUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONTokener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import se.helsingborg.event.SystemErrorManager;
+import se.helsingborg.event.search.Service;
+import se.helsingborg.event.search.StageTimings;
+import se.helsingborg.event.util.DepthLimitedJSONTokener;
+import se.helsingborg.event.util.SizeLimitedInputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.io.Writer;
-import java.util.LinkedHashMap;
+import java.io.*;
+import java.util.Properties;
+import java.util.concurrent.Executor;
 
 /**
  * @author kalle
@@ -26,34 +26,134 @@ public abstract class JSONPostServlet extends HttpServlet {
 
   private Logger log = LoggerFactory.getLogger(getClass());
 
+  private long maximumRequestBytes = 64 * 1024;
+  private int maximumRequestDepth = 32;
+
+  @Override
+  public void init() throws ServletException {
+    super.init();
+    Properties properties = Service.getInstance().getProperties();
+    if (properties != null) {
+      maximumRequestBytes = Long.valueOf(properties.getProperty("JSONPostMaximumRequestBytes", String.valueOf(maximumRequestBytes)));
+      maximumRequestDepth = Integer.valueOf(properties.getProperty("JSONPostMaximumRequestDepth", String.valueOf(maximumRequestDepth)));
+    }
+  }
+
   @Override
   protected final void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 
+    StageTimings stageTimings = new StageTimings();
+    request.setAttribute(StageTimings.class.getName(), stageTimings);
+
     if (!"application/json".equalsIgnoreCase(request.getHeader("Content-Type"))) {
       throw new RuntimeException("Request header 'Content-Type' must be 'application/json'");
     }
 
     response.setHeader("Access-Control-Allow-Origin", "*");
 
+    if (request.getContentLength() > maximumRequestBytes) {
+      reject(request, response, 413, "Request body exceeds maximum " + maximumRequestBytes + " bytes");
+      return;
+    }
+
     response.setContentType("application/json");
     response.setCharacterEncoding("utf8");
 
-    String jsonRequestString = IOUtils.toString(request.getInputStream(), "UTF8");
+    SizeLimitedInputStream input = new SizeLimitedInputStream(request.getInputStream(), maximumRequestBytes);
+
+    JSONObject jsonRequestObject;
+    try {
+      jsonRequestObject = new JSONObject(new DepthLimitedJSONTokener(new InputStreamReader(input, "UTF8"), maximumRequestDepth));
+    } catch (JSONException e) {
+      if (input.isExceeded()) {
+        reject(request, response, 413, "Request body exceeds maximum " + maximumRequestBytes + " bytes");
+      } else {
+        reject(request, response, 400, e.getMessage());
+      }
+      return;
+    }
 
     if (log.isDebugEnabled()) {
-      log.debug("Incoming request: " + jsonRequestString);
+      log.debug("Incoming request of " + input.getBytesRead() + " bytes");
     }
 
+    stageTimings.stage("parse request");
+
+    dispatch(jsonRequestObject, request, response);
+
+  }
+
+  /**
+   * Same as POST but with the request JSON in parameter <code>request</code>,
+   * allowing for responses to be cached by proxies.
+   */
+  @Override
+  protected final void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+
+    StageTimings stageTimings = new StageTimings();
+    request.setAttribute(StageTimings.class.getName(), stageTimings);
+
+    response.setHeader("Access-Control-Allow-Origin", "*");
+
+    String jsonRequest = request.getParameter("request");
+    if (jsonRequest == null) {
+      reject(request, response, 400, "Missing parameter 'request'");
+      return;
+    }
+    if (jsonRequest.length() > maximumRequestBytes) {
+      reject(request, response, 414, "Parameter 'request' exceeds maximum " + maximumRequestBytes + " characters");
+      return;
+    }
+
+    response.setContentType("application/json");
+    response.setCharacterEncoding("utf8");
 
     JSONObject jsonRequestObject;
     try {
-      jsonRequestObject = new JSONObject(new JSONTokener(jsonRequestString));
+      jsonRequestObject = new JSONObject(new DepthLimitedJSONTokener(new StringReader(jsonRequest), maximumRequestDepth));
     } catch (JSONException e) {
-      throw new RuntimeException(e);
+      reject(request, response, 400, e.getMessage());
+      return;
     }
 
+    stageTimings.stage("parse request");
+
+    dispatch(jsonRequestObject, request, response);
+
+  }
+
+  private void dispatch(final JSONObject json, HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+    Executor executor = getExecutor();
+    if (executor == null || !request.isAsyncSupported()) {
+      process(json, request, response);
+      return;
+    }
+
+    boolean accepted = new AsyncExecution(request, response, getAsyncTimeoutMilliseconds()) {
+      @Override
+      protected void process(HttpServletRequest request, HttpServletResponse response) throws Exception {
+        JSONPostServlet.this.process(json, request, response);
+      }
+    }.execute(executor);
+    if (!accepted) {
+      RequestMetrics.record(getServletName(), null, 503, getStageTimings(request).getTotalNanos());
+    }
+
+  }
+
+  private void process(JSONObject jsonRequestObject, HttpServletRequest request, HttpServletResponse response) throws IOException {
+    getStageTimings(request).stage("queued");
     try {
       doProcess(jsonRequestObject, request, response);
+
+    } catch (IllegalArgumentException | JSONException e) {
+      log.debug("Bad request", e);
+      if (!response.isCommitted()) {
+        resetResponse(response);
+        sendError(response, 400, e.getMessage());
+      }
+
     } catch (Exception e) {
       SystemErrorManager.getInstance().log(e);
       log.error("Caught exception", e);
@@ -63,13 +163,66 @@ public abstract class JSONPostServlet extends HttpServlet {
       e.printStackTrace(pw);
       pw.close();
 
-      response.setStatus(500);
-      response.setContentType("text/plain");
-      response.getWriter().write(sw.toString());
+      if (response.isCommitted()) {
+        // parts of the response has already been streamed to the client
+        return;
+      }
+      resetResponse(response);
+      sendError(response, 500, sw.toString());
 
+    } finally {
+      int status = response.getStatus();
+      RequestMetrics.record(getServletName(), status < 400 ? getQueryType(jsonRequestObject) : null, status, getStageTimings(request).getTotalNanos());
     }
+  }
 
+  /**
+   * Clears buffered output and headers such as caching headers set before the failure.
+   */
+  private void resetResponse(HttpServletResponse response) {
+    response.reset();
+    response.setHeader("Access-Control-Allow-Origin", "*");
+  }
+
+  private void reject(HttpServletRequest request, HttpServletResponse response, int status, String message) throws IOException {
+    sendError(response, status, message);
+    RequestMetrics.record(getServletName(), null, status, getStageTimings(request).getTotalNanos());
+  }
+
+  private void sendError(HttpServletResponse response, int status, String message) throws IOException {
+    response.setStatus(status);
+    response.setContentType("text/plain");
+    response.setCharacterEncoding("utf8");
+    response.getOutputStream().write(String.valueOf(message).getBytes("UTF8"));
+  }
+
+  /**
+   * @return Timings of the request, started when the request was received.
+   */
+  protected StageTimings getStageTimings(HttpServletRequest request) {
+    return (StageTimings) request.getAttribute(StageTimings.class.getName());
+  }
+
+  /**
+   * @return Executor processing requests asynchronously, or null if processed by the container thread.
+   */
+  protected Executor getExecutor() {
+    return null;
+  }
+
+  /**
+   * @return Time until the container times out a request processed asynchronously, including the time queued.
+   */
+  protected long getAsyncTimeoutMilliseconds() {
+    return AsyncExecution.getTimeoutMilliseconds();
+  }
 
+  /**
+   * @return Type of query in the request, used to label request metrics.
+   * Only used for successful requests, i.e. when the type is known to be valid.
+   */
+  protected String getQueryType(JSONObject json) {
+    return null;
   }
 
   protected abstract void doProcess(JSONObject json, HttpServletRequest request, HttpServletResponse response) throws Exception;
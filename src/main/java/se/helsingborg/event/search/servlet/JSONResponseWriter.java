@@ -0,0 +1,256 @@
+package se.helsingborg.event.search.servlet;
+
+import org.apache.lucene.util.BytesRef;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes UTF-8 encoded JSON straight to an output stream via a buffer that is reused by the thread.
+ * <p/>
+ * Stored event JSON is already UTF-8 and is copied as is from the index payload,
+ * i.e. it's never decoded to a String and encoded back again.
+ * <p/>
+ * Whenever the buffer is full it is written and flushed to the output stream,
+ * allowing the client to start consuming the response before it has been completely serialized.
+ * <p/>
+ * As the buffer is shared by the thread there must never be more than one writer in use per thread.
+ *
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class JSONResponseWriter {
+
+  public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+  private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+  private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+    @Override
+    protected byte[] initialValue() {
+      return new byte[DEFAULT_BUFFER_SIZE];
+    }
+  };
+
+  /**
+   * Sets response headers and creates a writer for the response output stream.
+   *
+   * @param gzip If true the response will be gzip encoded, see {@link GzipJSONResponseWriter#isAccepted(HttpServletRequest)}
+   */
+  public static JSONResponseWriter factory(HttpServletResponse response, boolean gzip) throws IOException {
+    response.setHeader("Vary", "Accept-Encoding");
+    if (gzip) {
+      response.setHeader("Content-Encoding", "gzip");
+      return new GzipJSONResponseWriter(response.getOutputStream());
+    } else {
+      return new JSONResponseWriter(response.getOutputStream());
+    }
+  }
+
+  private final OutputStream out;
+  private final byte[] buffer;
+  private int position;
+
+  public JSONResponseWriter(OutputStream out) {
+    this.out = out;
+    this.buffer = buffers.get();
+  }
+
+  /**
+   * Writes the string as is, i.e. not quoted.
+   */
+  public JSONResponseWriter write(String value) throws IOException {
+    for (int i = 0; i < value.length(); ) {
+      i += writeChar(value, i);
+    }
+    return this;
+  }
+
+  /**
+   * Writes the string as a quoted and escaped JSON string, or null.
+   */
+  public JSONResponseWriter writeQuoted(String value) throws IOException {
+    if (value == null) {
+      return write("null");
+    }
+    writeByte('"');
+    for (int i = 0; i < value.length(); ) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+        case '\\':
+          writeByte('\\');
+          writeByte(c);
+          break;
+        case '\b':
+          writeByte('\\');
+          writeByte('b');
+          break;
+        case '\t':
+          writeByte('\\');
+          writeByte('t');
+          break;
+        case '\n':
+          writeByte('\\');
+          writeByte('n');
+          break;
+        case '\f':
+          writeByte('\\');
+          writeByte('f');
+          break;
+        case '\r':
+          writeByte('\\');
+          writeByte('r');
+          break;
+        default:
+          if (c < ' ' || c == '\u2028' || c == '\u2029') {
+            writeByte('\\');
+            writeByte('u');
+            writeByte(HEX[(c >> 12) & 0xf]);
+            writeByte(HEX[(c >> 8) & 0xf]);
+            writeByte(HEX[(c >> 4) & 0xf]);
+            writeByte(HEX[c & 0xf]);
+          } else {
+            i += writeChar(value, i);
+            continue;
+          }
+      }
+      i++;
+    }
+    writeByte('"');
+    return this;
+  }
+
+  public JSONResponseWriter write(long value) throws IOException {
+    if (value == Long.MIN_VALUE) {
+      return write(String.valueOf(value));
+    }
+    if (value < 0) {
+      writeByte('-');
+      value = -value;
+    }
+    if (position + 20 > buffer.length) {
+      flushBuffer();
+    }
+    int start = position;
+    do {
+      buffer[position++] = (byte) ('0' + (value % 10));
+      value /= 10;
+    } while (value > 0);
+    // digits were written least significant first
+    for (int i = start, j = position - 1; i < j; i++, j--) {
+      byte swap = buffer[i];
+      buffer[i] = buffer[j];
+      buffer[j] = swap;
+    }
+    return this;
+  }
+
+  public JSONResponseWriter write(float value) throws IOException {
+    return write(String.valueOf(value));
+  }
+
+  /**
+   * Writes UTF-8 bytes as is.
+   */
+  public JSONResponseWriter write(BytesRef bytes) throws IOException {
+    return write(bytes.bytes, bytes.offset, bytes.length);
+  }
+
+  public JSONResponseWriter write(byte[] bytes, int offset, int length) throws IOException {
+    while (length > 0) {
+      if (position == buffer.length) {
+        flushBuffer();
+      }
+      int chunk = Math.min(length, buffer.length - position);
+      System.arraycopy(bytes, offset, buffer, position, chunk);
+      position += chunk;
+      offset += chunk;
+      length -= chunk;
+    }
+    return this;
+  }
+
+  private void writeByte(int b) throws IOException {
+    if (position == buffer.length) {
+      flushBuffer();
+    }
+    buffer[position++] = (byte) b;
+  }
+
+  /**
+   * @return number of chars consumed from value, i.e. 2 in case of a surrogate pair.
+   */
+  private int writeChar(String value, int index) throws IOException {
+    char c = value.charAt(index);
+    if (c < 0x80) {
+      writeByte(c);
+    } else if (c < 0x800) {
+      writeByte(0xc0 | (c >> 6));
+      writeByte(0x80 | (c & 0x3f));
+    } else if (Character.isHighSurrogate(c) && index + 1 < value.length() && Character.isLowSurrogate(value.charAt(index + 1))) {
+      int codePoint = Character.toCodePoint(c, value.charAt(index + 1));
+      writeByte(0xf0 | (codePoint >> 18));
+      writeByte(0x80 | ((codePoint >> 12) & 0x3f));
+      writeByte(0x80 | ((codePoint >> 6) & 0x3f));
+      writeByte(0x80 | (codePoint & 0x3f));
+      return 2;
+    } else if (Character.isSurrogate(c)) {
+      // unpaired surrogate
+      writeByte('?');
+    } else {
+      writeByte(0xe0 | (c >> 12));
+      writeByte(0x80 | ((c >> 6) & 0x3f));
+      writeByte(0x80 | (c & 0x3f));
+    }
+    return 1;
+  }
+
+  /**
+   * Writes an event payload.
+   *
+   * @param utf8          UTF-8 encoded JSON
+   * @param precompressed Deflated representation of the same JSON as produced by {@link se.helsingborg.event.util.DeflateUtil#precompress(BytesRef)}, or null.
+   *                      Ignored unless the writer is compressing the response.
+   */
+  public JSONResponseWriter write(BytesRef utf8, BytesRef precompressed) throws IOException {
+    return write(utf8);
+  }
+
+  /**
+   * Passes on buffered bytes to the output stream and flushes it,
+   * sending a chunk to the client.
+   */
+  protected void flushBuffer() throws IOException {
+    drainBuffer();
+    out.flush();
+  }
+
+  /**
+   * Passes on buffered bytes to the output stream without flushing it.
+   */
+  protected void drainBuffer() throws IOException {
+    if (position > 0) {
+      writeChunk(buffer, 0, position);
+      position = 0;
+    }
+  }
+
+  protected void writeChunk(byte[] bytes, int offset, int length) throws IOException {
+    out.write(bytes, offset, length);
+  }
+
+  /**
+   * Writes any buffered bytes to the output stream. Does not close the output stream.
+   */
+  public void close() throws IOException {
+    flushBuffer();
+  }
+
+  protected OutputStream getOutputStream() {
+    return out;
+  }
+
+}
@@ -0,0 +1,30 @@
+package se.helsingborg.event.search.servlet;
+
+import se.helsingborg.event.Metrics;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Responds with all metrics in the Prometheus text exposition format.
+ *
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class MetricsServlet extends HttpServlet {
+
+  @Override
+  protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+    response.setContentType("text/plain; version=0.0.4");
+    response.setCharacterEncoding("utf8");
+    response.setHeader("Cache-Control", "no-store");
+    Writer out = response.getWriter();
+    Metrics.getInstance().write(out);
+    out.flush();
+  }
+
+}
@@ -0,0 +1,105 @@
+package se.helsingborg.event.search.servlet;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import se.helsingborg.event.search.SearchRequest;
+import se.helsingborg.event.search.SearchResults;
+import se.helsingborg.event.search.Service;
+import se.helsingborg.event.search.StageTimings;
+import se.helsingborg.event.search.query.JSONQuerySerialization;
+import se.helsingborg.event.util.JSONUtil;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Executes a batch of search requests against the same index searcher,
+ * sharing parsed queries and filters between the requests.
+ *
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class MultiSearchServlet extends SearchServlet {
+
+  private int maximumSearches = 32;
+
+  @Override
+  public void init() throws ServletException {
+    super.init();
+    Properties properties = Service.getInstance().getProperties();
+    if (properties != null) {
+      maximumSearches = Integer.valueOf(properties.getProperty("MultiSearchMaximumSearches", String.valueOf(maximumSearches)));
+    }
+  }
+
+  @Override
+  protected String getQueryType(JSONObject json) {
+    return "batch";
+  }
+
+  @Override
+  protected void doProcess(JSONObject json, HttpServletRequest request, HttpServletResponse response) throws Exception {
+
+    JSONArray jsonSearches = json.getJSONArray("searches");
+    if (jsonSearches.length() > maximumSearches) {
+      throw new IllegalArgumentException("Too many searches in batch: " + jsonSearches.length() + " > " + maximumSearches);
+    }
+
+    boolean gzip = GzipJSONResponseWriter.isAccepted(request);
+
+    JSONQuerySerialization.QueryCache queryCache = new JSONQuerySerialization.QueryCache();
+    List<SearchRequest> searchRequests = new ArrayList<>(jsonSearches.length());
+    for (int i = 0; i < jsonSearches.length(); i++) {
+      SearchRequest searchRequest = searchRequestFactory(jsonSearches.getJSONObject(i), new JSONQuerySerialization().setQueryCache(queryCache), new StageTimings());
+      searchRequest.setPrecompressedEventJson(gzip);
+      searchRequests.add(searchRequest);
+    }
+
+    boolean consistencyToken = false;
+    long nowEpochMilliseconds = 0;
+    for (SearchRequest searchRequest : searchRequests) {
+      consistencyToken |= searchRequest.getConsistencyToken() != null;
+      nowEpochMilliseconds = Math.max(nowEpochMilliseconds, searchRequest.getNowEpochMilliseconds());
+    }
+    String entityKey = entityKeyFactory(json, nowEpochMilliseconds);
+
+    if (!consistencyToken && isNotModified(entityKey, request, response, gzip)) {
+      return;
+    }
+
+    List<SearchResults> searchResults = Service.getInstance().getIndexManager().search(searchRequests, Service.getInstance().getSearchExecutor());
+    boolean cacheable = !consistencyToken;
+    for (int i = 0; i < searchRequests.size(); i++) {
+      cacheable &= !searchResults.get(i).isPartial();
+      logSlowQuery(jsonSearches.getJSONObject(i), searchRequests.get(i), searchResults.get(i));
+    }
+    if (!cacheable) {
+      setNotCacheable(response);
+    } else if (!searchResults.isEmpty()) {
+      // all searched the same version
+      setEntityTag(response, searchResults.get(0).getIndexVersion(), entityKey, gzip);
+    }
+
+    JSONResponseWriter out = JSONResponseWriter.factory(response, gzip);
+    out.write("{\n");
+    String reference = JSONUtil.optString(json, "reference");
+    if (reference != null) {
+      out.write("\"reference\": ").writeQuoted(reference).write(",\n");
+    }
+    out.write("\"results\": [\n");
+    for (int i = 0; i < searchRequests.size(); i++) {
+      if (i > 0) {
+        out.write(",\n");
+      }
+      writeSearchResults(out, searchRequests.get(i), searchResults.get(i));
+    }
+    out.write("\n]\n}");
+    out.close();
+
+  }
+
+}
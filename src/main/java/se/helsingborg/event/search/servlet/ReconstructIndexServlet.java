@@ -1,15 +1,69 @@
 package se.helsingborg.event.search.servlet;
 
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.helsingborg.event.SystemErrorManager;
+import se.helsingborg.event.search.IndexUpdateManager;
+import se.helsingborg.event.search.Service;
+
+import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
+ * If inconsistency in index is detected, e.g. returning identities that does not exist in primary persistence,
+ * then this servlet can be called upon in order to reconstruct the index from scratch.
+ * <p/>
+ * The index is rebuilt in the background while the current index keeps serving searches and updates,
+ * see {@link IndexUpdateManager#rebuild(java.util.Iterator)}. Requests sent to this while reconstructing are rejected.
+ *
  * @author kalle
  * @since 2015-10-25 16:04
  */
 public class ReconstructIndexServlet extends HttpServlet {
 
-  // todo: if inconsistency in index is detected, e.g. returning identities that does not exist in primary persistence,
-  // todo: then this servlet can be called upon in order to reconstruct the index from scratch.
-  // todo: requests sent to this should be ignored while reconstructing, and probably for a while there after
+  private static final Logger log = LoggerFactory.getLogger(ReconstructIndexServlet.class);
+
+  private final AtomicBoolean reconstructing = new AtomicBoolean(false);
+
+  @Override
+  protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+
+    if (!reconstructing.compareAndSet(false, true)) {
+      response.sendError(HttpServletResponse.SC_CONFLICT, "Already reconstructing index");
+      return;
+    }
+
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          new IndexUpdateManager().rebuild(new Callable<Iterator<JSONObject>>() {
+            @Override
+            public Iterator<JSONObject> call() throws Exception {
+              // connected by the service
+              return Service.getInstance().getPrimaryPersistence().export();
+            }
+          });
+        } catch (Exception e) {
+          log.error("Exception caught when reconstructing index.", e);
+          SystemErrorManager.getInstance().log("Exception caught when reconstructing index.", e);
+        } finally {
+          reconstructing.set(false);
+        }
+      }
+    }, "index-rebuild");
+    thread.setDaemon(true);
+    thread.start();
+
+    response.setStatus(HttpServletResponse.SC_ACCEPTED);
+
+  }
 
 }
@@ -0,0 +1,36 @@
+package se.helsingborg.event.search.servlet;
+
+import se.helsingborg.event.Metrics;
+
+/**
+ * Request counts and latencies per endpoint, see {@link MetricsServlet}.
+ *
+ * @author kalle
+ * @since 2026-10-19
+ */
+class RequestMetrics {
+
+  /**
+   * @param endpoint  Servlet name
+   * @param queryType Type of query, or null if not applicable or the request failed
+   * @param status    HTTP status of the response
+   * @param nanos     Time from receiving the request until the response was complete
+   */
+  static void record(String endpoint, String queryType, int status, long nanos) {
+
+    Metrics metrics = Metrics.getInstance();
+
+    metrics.getCounter("http_requests_total", "Requests per endpoint and response status.",
+        Metrics.label("endpoint", endpoint) + "," + Metrics.label("status", String.valueOf(status))).increment();
+
+    if (status >= 500) {
+      metrics.getCounter("http_request_errors_total", "Requests failing with a server side error, including rejections when busy.",
+          Metrics.label("endpoint", endpoint)).increment();
+    }
+
+    metrics.getHistogram("http_request_duration_seconds", "Time from receiving the request until the response was complete.",
+        Metrics.label("endpoint", endpoint) + "," + Metrics.label("query_type", queryType == null ? "" : queryType.toLowerCase())).observeNanos(nanos);
+
+  }
+
+}
@@ -1,23 +1,28 @@
 package se.helsingborg.event.search.servlet;
 
+import org.apache.lucene.search.BooleanQuery;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.json.JSONTokener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import se.helsingborg.event.search.SearchRequest;
 import se.helsingborg.event.search.SearchResult;
 import se.helsingborg.event.search.SearchResults;
 import se.helsingborg.event.search.Service;
+import se.helsingborg.event.search.StageTimings;
 import se.helsingborg.event.search.query.JSONQuerySerialization;
+import se.helsingborg.event.search.query.QueryOptimizer;
 import se.helsingborg.event.util.JSONUtil;
 
+import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.Writer;
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
 
 /**
  * @author kalle
@@ -25,55 +30,237 @@ import java.util.LinkedHashMap;
  */
 public class SearchServlet extends JSONPostServlet {
 
+  private static final Logger log = LoggerFactory.getLogger(SearchServlet.class);
+  private static final Logger slowQueryLog = LoggerFactory.getLogger(SearchServlet.class.getName() + ".slow");
+
+  private int maximumClauses = BooleanQuery.getMaxClauseCount();
+  private int maximumTextLength = 256;
+  private int cacheMaximumAgeSeconds = 60;
+  private long defaultTimeoutMillis = 5000;
+  private long maximumTimeoutMillis = 30000;
+  private long slowQueryThresholdMillis = 1000;
+  private long timeResolutionMillis = 60000;
+
+  @Override
+  public void init() throws ServletException {
+    super.init();
+    Properties properties = Service.getInstance().getProperties();
+    if (properties != null) {
+      maximumClauses = Integer.valueOf(properties.getProperty("SearchMaximumClauses", String.valueOf(maximumClauses)));
+      maximumTextLength = Integer.valueOf(properties.getProperty("SearchMaximumTextLength", String.valueOf(maximumTextLength)));
+      cacheMaximumAgeSeconds = Integer.valueOf(properties.getProperty("SearchCacheMaximumAgeSeconds", String.valueOf(cacheMaximumAgeSeconds)));
+      defaultTimeoutMillis = Long.valueOf(properties.getProperty("SearchDefaultTimeoutMilliseconds", String.valueOf(defaultTimeoutMillis)));
+      maximumTimeoutMillis = Long.valueOf(properties.getProperty("SearchMaximumTimeoutMilliseconds", String.valueOf(maximumTimeoutMillis)));
+      slowQueryThresholdMillis = Long.valueOf(properties.getProperty("SearchSlowQueryThresholdMilliseconds", String.valueOf(slowQueryThresholdMillis)));
+      timeResolutionMillis = 1000 * Long.valueOf(properties.getProperty("SearchTimeResolutionSeconds", String.valueOf(timeResolutionMillis / 1000)));
+    }
+  }
+
+  @Override
+  protected Executor getExecutor() {
+    return Service.getInstance().getSearchExecutor();
+  }
+
+  /**
+   * Searches time out by themselves once picked up by the executor, before the container times out the request.
+   */
+  @Override
+  protected long getAsyncTimeoutMilliseconds() {
+    return super.getAsyncTimeoutMilliseconds() + maximumTimeoutMillis;
+  }
+
+  @Override
+  protected String getQueryType(JSONObject json) {
+    JSONObject query = json.optJSONObject("query");
+    return query == null ? null : query.optString("type", null);
+  }
+
   @Override
   protected void doProcess(JSONObject json, HttpServletRequest request, HttpServletResponse response) throws Exception {
 
+    boolean gzip = GzipJSONResponseWriter.isAccepted(request);
+
+    SearchRequest searchRequest = searchRequestFactory(json, new JSONQuerySerialization(), getStageTimings(request));
+    searchRequest.setPrecompressedEventJson(gzip);
+
+    String entityKey = entityKeyFactory(json, searchRequest.getNowEpochMilliseconds());
+
+    // searches following an update of their own are one offs, the entity tag would be of the index before the update
+    if (searchRequest.getConsistencyToken() == null && isNotModified(entityKey, request, response, gzip)) {
+      return;
+    }
+    searchRequest.getStageTimings().stage("conditional");
+
+    SearchResults searchResults = Service.getInstance().getIndexManager().search(searchRequest);
+    if (searchResults.isPartial() || searchRequest.getConsistencyToken() != null) {
+      setNotCacheable(response);
+    } else {
+      setEntityTag(response, searchResults.getIndexVersion(), entityKey, gzip);
+    }
+
+    JSONResponseWriter out = JSONResponseWriter.factory(response, gzip);
+    writeSearchResults(out, searchRequest, searchResults);
+    out.close();
+
+    logSlowQuery(json, searchRequest, searchResults);
+
+  }
+
+  /**
+   * Logs the request in case it took longer than the threshold.
+   */
+  protected void logSlowQuery(JSONObject json, SearchRequest searchRequest, SearchResults searchResults) throws Exception {
+    StageTimings stageTimings = searchRequest.getStageTimings();
+    if (stageTimings.getTotalNanos() < slowQueryThresholdMillis * 1000 * 1000) {
+      return;
+    }
+    slowQueryLog.warn("Slow query, reference " + searchRequest.getReference()
+        + ", " + searchResults.getTotalNumberOfSearchResults() + " hits"
+        + (searchResults.isPartial() ? " (partial)" : "")
+        + (searchResults.isStale() ? " (stale)" : "")
+        + ", " + (searchResults.getSearchResults() == null ? 0 : searchResults.getSearchResults().size()) + " returned"
+        + ", " + stageTimings
+        + ", query " + JSONUtil.toCanonicalString(json.get("query")));
+  }
+
+  /**
+   * @param nowEpochMilliseconds "Now" of time relative queries, or 0, see {@link SearchRequest#getNowEpochMilliseconds()}
+   * @return Canonical representation of everything in the request affecting the response, but the index version.
+   */
+  protected String entityKeyFactory(JSONObject json, long nowEpochMilliseconds) throws Exception {
+    String key = JSONUtil.toCanonicalString(json);
+    // e.g. future events changes over time even if the index does not
+    return nowEpochMilliseconds == 0 ? key : key + "@" + nowEpochMilliseconds;
+  }
+
+  /**
+   * Sets caching headers and checks the entity tag of the client against the current index version.
+   *
+   * @return true if the client already has the response, in which case 304 has been sent.
+   */
+  protected boolean isNotModified(String entityKey, HttpServletRequest request, HttpServletResponse response, boolean gzip) throws Exception {
+
+    response.setHeader("Vary", "Accept-Encoding");
+    if ("GET".equals(request.getMethod())) {
+      response.setHeader("Cache-Control", "public, max-age=" + cacheMaximumAgeSeconds);
+    } else {
+      response.setHeader("Cache-Control", "no-cache");
+    }
+
+    String etag = ETag.factory(Service.getInstance().getIndexManager().getIndexVersion(), entityKey, gzip);
+    if (ETag.isMatching(request, etag)) {
+      response.setHeader("ETag", etag);
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Sets the entity tag of a response produced from the index version, i.e. of the searcher actually used
+   * rather than the one checked by {@link #isNotModified(String, HttpServletRequest, HttpServletResponse, boolean)}.
+   */
+  protected void setEntityTag(HttpServletResponse response, String indexVersion, String entityKey, boolean gzip) {
+    response.setHeader("ETag", ETag.factory(indexVersion, entityKey, gzip));
+  }
+
+  /**
+   * Removes caching headers set by {@link #isNotModified(String, HttpServletRequest, HttpServletResponse, boolean)},
+   * e.g. as partial results of a timed out search should not be reused.
+   */
+  protected void setNotCacheable(HttpServletResponse response) {
+    response.setHeader("ETag", null);
+    response.setHeader("Cache-Control", "no-store");
+  }
+
+  protected SearchRequest searchRequestFactory(JSONObject json, JSONQuerySerialization querySerialization, StageTimings stageTimings) throws Exception {
+
     SearchRequest searchRequest = new SearchRequest();
+    searchRequest.setStageTimings(stageTimings);
     searchRequest.setIdentityOutput(JSONUtil.optBoolean(json, "identityOutput", true));
     searchRequest.setEventJsonOutput(JSONUtil.optBoolean(json, "eventJsonOutput", false));
     searchRequest.setScoring(JSONUtil.optBoolean(json, "scoring", true));
     searchRequest.setReference(JSONUtil.optString(json, "reference"));
     searchRequest.setStartIndex(JSONUtil.optInteger(json, "startIndex", 0));
     searchRequest.setLimit(JSONUtil.optInteger(json, "limit", 100));
-    searchRequest.setQuery(new JSONQuerySerialization().parse(json.getJSONObject("query")));
+    searchRequest.setQueryPlanOutput(JSONUtil.optBoolean(json, "queryPlanOutput", false));
+    searchRequest.setDebugTimingsOutput(JSONUtil.optBoolean(json, "debugTimings", false));
+    searchRequest.setConsistencyToken(JSONUtil.optString(json, "consistencyToken"));
 
-    SearchResults searchResults = Service.getInstance().getIndexManager().search(searchRequest);
+    long timeoutMillis = JSONUtil.optLong(json, "timeoutMillis", defaultTimeoutMillis);
+    if (timeoutMillis <= 0 || timeoutMillis > maximumTimeoutMillis) {
+      timeoutMillis = maximumTimeoutMillis;
+    }
+    searchRequest.setTimeoutMillis(timeoutMillis);
+
+    searchRequest.setParsedQuery(querySerialization
+        .setMaximumClauses(maximumClauses)
+        .setMaximumTextLength(maximumTextLength)
+        .setTimeResolutionMilliseconds(timeResolutionMillis)
+        .setStageTimings(stageTimings)
+        .parse(json.getJSONObject("query")));
+    searchRequest.setNowEpochMilliseconds(querySerialization.getNowEpochMilliseconds());
+    searchRequest.setQueryKey(entityKeyFactory(json.getJSONObject("query"), searchRequest.getNowEpochMilliseconds()));
+    stageTimings.stage("parse query");
+
+    searchRequest.setQuery(new QueryOptimizer().setScoring(searchRequest.isScoring()).optimize(searchRequest.getParsedQuery()));
+    stageTimings.stage("optimize query");
+
+    if (log.isDebugEnabled()) {
+      log.debug("Parsed query " + searchRequest.getParsedQuery() + " optimized to " + searchRequest.getQuery());
+    }
+
+    return searchRequest;
+  }
 
-    PrintWriter out = response.getWriter();
+  protected void writeSearchResults(JSONResponseWriter out, SearchRequest searchRequest, SearchResults searchResults) throws IOException {
 
     out.write("{\n");
 
     if (searchRequest.getReference() != null) {
-      out.append("\"reference\": ").append(JSONObject.quote(searchRequest.getReference())).append(",\n");
+      out.write("\"reference\": ").writeQuoted(searchRequest.getReference()).write(",\n");
+    }
+    out.write("\"totalNumberOfSearchResults\": ").write(searchResults.getTotalNumberOfSearchResults()).write(",\n");
+    out.write("\"startIndex\": ").write(searchRequest.getStartIndex()).write(",\n");
+    out.write("\"partial\": ").write(searchResults.isPartial() ? "true" : "false");
+    if (searchRequest.getConsistencyToken() != null) {
+      out.write(",\n");
+      out.write("\"stale\": ").write(searchResults.isStale() ? "true" : "false");
+    }
+
+    if (searchRequest.isQueryPlanOutput()) {
+      out.write(",\n");
+      out.write("\"queryPlan\": {");
+      out.write("\"parsed\": ").writeQuoted(searchRequest.getParsedQuery().toString()).write(", ");
+      out.write("\"optimized\": ").writeQuoted(searchRequest.getQuery().toString());
+      out.write("}");
     }
-    out.append("\"totalNumberOfSearchResults\": ").append(String.valueOf(searchResults.getTotalNumberOfSearchResults())).append(",\n");
-    out.append("\"startIndex\": ").append(String.valueOf(searchRequest.getStartIndex()));
 
     if (searchResults.getSearchResults() == null || searchResults.getSearchResults().isEmpty()) {
-      out.append("\n");
+      out.write("\n");
     } else {
-      out.append(",\n");
+      out.write(",\n");
       out.write("\"searchResults\": [\n");
       for (Iterator<SearchResult> iterator = searchResults.getSearchResults().iterator(); iterator.hasNext(); ) {
         SearchResult searchResult = iterator.next();
         out.write("{");
         boolean needsComma = false;
         if (searchRequest.isScoring()) {
-          out.append("\"score\": ").append(String.valueOf(searchResult.getScore()));
+          out.write("\"score\": ").write(searchResult.getScore());
           needsComma = true;
         }
         if (searchRequest.isIdentityOutput()) {
           if (needsComma) {
-            out.append(", ");
+            out.write(", ");
           }
-          out.append("\"eventId\": ").append(String.valueOf(searchResult.getEventId()));
+          out.write("\"eventId\": ").write(searchResult.getEventId());
           needsComma = true;
         }
         if (searchRequest.isEventJsonOutput()) {
           if (needsComma) {
-            out.append(", ");
+            out.write(", ");
           }
-          out.append("\"event\": ").append(searchResult.getJson());
+          out.write("\"event\": ").write(searchResult.getJson(), searchResult.getPrecompressedJson());
           needsComma = true;
         }
         out.write("}");
@@ -85,6 +272,20 @@ public class SearchServlet extends JSONPostServlet {
       out.write("]\n");
     }
 
+    // the debug timings are the last to be serialized
+    StageTimings stageTimings = searchRequest.getStageTimings();
+    stageTimings.stage("serialize");
+
+    if (searchRequest.isDebugTimingsOutput()) {
+      out.write(",\n");
+      out.write("\"debugTimings\": {");
+      for (Map.Entry<String, Long> stage : stageTimings.getStages().entrySet()) {
+        out.writeQuoted(stage.getKey()).write(": ").write(String.valueOf(stage.getValue() / 1000 / 1000d)).write(", ");
+      }
+      out.write("\"total\": ").write(String.valueOf(stageTimings.getTotalNanos() / 1000 / 1000d));
+      out.write("}\n");
+    }
+
     out.write("}");
 
   }
@@ -0,0 +1,146 @@
+package se.helsingborg.event.util;
+
+import org.apache.lucene.util.BytesRef;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Precompressed payloads are raw deflate blocks that can be concatenated in to any deflate stream, e.g. a gzip response.
+ * <p/>
+ * Layout of a precompressed payload:
+ * <pre>
+ * [CRC32 of uncompressed data, 4 bytes big endian]
+ * [length of uncompressed data, 4 bytes big endian]
+ * [raw deflate blocks, not final, ending byte aligned with an empty stored block]
+ * </pre>
+ * The deflate blocks never refer back to data outside of the payload itself.
+ *
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class DeflateUtil {
+
+  public static final int HEADER_LENGTH = 8;
+
+  public static BytesRef precompress(BytesRef utf8) {
+
+    CRC32 crc = new CRC32();
+    crc.update(utf8.bytes, utf8.offset, utf8.length);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER_LENGTH + utf8.length / 2);
+    writeInt(out, (int) crc.getValue());
+    writeInt(out, utf8.length);
+
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+    try {
+      deflater.setInput(utf8.bytes, utf8.offset, utf8.length);
+      deflate(deflater, out);
+    } finally {
+      deflater.end();
+    }
+
+    return new BytesRef(out.toByteArray());
+  }
+
+  /**
+   * Deflates all input currently set in the deflater, ending with a sync flush.
+   */
+  public static void deflate(Deflater deflater, ByteArrayOutputStream out) {
+    byte[] buffer = new byte[4096];
+    int length;
+    do {
+      length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+      out.write(buffer, 0, length);
+    } while (length == buffer.length);
+  }
+
+  public static int getCrc32(BytesRef precompressed) {
+    return readInt(precompressed.bytes, precompressed.offset);
+  }
+
+  public static int getUncompressedLength(BytesRef precompressed) {
+    return readInt(precompressed.bytes, precompressed.offset + 4);
+  }
+
+  private static void writeInt(ByteArrayOutputStream out, int value) {
+    out.write(value >>> 24);
+    out.write(value >>> 16);
+    out.write(value >>> 8);
+    out.write(value);
+  }
+
+  private static int readInt(byte[] bytes, int offset) {
+    return ((bytes[offset] & 0xff) << 24)
+        | ((bytes[offset + 1] & 0xff) << 16)
+        | ((bytes[offset + 2] & 0xff) << 8)
+        | (bytes[offset + 3] & 0xff);
+  }
+
+  /**
+   * Port of zlib crc32_combine.
+   *
+   * @return CRC32 of the concatenation of two sequences of bytes, given the CRC32 of each sequence and the length of the second.
+   */
+  public static long crc32Combine(long crc1, long crc2, long length2) {
+
+    if (length2 <= 0) {
+      return crc1;
+    }
+
+    long[] even = new long[32];
+    long[] odd = new long[32];
+
+    // operator for one zero bit
+    odd[0] = 0xedb88320L;
+    long row = 1;
+    for (int n = 1; n < 32; n++) {
+      odd[n] = row;
+      row <<= 1;
+    }
+
+    // two zero bits, then four zero bits
+    gf2MatrixSquare(even, odd);
+    gf2MatrixSquare(odd, even);
+
+    // apply length2 zeros to crc1, first square will put the operator for one zero byte in even
+    do {
+      gf2MatrixSquare(even, odd);
+      if ((length2 & 1) != 0) {
+        crc1 = gf2MatrixTimes(even, crc1);
+      }
+      length2 >>= 1;
+      if (length2 == 0) {
+        break;
+      }
+      gf2MatrixSquare(odd, even);
+      if ((length2 & 1) != 0) {
+        crc1 = gf2MatrixTimes(odd, crc1);
+      }
+      length2 >>= 1;
+    } while (length2 != 0);
+
+    return (crc1 ^ crc2) & 0xffffffffL;
+  }
+
+  private static long gf2MatrixTimes(long[] matrix, long vector) {
+    long sum = 0;
+    int i = 0;
+    while (vector != 0) {
+      if ((vector & 1) != 0) {
+        sum ^= matrix[i];
+      }
+      vector >>>= 1;
+      i++;
+    }
+    return sum;
+  }
+
+  private static void gf2MatrixSquare(long[] square, long[] matrix) {
+    for (int n = 0; n < 32; n++) {
+      square[n] = gf2MatrixTimes(matrix, matrix[n]);
+    }
+  }
+
+}
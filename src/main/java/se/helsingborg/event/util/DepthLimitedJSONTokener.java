@@ -0,0 +1,49 @@
+package se.helsingborg.event.util;
+
+import org.json.JSONException;
+import org.json.JSONTokener;
+
+import java.io.Reader;
+
+/**
+ * Fails as soon as objects and arrays are nested deeper than allowed,
+ * rather than recursing until the stack overflows.
+ *
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class DepthLimitedJSONTokener extends JSONTokener {
+
+  private final int maximumDepth;
+
+  /**
+   * The root object or array is at depth 1.
+   */
+  private int depth = 1;
+
+  public DepthLimitedJSONTokener(Reader reader, int maximumDepth) {
+    super(reader);
+    this.maximumDepth = maximumDepth;
+  }
+
+  @Override
+  public Object nextValue() throws JSONException {
+    char c = nextClean();
+    back();
+    if (c != '{' && c != '[' && c != '(') {
+      return super.nextValue();
+    }
+    if (++depth > maximumDepth) {
+      throw syntaxError("Nesting depth exceeds maximum " + maximumDepth);
+    }
+    try {
+      return super.nextValue();
+    } finally {
+      depth--;
+    }
+  }
+
+  public int getMaximumDepth() {
+    return maximumDepth;
+  }
+}
@@ -11,6 +11,7 @@ import org.json.JSONObject;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.regex.Pattern;
 
@@ -32,6 +33,51 @@ public class JSONUtil {
     return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm").format(date);
   }
 
+  /**
+   * @return JSON with object keys in sorted order and no white space,
+   * i.e. equal JSON structures always produce the same string.
+   */
+  public static String toCanonicalString(Object json) throws JSONException {
+    StringBuilder sb = new StringBuilder(256);
+    appendCanonical(sb, json);
+    return sb.toString();
+  }
+
+  private static void appendCanonical(StringBuilder sb, Object json) throws JSONException {
+    if (json instanceof JSONObject) {
+      JSONObject jsonObject = (JSONObject) json;
+      String[] names = JSONObject.getNames(jsonObject);
+      sb.append('{');
+      if (names != null) {
+        Arrays.sort(names);
+        for (int i = 0; i < names.length; i++) {
+          if (i > 0) {
+            sb.append(',');
+          }
+          sb.append(JSONObject.quote(names[i])).append(':');
+          appendCanonical(sb, jsonObject.get(names[i]));
+        }
+      }
+      sb.append('}');
+    } else if (json instanceof JSONArray) {
+      JSONArray jsonArray = (JSONArray) json;
+      sb.append('[');
+      for (int i = 0; i < jsonArray.length(); i++) {
+        if (i > 0) {
+          sb.append(',');
+        }
+        appendCanonical(sb, jsonArray.get(i));
+      }
+      sb.append(']');
+    } else if (json instanceof String) {
+      sb.append(JSONObject.quote((String) json));
+    } else if (json instanceof Number) {
+      sb.append(JSONObject.numberToString((Number) json));
+    } else {
+      sb.append(String.valueOf(json));
+    }
+  }
+
   public static Long optDateTime(JSONObject json, String attribute) throws JSONException, ParseException {
 
     if (!json.has(attribute) || json.isNull(attribute)) {
@@ -0,0 +1,73 @@
+package se.helsingborg.event.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Throws an exception as soon as more than the allowed number of bytes has been read.
+ *
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class SizeLimitedInputStream extends FilterInputStream {
+
+  private final long maximumBytes;
+  private long bytesRead = 0;
+  private boolean exceeded = false;
+
+  public SizeLimitedInputStream(InputStream in, long maximumBytes) {
+    super(in);
+    this.maximumBytes = maximumBytes;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = super.read();
+    if (b != -1) {
+      count(1);
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int read = super.read(b, off, (int) Math.min(len, maximumBytes - bytesRead + 1));
+    if (read > 0) {
+      count(read);
+    }
+    return read;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long skipped = super.skip(Math.min(n, maximumBytes - bytesRead + 1));
+    count(skipped);
+    return skipped;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  private void count(long bytes) throws IOException {
+    bytesRead += bytes;
+    if (bytesRead > maximumBytes) {
+      exceeded = true;
+      throw new IOException("Input exceeds maximum " + maximumBytes + " bytes");
+    }
+  }
+
+  public boolean isExceeded() {
+    return exceeded;
+  }
+
+  public long getBytesRead() {
+    return bytesRead;
+  }
+
+  public long getMaximumBytes() {
+    return maximumBytes;
+  }
+}
@@ -2,10 +2,14 @@ package se.helsingborg.event;
 
 import junit.framework.TestCase;
 import org.apache.commons.io.FileUtils;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.NumericRangeQuery;
 import org.json.JSONObject;
 import se.helsingborg.event.domin.Event;
 import se.helsingborg.event.domin.EventJSONSerialization;
+import se.helsingborg.event.search.IndexManager;
 import se.helsingborg.event.search.SearchRequest;
 import se.helsingborg.event.search.SearchResults;
 import se.helsingborg.event.search.Service;
@@ -13,6 +17,8 @@ import se.helsingborg.event.sources.cbis.CBISExportReader;
 
 import java.io.File;
 import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * @author kalle
@@ -51,7 +57,18 @@ public class TestService extends TestCase {
 
       SearchResults searchResults = Service.getInstance().getIndexManager().search(searchRequest);
 
-      System.currentTimeMillis();
+      SearchRequest filteredSearchRequest = new SearchRequest();
+      BooleanQuery.Builder filteredQuery = new BooleanQuery.Builder();
+      filteredQuery.add(new MatchAllDocsQuery(), BooleanClause.Occur.MUST);
+      filteredQuery.add(NumericRangeQuery.newLongRange(IndexManager.FIELD_EVENT_SHOW_START_DATE_TIME, 0l, Long.MAX_VALUE, true, true), BooleanClause.Occur.FILTER);
+      filteredSearchRequest.setQuery(filteredQuery.build());
+      filteredSearchRequest.setLimit(100);
+
+      List<SearchResults> batchSearchResults = Service.getInstance().getIndexManager().search(Arrays.asList(searchRequest, filteredSearchRequest, filteredSearchRequest), Service.getInstance().getSearchExecutor());
+      assertEquals(3, batchSearchResults.size());
+      assertEquals(searchResults.getTotalNumberOfSearchResults(), batchSearchResults.get(0).getTotalNumberOfSearchResults());
+      assertEquals(batchSearchResults.get(1).getTotalNumberOfSearchResults(), batchSearchResults.get(2).getTotalNumberOfSearchResults());
+      assertTrue(batchSearchResults.get(1).getTotalNumberOfSearchResults() <= searchResults.getTotalNumberOfSearchResults());
 
     } finally {
       Service.getInstance().close();
@@ -0,0 +1,73 @@
+package se.helsingborg.event.benchmark;
+
+import org.apache.commons.io.FileUtils;
+import se.helsingborg.event.domin.Event;
+import se.helsingborg.event.search.IndexManager;
+import se.helsingborg.event.search.IndexUpdateManager;
+import se.helsingborg.event.sources.cbis.CBISExportReader;
+
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds indices of any size for benchmarking, see {@link CatalogueGenerator}.
+ *
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class BenchmarkIndex {
+
+  public static final String[] CBIS_EXPORTS = new String[]{
+      "/CBIS-export/evenemang.csv",
+      "/CBIS-export/gora.csv",
+      "/CBIS-export/mat_och_dryck.csv"
+  };
+
+  public static List<Event> readCBISExports() throws Exception {
+    List<Event> events = new ArrayList<>();
+    for (String export : CBIS_EXPORTS) {
+      CBISExportReader reader = new CBISExportReader(new InputStreamReader(BenchmarkIndex.class.getResourceAsStream(export), "UTF8"));
+      try {
+        Event event;
+        while ((event = reader.readEvent()) != null) {
+          events.add(event);
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    return events;
+  }
+
+  /**
+   * Indexes all events of the catalogue in to a new index in a temporary directory.
+   *
+   * @return Opened index manager, to be closed using {@link #close(IndexManager)}
+   */
+  public static IndexManager factory(CatalogueGenerator catalogue) throws Exception {
+
+    File dataPath = File.createTempFile("hbg.event.search.benchmark", "index");
+    FileUtils.deleteQuietly(dataPath);
+    if (!dataPath.mkdirs()) {
+      throw new RuntimeException("Could not mkdirs " + dataPath.getAbsolutePath());
+    }
+
+    IndexManager indexManager = new IndexManager();
+    indexManager.setDataPath(dataPath);
+    indexManager.open();
+
+    IndexUpdateManager indexUpdateManager = new IndexUpdateManager();
+    indexUpdateManager.setIndexManager(indexManager);
+    indexUpdateManager.update(new GeneratedPrimaryPersistence(catalogue).export());
+
+    return indexManager;
+  }
+
+  public static void close(IndexManager indexManager) throws Exception {
+    indexManager.close();
+    FileUtils.deleteDirectory(indexManager.getDataPath());
+  }
+
+}
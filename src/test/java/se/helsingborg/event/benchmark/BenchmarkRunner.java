@@ -0,0 +1,61 @@
+package se.helsingborg.event.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.io.File;
+
+/**
+ * Runs the JMH benchmarks once per thread count, reporting throughput, latency percentiles
+ * and allocation rate (GC profiler). Started by the Maven profile <code>benchmark</code>.
+ * <p/>
+ * System properties:
+ * <ul>
+ * <li>benchmark.include: regular expression of benchmarks to run, default all.</li>
+ * <li>benchmark.threads: comma separated thread counts, default 1,4.</li>
+ * <li>benchmark.events: comma separated index sizes, overriding the benchmark parameter <code>events</code>.</li>
+ * <li>benchmark.forks, benchmark.warmupIterations, benchmark.measurementIterations, benchmark.iterationSeconds</li>
+ * <li>benchmark.results: directory where JSON results are written, one file per thread count.</li>
+ * </ul>
+ *
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class BenchmarkRunner {
+
+  public static void main(String[] args) throws Exception {
+
+    File results = new File(System.getProperty("benchmark.results", "target/benchmark"));
+    if (!results.exists() && !results.mkdirs()) {
+      throw new RuntimeException("Could not mkdirs " + results.getAbsolutePath());
+    }
+
+    for (String threads : System.getProperty("benchmark.threads", "1,4").split(",")) {
+      threads = threads.trim();
+
+      ChainedOptionsBuilder options = new OptionsBuilder()
+          .include(System.getProperty("benchmark.include", ".*Benchmark"))
+          .threads(Integer.valueOf(threads))
+          .forks(Integer.valueOf(System.getProperty("benchmark.forks", "1")))
+          .warmupIterations(Integer.valueOf(System.getProperty("benchmark.warmupIterations", "3")))
+          .measurementIterations(Integer.valueOf(System.getProperty("benchmark.measurementIterations", "5")))
+          .warmupTime(TimeValue.seconds(Integer.valueOf(System.getProperty("benchmark.iterationSeconds", "5"))))
+          .measurementTime(TimeValue.seconds(Integer.valueOf(System.getProperty("benchmark.iterationSeconds", "5"))))
+          .addProfiler(GCProfiler.class)
+          .resultFormat(ResultFormatType.JSON)
+          .result(new File(results, "threads-" + threads + ".json").getAbsolutePath());
+
+      String events = System.getProperty("benchmark.events");
+      if (events != null && !events.trim().isEmpty()) {
+        options.param("events", events.trim().split("\\s*,\\s*"));
+      }
+
+      new Runner(options.build()).run();
+    }
+  }
+
+}
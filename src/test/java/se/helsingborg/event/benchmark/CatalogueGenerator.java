@@ -0,0 +1,443 @@
+package se.helsingborg.event.benchmark;
+
+import org.json.JSONObject;
+import se.helsingborg.event.domin.*;
+
+import java.io.*;
+import java.text.DateFormat;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * Deterministically generates a catalogue of any number of events, modelled on the events in the CBIS test exports.
+ * <p/>
+ * The same seed, number of events and reference time always produce the same events. Each event is generated
+ * independently of all other events from its identity and revision, i.e. a single event can be generated
+ * without generating the catalogue up to it, which allows for random access to catalogues of millions of events.
+ * <p/>
+ * Distributions:
+ * <ul>
+ * <li>Shows per event: half of the events have a single show, a long tail up to daily shows for half a year.</li>
+ * <li>Tags: one to four, weighted by frequency in the exports.</li>
+ * <li>Text: names and descriptions from the vocabulary of the exports, description lengths log-normal.</li>
+ * <li>Geo: clustered around the venues in the exports, the rest spread out around Helsingborg, a few without coordinates.</li>
+ * <li>Creation: over the two years up to the reference time, increasing with identity.</li>
+ * <li>Modification: see {@link #nextModifiedEventId(Random)}, recently created events are modified much more often.</li>
+ * </ul>
+ *
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class CatalogueGenerator {
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2) {
+      System.out.println("Usage: CatalogueGenerator <output directory> <number of events> [seed]");
+      System.out.println("Writes events.json, one primary persistence event JSON per line, and evenemang.csv in the CBIS export format.");
+      System.exit(1);
+    }
+
+    File path = new File(args[0]);
+    if (!path.exists() && !path.mkdirs()) {
+      throw new IOException("Could not mkdirs " + path.getAbsolutePath());
+    }
+
+    CatalogueGenerator generator = new CatalogueGenerator(
+        args.length > 2 ? Long.valueOf(args[2]) : 0L,
+        Long.valueOf(args[1]),
+        BenchmarkIndex.readCBISExports());
+
+    Writer json = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(new File(path, "events.json"))), "UTF8");
+    try {
+      generator.writeJSON(json, 0, generator.getNumberOfEvents());
+    } finally {
+      json.close();
+    }
+
+    Writer cbis = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(new File(path, "evenemang.csv"))), "UTF8");
+    try {
+      generator.writeCBIS(cbis, 0, generator.getNumberOfEvents());
+    } finally {
+      cbis.close();
+    }
+  }
+
+  private static final long HOUR_MILLISECONDS = 60L * 60 * 1000;
+  private static final long DAY_MILLISECONDS = 24 * HOUR_MILLISECONDS;
+
+  private static final double HELSINGBORG_LATITUDE = 56.0465;
+  private static final double HELSINGBORG_LONGITUDE = 12.6945;
+
+  /**
+   * Degrees latitude per kilometer. Longitude degrees are shorter at this latitude.
+   */
+  private static final double LATITUDE_KILOMETER = 1d / 111.2;
+  private static final double LONGITUDE_KILOMETER = LATITUDE_KILOMETER / Math.cos(Math.toRadians(HELSINGBORG_LATITUDE));
+
+  private static final String[] CBIS_COLUMNS = new String[]{
+      "Name", "Categories", "CityAddress", "Description", "EventUrl", "Id", "Image", "Introduction",
+      "Latitude", "Longitude", "Occasions", "PhoneNumber", "PostalCode", "Price", "StreetAddress1", "Website", "Version"
+  };
+
+  private final long seed;
+  private final long numberOfEvents;
+  private final long referenceEpochMilliseconds;
+
+  private final EventJSONSerialization serialization = new EventJSONSerialization();
+
+  /**
+   * Tags with duplicates, i.e. weighted by frequency when picked at random.
+   */
+  private final List<String> tags = new ArrayList<>();
+  private final List<String> nameWords = new ArrayList<>();
+  private final List<String> descriptionWords = new ArrayList<>();
+  private final List<JSONObject> venues = new ArrayList<>();
+
+  /**
+   * @param seed           Seed of all randomness
+   * @param numberOfEvents Size of the catalogue, event identities are 0 to numberOfEvents - 1
+   * @param samples        Events defining tags, vocabulary and venues
+   */
+  public CatalogueGenerator(long seed, long numberOfEvents, List<Event> samples) throws Exception {
+    this(seed, numberOfEvents, samples, System.currentTimeMillis() / DAY_MILLISECONDS * DAY_MILLISECONDS);
+  }
+
+  /**
+   * @param referenceEpochMilliseconds "Now" of the catalogue. Shows are spread out around it, creation and modification before it.
+   */
+  public CatalogueGenerator(long seed, long numberOfEvents, List<Event> samples, long referenceEpochMilliseconds) throws Exception {
+    this.seed = seed;
+    this.numberOfEvents = numberOfEvents;
+    this.referenceEpochMilliseconds = referenceEpochMilliseconds;
+
+    for (Event sample : samples) {
+      if (sample.getTags() != null) {
+        // sorted as set iteration order is not deterministic
+        tags.addAll(new TreeSet<>(sample.getTags()));
+      }
+      addWords(nameWords, sample.getName());
+      addWords(descriptionWords, sample.getDescription());
+      if (sample.getLocation() != null && sample.getLocation().getGeo() instanceof GeoCoordinates) {
+        venues.add(serialization.marshalLocation(sample.getLocation()));
+      }
+    }
+    if (tags.isEmpty() || nameWords.isEmpty() || descriptionWords.isEmpty()) {
+      throw new IllegalArgumentException("Samples must contain tags, names and descriptions");
+    }
+  }
+
+  private static void addWords(List<String> words, String text) {
+    if (text == null) {
+      return;
+    }
+    for (String word : text.split("[^\\p{L}\\p{N}]+")) {
+      if (word.length() > 1) {
+        words.add(word.toLowerCase());
+      }
+    }
+  }
+
+  private Random random(long eventId, int revision) {
+    return new Random(seed * 1000003L + eventId * 31L + revision);
+  }
+
+  /**
+   * @return Identity of an event to be modified, 80% of the modifications hit the 20% most recently created events.
+   */
+  public long nextModifiedEventId(Random random) {
+    double skewed = Math.pow(random.nextDouble(), 7.2);
+    return Math.min(numberOfEvents - 1, numberOfEvents - 1 - (long) (skewed * numberOfEvents));
+  }
+
+  public Event generateEvent(long eventId) throws Exception {
+    return generateEvent(eventId, 0);
+  }
+
+  /**
+   * @param revision 0 for the event as created, higher for later modifications of the same event.
+   */
+  public Event generateEvent(long eventId, int revision) throws Exception {
+
+    Random random = random(eventId, 0);
+
+    Event event = new Event();
+    event.setEventId(eventId);
+
+    long created = referenceEpochMilliseconds - 730 * DAY_MILLISECONDS
+        + (long) (730d * DAY_MILLISECONDS * eventId / numberOfEvents)
+        - (long) (random.nextDouble() * DAY_MILLISECONDS);
+    event.setCreatedEpochMilliseconds(created);
+    event.setModifiedEpochMilliseconds(created);
+
+    event.setName(name(random));
+    event.setDescription(description(random));
+    event.setUrl("http://example.helsingborg.se/event/" + eventId);
+    if (random.nextDouble() < 0.8) {
+      event.setImageURL("http://images.example.helsingborg.se/" + eventId + ".jpg");
+    }
+
+    int numberOfTags = 1 + Math.min(3, (int) Math.abs(random.nextGaussian() * 1.2));
+    Set<String> eventTags = new LinkedHashSet<>(numberOfTags);
+    for (int i = 0; i < numberOfTags; i++) {
+      eventTags.add(pick(random, tags));
+    }
+    event.setTags(eventTags);
+
+    event.setLocation(location(random));
+    event.setShows(shows(random));
+
+    if (random.nextDouble() < 0.5) {
+      SinglePrice price = new SinglePrice();
+      price.setCurrency("SEK");
+      price.setPrice(random.nextDouble() < 0.3 ? 0f : 50f * (1 + random.nextInt(10)));
+      Offer offer = new Offer();
+      offer.setPrice(price);
+      event.setOffers(new ArrayList<>(Collections.singletonList(offer)));
+    }
+
+    if (revision > 0) {
+      // mean time between modifications per event, from hours to months
+      double meanHoursBetweenModifications = Math.exp(4 + 2 * random.nextGaussian());
+      Random modification = random(eventId, revision);
+      long modified = created;
+      for (int i = 0; i < revision; i++) {
+        modified += (long) (-Math.log(1 - modification.nextDouble()) * meanHoursBetweenModifications * HOUR_MILLISECONDS);
+      }
+      event.setModifiedEpochMilliseconds(Math.min(referenceEpochMilliseconds, modified));
+
+      // typical modifications: a reworded description, a cancelled or rescheduled show
+      double kind = modification.nextDouble();
+      if (kind < 0.6) {
+        event.setDescription(description(modification));
+      } else if (event.getShows() != null && !event.getShows().isEmpty()) {
+        Show show = event.getShows().get(modification.nextInt(event.getShows().size()));
+        if (kind < 0.8) {
+          show.setStatus(ShowStatus.cancelled);
+        } else {
+          show.setStatus(ShowStatus.rescheduled);
+          show.setStartTimeEpochMilliseconds(show.getStartTimeEpochMilliseconds() + DAY_MILLISECONDS);
+          if (show.getEndTimeEpochMilliseconds() != null) {
+            show.setEndTimeEpochMilliseconds(show.getEndTimeEpochMilliseconds() + DAY_MILLISECONDS);
+          }
+        }
+      }
+    }
+
+    return event;
+  }
+
+  private static String pick(Random random, List<String> values) {
+    return values.get(random.nextInt(values.size()));
+  }
+
+  private String name(Random random) {
+    int numberOfWords = 2 + random.nextInt(5);
+    StringBuilder name = new StringBuilder(64);
+    for (int i = 0; i < numberOfWords; i++) {
+      if (i > 0) {
+        name.append(' ');
+      }
+      name.append(pick(random, nameWords));
+    }
+    name.setCharAt(0, Character.toUpperCase(name.charAt(0)));
+    return name.toString();
+  }
+
+  /**
+   * Log-normal number of words, median 80, a few of many hundreds.
+   */
+  private String description(Random random) {
+    int numberOfWords = (int) Math.min(1500, Math.max(5, Math.exp(Math.log(80) + 0.8 * random.nextGaussian())));
+    StringBuilder description = new StringBuilder(numberOfWords * 8);
+    boolean capitalize = true;
+    for (int i = 0; i < numberOfWords; i++) {
+      String word = pick(random, descriptionWords);
+      if (capitalize) {
+        word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+        capitalize = false;
+      }
+      description.append(word);
+      if (i == numberOfWords - 1 || random.nextInt(12) == 0) {
+        description.append('.');
+        capitalize = true;
+        if (i < numberOfWords - 1 && random.nextInt(4) == 0) {
+          description.append("\n\n");
+          continue;
+        }
+      }
+      if (i < numberOfWords - 1) {
+        description.append(' ');
+      }
+    }
+    return description.toString();
+  }
+
+  private Location location(Random random) throws Exception {
+    double kind = random.nextDouble();
+    if (kind < 0.05) {
+      return null;
+    }
+    if (kind < 0.85 && !venues.isEmpty()) {
+      // a copy that can be modified
+      Location location = serialization.unmarshalLocation(venues.get(random.nextInt(venues.size())));
+      GeoCoordinates geo = (GeoCoordinates) location.getGeo();
+      geo.setLatitude(geo.getLatitude() + random.nextGaussian() * 0.15 * LATITUDE_KILOMETER);
+      geo.setLongitude(geo.getLongitude() + random.nextGaussian() * 0.15 * LONGITUDE_KILOMETER);
+      return location;
+    }
+    Location location = new Location();
+    location.setGeo(new GeoCoordinates(
+        HELSINGBORG_LATITUDE + random.nextGaussian() * 8 * LATITUDE_KILOMETER,
+        HELSINGBORG_LONGITUDE + random.nextGaussian() * 8 * LONGITUDE_KILOMETER));
+    PostalAddress postalAddress = new PostalAddress();
+    postalAddress.setAddressLocality("Helsingborg");
+    location.setPostalAddress(postalAddress);
+    return location;
+  }
+
+  private List<Show> shows(Random random) {
+    double kind = random.nextDouble();
+    int numberOfShows;
+    long interval;
+    if (kind < 0.5) {
+      numberOfShows = 1;
+      interval = 0;
+    } else if (kind < 0.7) {
+      numberOfShows = 2 + random.nextInt(4);
+      interval = DAY_MILLISECONDS;
+    } else if (kind < 0.88) {
+      numberOfShows = 6 + random.nextInt(15);
+      interval = 7 * DAY_MILLISECONDS;
+    } else if (kind < 0.98) {
+      numberOfShows = 21 + random.nextInt(40);
+      interval = DAY_MILLISECONDS;
+    } else {
+      numberOfShows = 61 + random.nextInt(120);
+      interval = DAY_MILLISECONDS;
+    }
+
+    // mostly upcoming, some already passed
+    long firstDay = referenceEpochMilliseconds / DAY_MILLISECONDS * DAY_MILLISECONDS
+        + (random.nextInt(360) - 60) * DAY_MILLISECONDS;
+    long timeOfDay = 10 * HOUR_MILLISECONDS + random.nextInt(21) * HOUR_MILLISECONDS / 2;
+    Long duration = random.nextDouble() < 0.2 ? null : HOUR_MILLISECONDS * (1 + random.nextInt(3));
+
+    List<Show> shows = new ArrayList<>(numberOfShows);
+    for (int i = 0; i < numberOfShows; i++) {
+      Show show = new Show();
+      show.setStatus(ShowStatus.scheduled);
+      show.setStartTimeEpochMilliseconds(firstDay + i * interval + timeOfDay);
+      if (duration != null) {
+        show.setEndTimeEpochMilliseconds(show.getStartTimeEpochMilliseconds() + duration);
+      }
+      shows.add(show);
+    }
+    return shows;
+  }
+
+  /**
+   * Writes events as primary persistence JSON, one event per line.
+   */
+  public void writeJSON(Writer out, long fromEventId, long toEventId) throws Exception {
+    for (long eventId = fromEventId; eventId < toEventId; eventId++) {
+      out.write(serialization.marshalEvent(generateEvent(eventId)).toString());
+      out.write('\n');
+    }
+  }
+
+  /**
+   * Writes events in the tab separated CBIS export format read by
+   * {@link se.helsingborg.event.sources.cbis.CBISExportReader}, header included.
+   * Only columns that are read are populated. Line breaks in descriptions are replaced by spaces.
+   */
+  public void writeCBIS(Writer out, long fromEventId, long toEventId) throws Exception {
+    DateFormat date = new SimpleDateFormat("yyyy-MM-dd");
+    DateFormat time = new SimpleDateFormat("HH:mm");
+    DecimalFormat coordinate = new DecimalFormat("0.0#######", new DecimalFormatSymbols(new Locale("sv", "SE")));
+
+    writeCBISColumns(out, Arrays.asList(CBIS_COLUMNS));
+
+    for (long eventId = fromEventId; eventId < toEventId; eventId++) {
+      Event event = generateEvent(eventId);
+
+      Map<String, String> values = new HashMap<>();
+      values.put("Name", event.getName());
+      StringBuilder categories = new StringBuilder();
+      for (String tag : event.getTags()) {
+        if (categories.length() > 0) {
+          categories.append(", ");
+        }
+        categories.append(tag);
+      }
+      values.put("Categories", categories.toString());
+      values.put("Description", event.getDescription().replaceAll("\\s+", " "));
+      values.put("EventUrl", event.getUrl());
+      values.put("Id", String.valueOf(eventId));
+      if (event.getImageURL() != null) {
+        values.put("Image", "Url: " + event.getImageURL() + " ProducedBy: Helsingborgs stad CopyrightBy: ");
+      }
+
+      Location location = event.getLocation();
+      if (location != null) {
+        if (location.getGeo() instanceof GeoCoordinates) {
+          GeoCoordinates geo = (GeoCoordinates) location.getGeo();
+          values.put("Latitude", coordinate.format(geo.getLatitude()));
+          values.put("Longitude", coordinate.format(geo.getLongitude()));
+        }
+        values.put("PhoneNumber", location.getTelephone());
+        values.put("Website", location.getUrl());
+        if (location.getPostalAddress() != null) {
+          values.put("PostalCode", location.getPostalAddress().getPostalCode());
+          values.put("StreetAddress1", location.getPostalAddress().getStreetAddress());
+          values.put("CityAddress", location.getPostalAddress().getAddressLocality());
+        }
+      }
+
+      StringBuilder occasions = new StringBuilder();
+      for (Show show : event.getShows()) {
+        if (occasions.length() > 0) {
+          occasions.append("| ");
+        }
+        Date start = new Date(show.getStartTimeEpochMilliseconds());
+        occasions.append("Date: ").append(date.format(start)).append(" StartTime ").append(time.format(start));
+        if (show.getEndTimeEpochMilliseconds() != null) {
+          occasions.append(" EndTime ").append(time.format(new Date(show.getEndTimeEpochMilliseconds())));
+        }
+      }
+      values.put("Occasions", occasions.toString());
+      values.put("Version", "1");
+
+      List<String> columns = new ArrayList<>(CBIS_COLUMNS.length);
+      for (String column : CBIS_COLUMNS) {
+        columns.add(values.get(column));
+      }
+      writeCBISColumns(out, columns);
+    }
+  }
+
+  private static void writeCBISColumns(Writer out, List<String> columns) throws IOException {
+    for (int i = 0; i < columns.size(); i++) {
+      if (i > 0) {
+        out.write('\t');
+      }
+      // empty values are not quoted in the exports
+      if (columns.get(i) != null && !columns.get(i).isEmpty()) {
+        out.write('"');
+        out.write(columns.get(i).replaceAll("[\\t\\r\\n\"]", " "));
+        out.write('"');
+      }
+    }
+    out.write('\n');
+  }
+
+  public long getNumberOfEvents() {
+    return numberOfEvents;
+  }
+
+  public long getReferenceEpochMilliseconds() {
+    return referenceEpochMilliseconds;
+  }
+
+}
@@ -0,0 +1,91 @@
+package se.helsingborg.event.benchmark;
+
+import org.json.JSONObject;
+import se.helsingborg.event.PrimaryPersistence;
+import se.helsingborg.event.domin.Event;
+import se.helsingborg.event.domin.EventJSONSerialization;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Primary persistence serving the events of a {@link CatalogueGenerator}.
+ * Events are modified by {@link #modify(long)}, which bumps the revision the event is generated with.
+ *
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class GeneratedPrimaryPersistence extends PrimaryPersistence {
+
+  private final CatalogueGenerator catalogue;
+
+  private final ConcurrentMap<Long, AtomicInteger> revisions = new ConcurrentHashMap<>();
+
+  public GeneratedPrimaryPersistence(CatalogueGenerator catalogue) {
+    this.catalogue = catalogue;
+  }
+
+  public void modify(long eventId) {
+    AtomicInteger revision = revisions.get(eventId);
+    if (revision == null) {
+      AtomicInteger created = new AtomicInteger();
+      revision = revisions.putIfAbsent(eventId, created);
+      if (revision == null) {
+        revision = created;
+      }
+    }
+    revision.incrementAndGet();
+  }
+
+  private JSONObject marshalEvent(long eventId) throws Exception {
+    AtomicInteger revision = revisions.get(eventId);
+    Event event = catalogue.generateEvent(eventId, revision == null ? 0 : revision.get());
+    // not thread safe, thus one per call
+    return new EventJSONSerialization().marshalEvent(event);
+  }
+
+  @Override
+  public JSONObject getEvent(long eventId) throws Exception {
+    if (eventId < 0 || eventId >= catalogue.getNumberOfEvents()) {
+      return null;
+    }
+    return marshalEvent(eventId);
+  }
+
+  @Override
+  public Iterator<JSONObject> export() throws Exception {
+    return new Iterator<JSONObject>() {
+      private long eventId = 0;
+
+      @Override
+      public boolean hasNext() {
+        return eventId < catalogue.getNumberOfEvents();
+      }
+
+      @Override
+      public JSONObject next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        try {
+          return marshalEvent(eventId++);
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  public CatalogueGenerator getCatalogue() {
+    return catalogue;
+  }
+
+}
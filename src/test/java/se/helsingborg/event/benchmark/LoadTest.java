@@ -0,0 +1,431 @@
+package se.helsingborg.event.benchmark;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.webapp.WebAppContext;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import se.helsingborg.event.domin.Event;
+import se.helsingborg.event.search.IndexUpdateManager;
+import se.helsingborg.event.search.Service;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load test of the whole stack: starts the webapp in an embedded Jetty against an index of a generated catalogue,
+ * replays search requests at fixed open loop rates while events are modified through the event modified servlet,
+ * and reports latency percentiles and throughput per rate.
+ * <p/>
+ * Requests are sent at their scheduled time no matter how many are still waiting for a response, and latency is
+ * measured from the scheduled time. A server that can not keep up thus shows growing latencies rather than a
+ * lower request rate.
+ * <p/>
+ * System properties:
+ * <ul>
+ * <li>loadtest.events: size of the generated catalogue, default 100000.</li>
+ * <li>loadtest.seed: seed of the generated catalogue and synthetic queries, default 0.</li>
+ * <li>loadtest.queryLog: file with one search request JSON per line to replay, default synthetic requests.</li>
+ * <li>loadtest.rates: comma separated search requests per second, one step each, default 50,100,200,400,800.</li>
+ * <li>loadtest.stepSeconds: duration of each step, default 30.</li>
+ * <li>loadtest.warmupSeconds: duration of an unreported warmup at the first rate, default 10.</li>
+ * <li>loadtest.updateRate: event modifications per second during all steps, default 10.</li>
+ * <li>loadtest.port: HTTP port, default any free port.</li>
+ * <li>loadtest.webapp: path to the webapp, default src/main/webapp.</li>
+ * </ul>
+ *
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class LoadTest {
+
+  public static void main(String[] args) throws Exception {
+    new LoadTest().run();
+  }
+
+  private final int timeoutMilliseconds = 30000;
+
+  private String baseURL;
+
+  private final ExecutorService clients = Executors.newCachedThreadPool(new ThreadFactory() {
+    private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "loadtest-client-" + threadNumber.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  public void run() throws Exception {
+
+    long numberOfEvents = Long.valueOf(System.getProperty("loadtest.events", "100000"));
+    long seed = Long.valueOf(System.getProperty("loadtest.seed", "0"));
+    String queryLog = System.getProperty("loadtest.queryLog");
+    if (queryLog != null && queryLog.trim().isEmpty()) {
+      queryLog = null;
+    }
+    String[] rates = System.getProperty("loadtest.rates", "50,100,200,400,800").split(",");
+    int stepSeconds = Integer.valueOf(System.getProperty("loadtest.stepSeconds", "30"));
+    int warmupSeconds = Integer.valueOf(System.getProperty("loadtest.warmupSeconds", "10"));
+    double updateRate = Double.valueOf(System.getProperty("loadtest.updateRate", "10"));
+    int port = Integer.valueOf(System.getProperty("loadtest.port", "0"));
+    String webapp = System.getProperty("loadtest.webapp", "src/main/webapp");
+
+    CatalogueGenerator catalogue = new CatalogueGenerator(seed, numberOfEvents, BenchmarkIndex.readCBISExports());
+    final GeneratedPrimaryPersistence primaryPersistence = new GeneratedPrimaryPersistence(catalogue);
+
+    File dataPath = File.createTempFile("hbg.event.search.loadtest", "data");
+    FileUtils.deleteQuietly(dataPath);
+    if (!dataPath.mkdirs()) {
+      throw new IOException("Could not mkdirs " + dataPath.getAbsolutePath());
+    }
+
+    Service.getInstance().setDataPath(dataPath);
+    Service.getInstance().setPrimaryPersistence(primaryPersistence);
+
+    Server server = new Server(port);
+    WebAppContext context = new WebAppContext();
+    context.setContextPath("/");
+    context.setResourceBase(webapp);
+    context.setDescriptor(new File(webapp, "WEB-INF/web.xml").getAbsolutePath());
+    // share the Service singleton with this class loader
+    context.setParentLoaderPriority(true);
+    server.setHandler(context);
+    server.start();
+    try {
+
+      baseURL = "http://localhost:" + server.getConnectors()[0].getLocalPort() + "/v_0_0_1/";
+
+      System.out.println("Indexing " + numberOfEvents + " events...");
+      long started = System.currentTimeMillis();
+      new IndexUpdateManager().update(primaryPersistence.export());
+      System.out.println("Indexed in " + (System.currentTimeMillis() - started) + " ms.");
+
+      final List<String> searchRequests = queryLog != null
+          ? readQueryLog(new File(queryLog))
+          : syntheticSearchRequests(catalogue, new Random(seed), 10000);
+      System.out.println("Replaying " + searchRequests.size() + " search requests from " + (queryLog != null ? queryLog : "synthetic query log") + ".");
+
+      final Random updateRandom = new Random(seed);
+      final Random searchRandom = new Random(seed);
+
+      Request search = new Request() {
+        @Override
+        public int execute() throws Exception {
+          String searchRequest;
+          synchronized (searchRandom) {
+            searchRequest = searchRequests.get(searchRandom.nextInt(searchRequests.size()));
+          }
+          return post("event/search", searchRequest);
+        }
+      };
+
+      Request update = new Request() {
+        @Override
+        public int execute() throws Exception {
+          long eventId;
+          synchronized (updateRandom) {
+            eventId = primaryPersistence.getCatalogue().nextModifiedEventId(updateRandom);
+          }
+          primaryPersistence.modify(eventId);
+          return get("event/reconstruct/" + eventId);
+        }
+      };
+
+      if (warmupSeconds > 0) {
+        System.out.println("Warming up for " + warmupSeconds + " seconds...");
+        runStep(Double.valueOf(rates[0].trim()), search, updateRate, update, warmupSeconds);
+      }
+
+      System.out.println();
+      System.out.println(Statistics.HEADER);
+
+      Statistics ceiling = null;
+      for (String rate : rates) {
+        Statistics[] statistics = runStep(Double.valueOf(rate.trim()), search, updateRate, update, stepSeconds);
+        System.out.println(statistics[0].toString("search"));
+        System.out.println(statistics[1].toString("update"));
+        if (ceiling == null || statistics[0].getThroughput() > ceiling.getThroughput()) {
+          ceiling = statistics[0];
+        }
+      }
+
+      System.out.println();
+      if (ceiling != null) {
+        System.out.println(String.format(Locale.ENGLISH, "Throughput ceiling: %.1f searches per second, reached at %.1f offered.",
+            ceiling.getThroughput(), ceiling.getOfferedRate()));
+      }
+
+    } finally {
+      clients.shutdownNow();
+      server.stop();
+      FileUtils.deleteDirectory(dataPath);
+    }
+  }
+
+  /**
+   * @return Statistics of searches and updates
+   */
+  private Statistics[] runStep(double searchRate, Request search, double updateRate, Request update, int seconds) throws Exception {
+    Statistics searches = new Statistics(searchRate);
+    Statistics updates = new Statistics(updateRate);
+    long durationNanos = TimeUnit.SECONDS.toNanos(seconds);
+    long startNanos = System.nanoTime();
+
+    Thread updateScheduler = null;
+    if (updateRate > 0) {
+      updateScheduler = schedule("loadtest-update-scheduler", update, updateRate, startNanos, durationNanos, updates);
+    }
+    Thread searchScheduler = schedule("loadtest-search-scheduler", search, searchRate, startNanos, durationNanos, searches);
+
+    searchScheduler.join();
+    if (updateScheduler != null) {
+      updateScheduler.join();
+    }
+    searches.awaitCompletion(timeoutMilliseconds);
+    updates.awaitCompletion(timeoutMilliseconds);
+
+    long elapsedNanos = System.nanoTime() - startNanos;
+    searches.setElapsedNanos(elapsedNanos);
+    updates.setElapsedNanos(elapsedNanos);
+    return new Statistics[]{searches, updates};
+  }
+
+  /**
+   * Starts a thread sending requests at a fixed rate, regardless of how many requests are still in flight.
+   */
+  private Thread schedule(String name, final Request request, final double rate, final long startNanos, final long durationNanos, final Statistics statistics) {
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        for (long i = 0; ; i++) {
+          final long scheduledNanos = startNanos + i * intervalNanos;
+          if (scheduledNanos - startNanos >= durationNanos) {
+            break;
+          }
+          long waitNanos = scheduledNanos - System.nanoTime();
+          if (waitNanos > 0) {
+            LockSupport.parkNanos(waitNanos);
+          }
+          statistics.started();
+          clients.execute(new Runnable() {
+            @Override
+            public void run() {
+              int status;
+              try {
+                status = request.execute();
+              } catch (Exception e) {
+                status = -1;
+              }
+              statistics.completed(status, System.nanoTime() - scheduledNanos);
+            }
+          });
+        }
+      }
+    }, name);
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
+
+  private int post(String path, String body) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(baseURL + path).openConnection();
+    connection.setConnectTimeout(timeoutMilliseconds);
+    connection.setReadTimeout(timeoutMilliseconds);
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    connection.setRequestProperty("Content-Type", "application/json");
+    OutputStream out = connection.getOutputStream();
+    try {
+      out.write(body.getBytes("UTF8"));
+    } finally {
+      out.close();
+    }
+    return consume(connection);
+  }
+
+  private int get(String path) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(baseURL + path).openConnection();
+    connection.setConnectTimeout(timeoutMilliseconds);
+    connection.setReadTimeout(timeoutMilliseconds);
+    return consume(connection);
+  }
+
+  /**
+   * Reads the whole response, allowing the connection to be kept alive and reused.
+   */
+  private int consume(HttpURLConnection connection) throws IOException {
+    int status = connection.getResponseCode();
+    InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+    if (in != null) {
+      try {
+        IOUtils.copy(in, new NullOutputStream());
+      } finally {
+        in.close();
+      }
+    }
+    return status;
+  }
+
+  private static class NullOutputStream extends OutputStream {
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+    }
+  }
+
+  private static List<String> readQueryLog(File file) throws IOException {
+    List<String> searchRequests = new ArrayList<>();
+    for (String line : FileUtils.readLines(file, "UTF8")) {
+      line = line.trim();
+      if (!line.isEmpty() && !line.startsWith("#")) {
+        searchRequests.add(line);
+      }
+    }
+    if (searchRequests.isEmpty()) {
+      throw new IllegalArgumentException("No search requests in " + file.getAbsolutePath());
+    }
+    return searchRequests;
+  }
+
+  /**
+   * Mix of event text, tags, future events and circle envelope searches, based on the events of the catalogue.
+   */
+  public static List<String> syntheticSearchRequests(CatalogueGenerator catalogue, Random random, int count) throws Exception {
+    List<String> searchRequests = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      Event event = catalogue.generateEvent((long) (random.nextDouble() * catalogue.getNumberOfEvents()));
+
+      JSONObject query = new JSONObject(new LinkedHashMap<String, Object>());
+      double kind = random.nextDouble();
+      if (kind < 0.4) {
+        String[] words = event.getName().split(" ");
+        int numberOfWords = Math.min(words.length, 1 + random.nextInt(3));
+        StringBuilder text = new StringBuilder();
+        for (int j = 0; j < numberOfWords; j++) {
+          if (j > 0) {
+            text.append(' ');
+          }
+          text.append(words[random.nextInt(words.length)]);
+        }
+        query.put("type", "event text");
+        query.put("text", text.toString());
+      } else if (kind < 0.65) {
+        List<String> tags = new ArrayList<>(event.getTags());
+        query.put("type", "event tags");
+        query.put("values", new JSONArray(Collections.singletonList(tags.get(random.nextInt(tags.size())))));
+      } else if (kind < 0.85) {
+        query.put("type", "future events");
+      } else {
+        query.put("type", "event location coordinate circle envelope");
+        query.put("centroidLatitude", 56.0465 + random.nextGaussian() * 0.02);
+        query.put("centroidLongitude", 12.6945 + random.nextGaussian() * 0.04);
+        query.put("radiusKilometers", 1 + random.nextInt(10));
+      }
+
+      JSONObject searchRequest = new JSONObject(new LinkedHashMap<String, Object>());
+      searchRequest.put("reference", "loadtest-" + i);
+      searchRequest.put("startIndex", random.nextDouble() < 0.8 ? 0 : 20 * (1 + random.nextInt(3)));
+      searchRequest.put("limit", 20);
+      searchRequest.put("eventJsonOutput", random.nextDouble() < 0.3);
+      searchRequest.put("query", query);
+      searchRequests.add(searchRequest.toString());
+    }
+    return searchRequests;
+  }
+
+  private interface Request {
+    /**
+     * @return HTTP status
+     */
+    int execute() throws Exception;
+  }
+
+  private static class Statistics {
+
+    static final String HEADER = String.format(Locale.ENGLISH, "%-8s %9s %9s %8s %8s %8s %9s %9s %9s %9s %9s",
+        "", "offered/s", "actual/s", "ok", "503", "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+
+    private final double offeredRate;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final List<Long> latencyNanos = new ArrayList<>();
+    private int ok;
+    private int rejected;
+    private int errors;
+    private long elapsedNanos;
+
+    Statistics(double offeredRate) {
+      this.offeredRate = offeredRate;
+    }
+
+    void started() {
+      inFlight.incrementAndGet();
+    }
+
+    synchronized void completed(int status, long nanos) {
+      if (status >= 200 && status < 400) {
+        ok++;
+        latencyNanos.add(nanos);
+      } else if (status == 503) {
+        rejected++;
+      } else {
+        errors++;
+      }
+      inFlight.decrementAndGet();
+    }
+
+    void awaitCompletion(long timeoutMilliseconds) throws InterruptedException {
+      long until = System.currentTimeMillis() + timeoutMilliseconds;
+      while (inFlight.get() > 0 && System.currentTimeMillis() < until) {
+        Thread.sleep(10);
+      }
+    }
+
+    void setElapsedNanos(long elapsedNanos) {
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    double getOfferedRate() {
+      return offeredRate;
+    }
+
+    synchronized double getThroughput() {
+      return ok / (elapsedNanos / 1e9d);
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+      if (sorted.length == 0) {
+        return Double.NaN;
+      }
+      int index = (int) Math.ceil(percentile * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6d;
+    }
+
+    synchronized String toString(String name) {
+      long[] sorted = new long[latencyNanos.size()];
+      for (int i = 0; i < sorted.length; i++) {
+        sorted[i] = latencyNanos.get(i);
+      }
+      Arrays.sort(sorted);
+      return String.format(Locale.ENGLISH, "%-8s %9.1f %9.1f %8d %8d %8d %9.1f %9.1f %9.1f %9.1f %9.1f",
+          name, offeredRate, getThroughput(), ok, rejected, errors + inFlight.get(),
+          percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99), percentile(sorted, 0.999), percentile(sorted, 1));
+    }
+  }
+
+}
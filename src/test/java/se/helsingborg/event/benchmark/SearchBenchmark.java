@@ -0,0 +1,74 @@
+package se.helsingborg.event.benchmark;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+import se.helsingborg.event.search.IndexManager;
+import se.helsingborg.event.search.SearchRequest;
+import se.helsingborg.event.search.SearchResults;
+import se.helsingborg.event.search.query.JSONQuerySerialization;
+import se.helsingborg.event.search.query.QueryOptimizer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link IndexManager#search(SearchRequest)} for representative query types,
+ * from parsing the query JSON to loaded search results.
+ * <p/>
+ * Coalescing of identical concurrent searches is disabled, i.e. every invocation is executed against the index.
+ *
+ * @author kalle
+ * @since 2026-10-19
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SearchBenchmark {
+
+  private static final Map<String, String> queries = new HashMap<>();
+
+  static {
+    queries.put("event text", "{\"type\": \"event text\", \"text\": \"sagoshow dunkers kulturhus\"}");
+    queries.put("event tags", "{\"type\": \"event tags\", \"values\": [\"Musik\"]}");
+    queries.put("future events", "{\"type\": \"future events\"}");
+    queries.put("circle envelope", "{\"type\": \"event location coordinate circle envelope\", \"centroidLatitude\": 56.0465, \"centroidLongitude\": 12.6945, \"radiusKilometers\": 5}");
+  }
+
+  @Param({"10000", "100000"})
+  public int events;
+
+  @Param({"event text", "event tags", "future events", "circle envelope"})
+  public String queryType;
+
+  @Param({"false", "true"})
+  public boolean eventJsonOutput;
+
+  private IndexManager indexManager;
+  private JSONObject jsonQuery;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    indexManager = BenchmarkIndex.factory(new CatalogueGenerator(0, events, BenchmarkIndex.readCBISExports()));
+    indexManager.setSearchCoalescing(false);
+    jsonQuery = new JSONObject(queries.get(queryType));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    BenchmarkIndex.close(indexManager);
+  }
+
+  @Benchmark
+  public SearchResults search() throws Exception {
+    SearchRequest searchRequest = new SearchRequest();
+    searchRequest.setScoring(true);
+    searchRequest.setStartIndex(0);
+    searchRequest.setLimit(20);
+    searchRequest.setEventJsonOutput(eventJsonOutput);
+    searchRequest.setParsedQuery(new JSONQuerySerialization().parse(jsonQuery));
+    searchRequest.setQuery(new QueryOptimizer().setScoring(true).optimize(searchRequest.getParsedQuery()));
+    return indexManager.search(searchRequest);
+  }
+
+}
@@ -0,0 +1,119 @@
+package se.helsingborg.event.benchmark;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+import se.helsingborg.event.domin.Event;
+import se.helsingborg.event.domin.EventJSONSerialization;
+import se.helsingborg.event.domin.Show;
+import se.helsingborg.event.util.JSONUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link EventJSONSerialization} round trips of the events in the CBIS test exports,
+ * and the date handling in {@link JSONUtil} and {@link EventJSONSerialization#marshalDateTime(Long)}.
+ * <p/>
+ * {@link EventJSONSerialization} is not thread safe, thus all state is per thread.
+ *
+ * @author kalle
+ * @since 2026-10-19
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SerializationBenchmark {
+
+  private static final long HOUR_MILLISECONDS = 60L * 60 * 1000;
+
+  /**
+   * Number of shows per event, or 0 to use the shows as exported.
+   * Events in the primary persistence sometimes have hundreds of shows, e.g. daily guided tours.
+   */
+  @Param({"0", "100"})
+  public int showsPerEvent;
+
+  private EventJSONSerialization serialization;
+
+  private List<Event> events;
+  private List<String> eventJsonStrings;
+  private List<JSONObject> showJsons;
+
+  private int index;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    serialization = new EventJSONSerialization();
+
+    events = BenchmarkIndex.readCBISExports();
+    if (showsPerEvent > 0) {
+      for (Event event : events) {
+        long startTime = event.getShows() == null || event.getShows().isEmpty()
+            ? System.currentTimeMillis()
+            : event.getShows().get(0).getStartTimeEpochMilliseconds();
+        List<Show> shows = new ArrayList<>(showsPerEvent);
+        for (int i = 0; i < showsPerEvent; i++) {
+          Show show = new Show();
+          show.setStartTimeEpochMilliseconds(startTime + i * 24 * HOUR_MILLISECONDS);
+          show.setEndTimeEpochMilliseconds(show.getStartTimeEpochMilliseconds() + 2 * HOUR_MILLISECONDS);
+          shows.add(show);
+        }
+        event.setShows(shows);
+      }
+    }
+
+    eventJsonStrings = new ArrayList<>(events.size());
+    showJsons = new ArrayList<>();
+    for (Event event : events) {
+      JSONObject eventJson = serialization.marshalEvent(event);
+      eventJsonStrings.add(eventJson.toString());
+      if (event.getShows() != null) {
+        for (Show show : event.getShows()) {
+          showJsons.add(serialization.marshalShow(show));
+        }
+      }
+    }
+  }
+
+  private int next(int size) {
+    if (++index >= size) {
+      index = 0;
+    }
+    return index;
+  }
+
+  @Benchmark
+  public String marshalEvent() throws Exception {
+    return serialization.marshalEvent(events.get(next(events.size()))).toString();
+  }
+
+  @Benchmark
+  public Event unmarshalEvent() throws Exception {
+    return serialization.unmarshalEvent(new JSONObject(eventJsonStrings.get(next(eventJsonStrings.size()))));
+  }
+
+  @Benchmark
+  public String roundTripEvent() throws Exception {
+    Event event = serialization.unmarshalEvent(new JSONObject(eventJsonStrings.get(next(eventJsonStrings.size()))));
+    return serialization.marshalEvent(event).toString();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(2)
+  public long parseDateTime() throws Exception {
+    JSONObject show = showJsons.get(next(showJsons.size()));
+    Long startDate = JSONUtil.optDateTime(show, "startDate");
+    Long endDate = JSONUtil.optDateTime(show, "endDate");
+    return startDate + (endDate == null ? 0 : endDate);
+  }
+
+  @Benchmark
+  public String marshalDateTime() throws Exception {
+    Event event = events.get(next(events.size()));
+    return serialization.marshalDateTime(event.getShows() == null || event.getShows().isEmpty()
+        ? event.getCreatedEpochMilliseconds()
+        : event.getShows().get(0).getStartTimeEpochMilliseconds());
+  }
+
+}
@@ -0,0 +1,55 @@
+package se.helsingborg.event.benchmark;
+
+import junit.framework.TestCase;
+import se.helsingborg.event.domin.Event;
+import se.helsingborg.event.domin.EventJSONSerialization;
+import se.helsingborg.event.sources.cbis.CBISExportReader;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+
+/**
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class TestCatalogueGenerator extends TestCase {
+
+  public void test() throws Exception {
+
+    List<Event> samples = BenchmarkIndex.readCBISExports();
+    long reference = 1760000000000L;
+
+    CatalogueGenerator generator = new CatalogueGenerator(1, 1000, samples, reference);
+    CatalogueGenerator generator2 = new CatalogueGenerator(1, 1000, samples, reference);
+    EventJSONSerialization serialization = new EventJSONSerialization();
+
+    // deterministic and independent of order
+    assertEquals(serialization.marshalEvent(generator.generateEvent(500)).toString(), serialization.marshalEvent(generator2.generateEvent(500)).toString());
+    assertEquals(serialization.marshalEvent(generator.generateEvent(500, 2)).toString(), serialization.marshalEvent(generator2.generateEvent(500, 2)).toString());
+    assertFalse(serialization.marshalEvent(generator.generateEvent(500)).toString().equals(serialization.marshalEvent(generator.generateEvent(501)).toString()));
+    assertTrue(generator.generateEvent(500, 2).getModifiedEpochMilliseconds() >= generator.generateEvent(500).getModifiedEpochMilliseconds());
+    assertTrue(generator.generateEvent(500, 2).getModifiedEpochMilliseconds() <= reference);
+
+    // CBIS export can be read back
+    StringWriter cbis = new StringWriter();
+    generator.writeCBIS(cbis, 0, 100);
+    CBISExportReader reader = new CBISExportReader(new StringReader(cbis.toString()));
+    try {
+      for (int eventId = 0; eventId < 100; eventId++) {
+        Event expected = generator.generateEvent(eventId);
+        Event event = reader.readEvent();
+        assertNotNull(event);
+        assertEquals(expected.getName(), event.getName());
+        assertEquals(expected.getTags(), event.getTags());
+        assertEquals(expected.getShows().size(), event.getShows().size());
+        assertEquals(expected.getShows().get(0).getStartTimeEpochMilliseconds(), event.getShows().get(0).getStartTimeEpochMilliseconds());
+      }
+      assertNull(reader.readEvent());
+    } finally {
+      reader.close();
+    }
+
+  }
+
+}
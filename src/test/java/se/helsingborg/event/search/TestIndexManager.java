@@ -0,0 +1,328 @@
+package se.helsingborg.event.search;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.json.JSONObject;
+import se.helsingborg.event.benchmark.BenchmarkIndex;
+import se.helsingborg.event.benchmark.CatalogueGenerator;
+import se.helsingborg.event.domin.Event;
+import se.helsingborg.event.domin.EventJSONSerialization;
+import se.helsingborg.event.domin.Show;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class TestIndexManager extends TestCase {
+
+  public void testWaitForGeneration() throws Exception {
+
+    File dataPath = File.createTempFile("hgb.event.search", "index");
+    FileUtils.deleteQuietly(dataPath);
+    dataPath.mkdirs();
+
+    IndexManager indexManager = new IndexManager();
+    indexManager.setDataPath(dataPath);
+    // never refreshed unless someone waits, never committed unless asked to
+    indexManager.setMaximumStaleMilliseconds(60000);
+    indexManager.setCommitIntervalMilliseconds(0);
+    indexManager.open();
+    try {
+
+      CatalogueGenerator catalogue = new CatalogueGenerator(0, 10, BenchmarkIndex.readCBISExports());
+      EventJSONSerialization serialization = new EventJSONSerialization();
+
+      for (long eventId = 0; eventId < 10; eventId++) {
+        Event event = catalogue.generateEvent(eventId);
+        long generation = indexManager.updateIndex(event, serialization.marshalEvent(event));
+        indexManager.waitForGeneration(generation);
+        assertEquals(eventId + 1, countEvents(indexManager));
+      }
+
+    } finally {
+      indexManager.close();
+      FileUtils.deleteDirectory(dataPath);
+    }
+
+  }
+
+  public void testConsistencyToken() throws Exception {
+
+    File dataPath = File.createTempFile("hgb.event.search", "index");
+    FileUtils.deleteQuietly(dataPath);
+    dataPath.mkdirs();
+
+    IndexManager indexManager = new IndexManager();
+    indexManager.setDataPath(dataPath);
+    indexManager.setMaximumStaleMilliseconds(60000);
+    indexManager.setCommitIntervalMilliseconds(0);
+    indexManager.open();
+    try {
+
+      CatalogueGenerator catalogue = new CatalogueGenerator(0, 10, BenchmarkIndex.readCBISExports());
+      EventJSONSerialization serialization = new EventJSONSerialization();
+
+      for (long eventId = 0; eventId < 10; eventId++) {
+        Event event = catalogue.generateEvent(eventId);
+        String consistencyToken = indexManager.getConsistencyToken(indexManager.updateIndex(event, serialization.marshalEvent(event)));
+
+        SearchRequest searchRequest = new SearchRequest();
+        searchRequest.setQuery(new MatchAllDocsQuery());
+        searchRequest.setLimit(1);
+        searchRequest.setConsistencyToken(consistencyToken);
+        SearchResults searchResults = indexManager.search(searchRequest);
+        assertFalse(searchResults.isStale());
+        assertEquals(eventId + 1, searchResults.getTotalNumberOfSearchResults());
+      }
+
+      // a batch waits once for the latest update of its tokens
+      List<SearchRequest> searchRequests = new ArrayList<>();
+      for (long eventId = 10; eventId < 12; eventId++) {
+        Event event = catalogue.generateEvent(eventId);
+        SearchRequest searchRequest = new SearchRequest();
+        searchRequest.setQuery(new MatchAllDocsQuery());
+        searchRequest.setLimit(1);
+        searchRequest.setConsistencyToken(indexManager.getConsistencyToken(indexManager.updateIndex(event, serialization.marshalEvent(event))));
+        searchRequests.add(searchRequest);
+      }
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      try {
+        for (SearchResults searchResults : indexManager.search(searchRequests, executor)) {
+          assertFalse(searchResults.isStale());
+          assertEquals(12, searchResults.getTotalNumberOfSearchResults());
+        }
+      } finally {
+        executor.shutdown();
+      }
+
+      // tokens from a previous opening of the index are already visible
+      assertTrue(indexManager.awaitConsistencyToken("1.1", 0));
+
+      try {
+        indexManager.awaitConsistencyToken("not a token", 0);
+        fail("Expected malformed token to be rejected");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+
+    } finally {
+      indexManager.close();
+      FileUtils.deleteDirectory(dataPath);
+    }
+
+  }
+
+  public void testContentHash() throws Exception {
+
+    File dataPath = File.createTempFile("hgb.event.search", "index");
+    FileUtils.deleteQuietly(dataPath);
+    dataPath.mkdirs();
+
+    IndexManager indexManager = new IndexManager();
+    indexManager.setDataPath(dataPath);
+    indexManager.setMaximumStaleMilliseconds(60000);
+    indexManager.setCommitIntervalMilliseconds(0);
+    indexManager.open();
+    try {
+
+      CatalogueGenerator catalogue = new CatalogueGenerator(0, 10, BenchmarkIndex.readCBISExports());
+      EventJSONSerialization serialization = new EventJSONSerialization();
+      Event event = catalogue.generateEvent(0);
+      JSONObject json = serialization.marshalEvent(event);
+      long contentHash = indexManager.contentHashFactory(json);
+
+      // independent of attribute order
+      assertEquals(contentHash, indexManager.contentHashFactory(new JSONObject(json.toString())));
+      assertTrue(contentHash != indexManager.contentHashFactory(serialization.marshalEvent(catalogue.generateEvent(0, 1))));
+
+      assertEquals(-1, indexManager.findContentHash(0, contentHash));
+
+      // found before visible to searches
+      long generation = indexManager.updateIndex(event, json);
+      assertEquals(generation, indexManager.findContentHash(0, contentHash));
+      assertEquals(-1, indexManager.findContentHash(0, contentHash + 1));
+
+      indexManager.waitForGeneration(generation);
+      assertEquals(0, indexManager.findContentHash(0, contentHash));
+      assertEquals(-1, indexManager.findContentHash(0, contentHash + 1));
+
+    } finally {
+      indexManager.close();
+      FileUtils.deleteDirectory(dataPath);
+    }
+
+  }
+
+  public void testArchive() throws Exception {
+
+    File dataPath = File.createTempFile("hgb.event.search", "index");
+    FileUtils.deleteQuietly(dataPath);
+    dataPath.mkdirs();
+
+    IndexManager indexManager = new IndexManager();
+    indexManager.setDataPath(dataPath);
+    indexManager.setArchiveAfterMilliseconds(TimeUnit.DAYS.toMillis(1));
+    indexManager.setArchiveIntervalMilliseconds(0);
+    indexManager.open();
+    try {
+
+      CatalogueGenerator catalogue = new CatalogueGenerator(0, 10, BenchmarkIndex.readCBISExports());
+      EventJSONSerialization serialization = new EventJSONSerialization();
+      long now = System.currentTimeMillis();
+      long day = TimeUnit.DAYS.toMillis(1);
+
+      // ended long ago, passed and upcoming, upcoming, started long ago without end
+      long[][] showsPerEvent = {{-10 * day}, {-10 * day, day}, {day}, {-10 * day, -20 * day}};
+      long generation = 0;
+      for (int eventId = 0; eventId < showsPerEvent.length; eventId++) {
+        Event event = catalogue.generateEvent(eventId);
+        List<Show> shows = new ArrayList<>();
+        for (long start : showsPerEvent[eventId]) {
+          Show show = new Show();
+          show.setStartTimeEpochMilliseconds(now + start);
+          if (eventId != 3) {
+            show.setEndTimeEpochMilliseconds(now + start + TimeUnit.HOURS.toMillis(2));
+          }
+          shows.add(show);
+        }
+        event.setShows(shows);
+        generation = indexManager.updateIndex(event, serialization.marshalEvent(event));
+      }
+      indexManager.waitForGeneration(generation);
+
+      assertEquals(2, indexManager.archive());
+      assertEquals(0, indexManager.archive());
+      assertEquals(2, countEvents(indexManager));
+
+      SearchRequest pastEvents = new SearchRequest();
+      pastEvents.setQuery(NumericRangeQuery.newLongRange(IndexManager.FIELD_EVENT_SHOW_START_DATE_TIME, Long.MIN_VALUE, now, true, false));
+      pastEvents.setLimit(10);
+      assertEquals(3, indexManager.search(pastEvents).getTotalNumberOfSearchResults());
+
+      // unchanged archived events are not indexed again
+      JSONObject archived = new JSONObject(indexManager.getEvent(0, false).getJson().utf8ToString());
+      assertEquals(0, indexManager.findContentHash(0, indexManager.contentHashFactory(archived)));
+
+      indexManager.waitForGeneration(indexManager.deleteFromIndex(Collections.singleton(0L)));
+      assertNull(indexManager.getEvent(0, false));
+      assertEquals(2, indexManager.search(pastEvents).getTotalNumberOfSearchResults());
+
+      // an archived event moved into the future is only found in the live index
+      Event moved = catalogue.generateEvent(3);
+      Show show = new Show();
+      show.setStartTimeEpochMilliseconds(now + day);
+      moved.setShows(Collections.singletonList(show));
+      indexManager.waitForGeneration(indexManager.updateIndex(moved, serialization.marshalEvent(moved)));
+      assertEquals(1, indexManager.search(pastEvents).getTotalNumberOfSearchResults());
+      assertEquals(3, countEvents(indexManager));
+
+    } finally {
+      indexManager.close();
+      FileUtils.deleteDirectory(dataPath);
+    }
+
+  }
+
+  public void testHotTier() throws Exception {
+
+    File dataPath = File.createTempFile("hgb.event.search", "index");
+    FileUtils.deleteQuietly(dataPath);
+    dataPath.mkdirs();
+
+    IndexManager indexManager = new IndexManager();
+    indexManager.setDataPath(dataPath);
+    indexManager.setHotTierMilliseconds(TimeUnit.DAYS.toMillis(14));
+    indexManager.setArchiveIntervalMilliseconds(0);
+    indexManager.open();
+    try {
+
+      CatalogueGenerator catalogue = new CatalogueGenerator(0, 10, BenchmarkIndex.readCBISExports());
+      EventJSONSerialization serialization = new EventJSONSerialization();
+      long now = System.currentTimeMillis();
+      long day = TimeUnit.DAYS.toMillis(1);
+
+      // upcoming, far ahead, upcoming and far ahead, without shows
+      long[][] showsPerEvent = {{day}, {60 * day}, {day, 60 * day}, {}};
+      long generation = 0;
+      for (int eventId = 0; eventId < showsPerEvent.length; eventId++) {
+        Event event = catalogue.generateEvent(eventId);
+        List<Show> shows = new ArrayList<>();
+        for (long start : showsPerEvent[eventId]) {
+          Show show = new Show();
+          show.setStartTimeEpochMilliseconds(now + start);
+          show.setEndTimeEpochMilliseconds(now + start + TimeUnit.HOURS.toMillis(2));
+          shows.add(show);
+        }
+        event.setShows(shows);
+        generation = indexManager.updateIndex(event, serialization.marshalEvent(event));
+      }
+      indexManager.waitForGeneration(generation);
+
+      assertEquals(1, indexManager.updateHotTier());
+      assertEquals(0, indexManager.updateHotTier());
+      assertEquals(4, countEvents(indexManager));
+
+      SearchRequest nextWeeks = new SearchRequest();
+      nextWeeks.setQuery(NumericRangeQuery.newLongRange(IndexManager.FIELD_EVENT_SHOW_START_DATE_TIME, now, now + 14 * day, true, false));
+      nextWeeks.setLimit(10);
+      assertFalse(indexManager.isReachingIntoFuture(nextWeeks.getQuery()));
+      assertEquals(2, indexManager.search(nextWeeks).getTotalNumberOfSearchResults());
+
+      SearchRequest farAhead = new SearchRequest();
+      farAhead.setQuery(NumericRangeQuery.newLongRange(IndexManager.FIELD_EVENT_SHOW_START_DATE_TIME, now + 30 * day, now + 90 * day, true, false));
+      farAhead.setLimit(10);
+      assertTrue(indexManager.isReachingIntoFuture(farAhead.getQuery()));
+      assertEquals(2, indexManager.search(farAhead).getTotalNumberOfSearchResults());
+
+      // unchanged events of the future tier are not indexed again
+      JSONObject future = new JSONObject(indexManager.getEvent(1, false).getJson().utf8ToString());
+      assertEquals(0, indexManager.findContentHash(1, indexManager.contentHashFactory(future)));
+
+      // an event of the future tier moved within the horizon is only found in the live index
+      Event moved = catalogue.generateEvent(1);
+      Show show = new Show();
+      show.setStartTimeEpochMilliseconds(now + day);
+      moved.setShows(Collections.singletonList(show));
+      indexManager.waitForGeneration(indexManager.updateIndex(moved, serialization.marshalEvent(moved)));
+      assertEquals(3, indexManager.search(nextWeeks).getTotalNumberOfSearchResults());
+      assertEquals(1, indexManager.search(farAhead).getTotalNumberOfSearchResults());
+      assertEquals(4, countEvents(indexManager));
+      assertEquals(0, indexManager.updateHotTier());
+
+      // and moved back when the horizon passes its shows
+      moved.getShows().get(0).setStartTimeEpochMilliseconds(now + 60 * day);
+      indexManager.waitForGeneration(indexManager.updateIndex(moved, serialization.marshalEvent(moved)));
+      assertEquals(1, indexManager.updateHotTier());
+      indexManager.setHotTierMilliseconds(TimeUnit.DAYS.toMillis(90));
+      assertEquals(1, indexManager.updateHotTier());
+      assertEquals(2, indexManager.search(farAhead).getTotalNumberOfSearchResults());
+      assertEquals(4, countEvents(indexManager));
+
+      indexManager.waitForGeneration(indexManager.deleteFromIndex(Collections.singleton(1L)));
+      assertNull(indexManager.getEvent(1, false));
+
+    } finally {
+      indexManager.close();
+      FileUtils.deleteDirectory(dataPath);
+    }
+
+  }
+
+  private int countEvents(IndexManager indexManager) throws Exception {
+    SearchRequest searchRequest = new SearchRequest();
+    searchRequest.setQuery(new MatchAllDocsQuery());
+    searchRequest.setLimit(1);
+    return indexManager.search(searchRequest).getTotalNumberOfSearchResults();
+  }
+
+}
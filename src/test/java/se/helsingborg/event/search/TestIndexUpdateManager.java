@@ -0,0 +1,258 @@
+package se.helsingborg.event.search;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.json.JSONObject;
+import se.helsingborg.event.benchmark.BenchmarkIndex;
+import se.helsingborg.event.benchmark.CatalogueGenerator;
+import se.helsingborg.event.benchmark.GeneratedPrimaryPersistence;
+import se.helsingborg.event.domin.Event;
+import se.helsingborg.event.domin.EventJSONSerialization;
+import se.helsingborg.event.domin.Show;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class TestIndexUpdateManager extends TestCase {
+
+  public void test() throws Exception {
+
+    File dataPath = File.createTempFile("hgb.event.search", "index");
+    FileUtils.deleteQuietly(dataPath);
+    dataPath.mkdirs();
+
+    IndexManager indexManager = new IndexManager();
+    indexManager.setDataPath(dataPath);
+    indexManager.open();
+    try {
+
+      GeneratedPrimaryPersistence primaryPersistence = new GeneratedPrimaryPersistence(new CatalogueGenerator(0, 60, BenchmarkIndex.readCBISExports()));
+
+      IndexUpdateManager indexUpdateManager = new IndexUpdateManager();
+      indexUpdateManager.setIndexManager(indexManager);
+      indexUpdateManager.setParserThreads(3);
+      indexUpdateManager.setWriterThreads(2);
+      indexUpdateManager.setQueueCapacity(8);
+      indexUpdateManager.setCommitEveryEvents(10);
+
+      assertEquals(60, indexUpdateManager.update(primaryPersistence.export()));
+      assertEquals(60, countEvents(indexManager));
+
+      // unchanged events are skipped, modified events replace the previous
+      assertEquals(0, indexUpdateManager.update(primaryPersistence.export()));
+      for (long eventId = 0; eventId < 5; eventId++) {
+        primaryPersistence.modify(eventId);
+      }
+      assertEquals(5, indexUpdateManager.update(primaryPersistence.export()));
+      assertEquals(60, countEvents(indexManager));
+
+      // tombstones delete events, in batches
+      indexUpdateManager.setDeleteBatchSize(4);
+      List<JSONObject> tombstones = new ArrayList<>();
+      for (long eventId = 0; eventId < 10; eventId++) {
+        tombstones.add(new JSONObject().put("eventId", eventId).put("deleted", true));
+      }
+      assertEquals(0, indexUpdateManager.update(tombstones.iterator()));
+      assertEquals(50, countEvents(indexManager));
+      assertNull(indexManager.getEvent(0, false));
+
+      // an unchanged event following its tombstone is written again, whichever writer thread gets the tombstone
+      tombstones.clear();
+      for (long eventId = 10; eventId < 20; eventId++) {
+        tombstones.add(new JSONObject().put("eventId", eventId).put("deleted", true));
+        tombstones.add(primaryPersistence.getEvent(eventId));
+      }
+      assertEquals(10, indexUpdateManager.update(tombstones.iterator()));
+      assertEquals(50, countEvents(indexManager));
+      assertNotNull(indexManager.getEvent(10, false));
+
+      // malformed events are skipped rather than failing the whole pass
+      List<JSONObject> batch = new ArrayList<>();
+      for (long eventId = 20; eventId < 30; eventId++) {
+        primaryPersistence.modify(eventId);
+        batch.add(primaryPersistence.getEvent(eventId));
+      }
+      batch.get(5).put("shows", "not shows");
+      batch.add(3, new JSONObject().put("eventId", "not an identity"));
+      assertEquals(9, indexUpdateManager.update(batch.iterator()));
+      assertEquals(50, countEvents(indexManager));
+      // as previously indexed
+      assertNotNull(indexManager.getEvent(24, false));
+
+      indexManager.setReclaimDeletesMinimumRatio(0);
+      indexManager.reclaimDeletes();
+      assertEquals(50, countEvents(indexManager));
+
+      // a failing fetch fails the whole pass rather than blocking the pipeline
+      final Iterator<JSONObject> export = primaryPersistence.export();
+      Iterator<JSONObject> failing = new Iterator<JSONObject>() {
+        private int count = 0;
+
+        @Override
+        public boolean hasNext() {
+          return export.hasNext();
+        }
+
+        @Override
+        public JSONObject next() {
+          if (++count == 30) {
+            throw new RuntimeException("Connection lost");
+          }
+          return export.next();
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+      try {
+        indexUpdateManager.update(failing);
+        fail("Expected the failure of the fetch to be thrown");
+      } catch (RuntimeException e) {
+        assertEquals("Connection lost", e.getMessage());
+      }
+
+    } finally {
+      indexManager.close();
+      FileUtils.deleteDirectory(dataPath);
+    }
+
+  }
+
+  public void testRebuild() throws Exception {
+
+    File dataPath = File.createTempFile("hgb.event.search", "index");
+    FileUtils.deleteQuietly(dataPath);
+    dataPath.mkdirs();
+
+    final IndexManager indexManager = new IndexManager();
+    indexManager.setDataPath(dataPath);
+    // none of the generated events are archived
+    indexManager.setArchiveAfterMilliseconds(TimeUnit.DAYS.toMillis(10 * 365));
+    indexManager.setArchiveIntervalMilliseconds(0);
+    indexManager.open();
+    try {
+
+      final CatalogueGenerator catalogue = new CatalogueGenerator(0, 60, BenchmarkIndex.readCBISExports());
+      GeneratedPrimaryPersistence primaryPersistence = new GeneratedPrimaryPersistence(catalogue);
+
+      IndexUpdateManager indexUpdateManager = new IndexUpdateManager();
+      indexUpdateManager.setIndexManager(indexManager);
+      indexUpdateManager.setParserThreads(2);
+      indexUpdateManager.setWriterThreads(2);
+      indexUpdateManager.update(primaryPersistence.export());
+      File replacedIndex = new File(dataPath, FileUtils.readFileToString(new File(dataPath, "current"), "UTF-8"));
+
+      // an event added to the live index in the middle of the rebuild is replayed on the rebuilt index
+      final Iterator<JSONObject> export = primaryPersistence.export();
+      Iterator<JSONObject> updatedMeanwhile = new Iterator<JSONObject>() {
+        private int count = 0;
+
+        @Override
+        public boolean hasNext() {
+          return export.hasNext();
+        }
+
+        @Override
+        public JSONObject next() {
+          if (++count == 30) {
+            try {
+              Event event = catalogue.generateEvent(1000);
+              indexManager.waitForGeneration(indexManager.updateIndex(event, new EventJSONSerialization().marshalEvent(event)));
+              assertEquals(61, countEvents(indexManager));
+            } catch (Exception e) {
+              throw new RuntimeException(e);
+            }
+          }
+          return export.next();
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+      assertEquals(60, indexUpdateManager.rebuild(export(indexManager, updatedMeanwhile)));
+      assertEquals(61, countEvents(indexManager));
+      assertNotNull(indexManager.getEvent(1000, false));
+      assertFalse(indexManager.isRebuilding());
+      assertFalse(replacedIndex.exists());
+
+      // a truncated export is not allowed to replace the live index
+      Iterator<JSONObject> truncated = primaryPersistence.export();
+      List<JSONObject> firstEvents = new ArrayList<>();
+      for (int i = 0; i < 10; i++) {
+        firstEvents.add(truncated.next());
+      }
+      try {
+        indexUpdateManager.rebuild(export(indexManager, firstEvents.iterator()));
+        fail("Expected rebuilt index to be rejected");
+      } catch (IOException e) {
+        // expected
+      }
+      assertEquals(61, countEvents(indexManager));
+      assertFalse(indexManager.isRebuilding());
+
+      // sharded, the event only added to the live index is gone as it is not exported
+      indexManager.setRebuildShards(3);
+      indexManager.setRebuildMaximumSegments(1);
+      assertEquals(60, indexUpdateManager.rebuild(export(indexManager, primaryPersistence.export())));
+      assertEquals(60, countEvents(indexManager));
+      assertNull(indexManager.getEvent(1000, false));
+      // the live index, the file naming it and the archive are kept, shards and replaced index are deleted
+      assertEquals(3, dataPath.list().length);
+
+      // an exported event that has ended is written to the archive rather than to the live index
+      Event ended = catalogue.generateEvent(2000);
+      Show show = new Show();
+      show.setStartTimeEpochMilliseconds(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(20 * 365));
+      ended.setShows(Collections.singletonList(show));
+      List<JSONObject> endedExport = new ArrayList<>();
+      for (Iterator<JSONObject> iterator = primaryPersistence.export(); iterator.hasNext(); ) {
+        endedExport.add(iterator.next());
+      }
+      endedExport.add(new EventJSONSerialization().marshalEvent(ended));
+      assertEquals(61, indexUpdateManager.rebuild(export(indexManager, endedExport.iterator())));
+      assertEquals(60, countEvents(indexManager));
+      assertNotNull(indexManager.getEvent(2000, false));
+
+    } finally {
+      indexManager.close();
+      FileUtils.deleteDirectory(dataPath);
+    }
+
+  }
+
+  /**
+   * @return The events, asserting they are not exported until rebuilding.
+   */
+  private Callable<Iterator<JSONObject>> export(final IndexManager indexManager, final Iterator<JSONObject> jsonEvents) {
+    return new Callable<Iterator<JSONObject>>() {
+      @Override
+      public Iterator<JSONObject> call() throws Exception {
+        assertTrue(indexManager.isRebuilding());
+        return jsonEvents;
+      }
+    };
+  }
+
+  private int countEvents(IndexManager indexManager) throws Exception {
+    SearchRequest searchRequest = new SearchRequest();
+    searchRequest.setQuery(new MatchAllDocsQuery());
+    searchRequest.setLimit(1);
+    return indexManager.search(searchRequest).getTotalNumberOfSearchResults();
+  }
+
+}
@@ -0,0 +1,88 @@
+package se.helsingborg.event.search;
+
+import junit.framework.TestCase;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.store.RAMDirectory;
+import se.helsingborg.event.Metrics;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class TestSearchCoalescer extends TestCase {
+
+  public void test() throws Exception {
+
+    RAMDirectory directory = new RAMDirectory();
+    new IndexWriter(directory, new IndexWriterConfig(new KeywordAnalyzer())).close();
+    final DirectoryReader reader = DirectoryReader.open(directory);
+
+    final SearchRequest searchRequest = new SearchRequest();
+    searchRequest.setQuery(NumericRangeQuery.newLongRange(IndexManager.FIELD_EVENT_SHOW_START_DATE_TIME, 1000l, Long.MAX_VALUE, false, true));
+    searchRequest.setQueryKey("{\"type\":\"future events\"}@1000");
+    searchRequest.setLimit(10);
+
+    // parsed a moment later, but identical at the time resolution
+    final SearchRequest identicalSearchRequest = new SearchRequest();
+    identicalSearchRequest.setQuery(NumericRangeQuery.newLongRange(IndexManager.FIELD_EVENT_SHOW_START_DATE_TIME, 1001l, Long.MAX_VALUE, false, true));
+    identicalSearchRequest.setQueryKey(searchRequest.getQueryKey());
+    identicalSearchRequest.setLimit(10);
+
+    final SearchCoalescer coalescer = new SearchCoalescer();
+    final CountDownLatch executing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger executions = new AtomicInteger();
+
+    final Callable<SearchResults> search = new Callable<SearchResults>() {
+      @Override
+      public SearchResults call() throws Exception {
+        executions.incrementAndGet();
+        executing.countDown();
+        release.await();
+        return new SearchResults();
+      }
+    };
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<SearchResults> first = executor.submit(new Callable<SearchResults>() {
+        @Override
+        public SearchResults call() throws Exception {
+          return coalescer.search(reader, searchRequest, search);
+        }
+      });
+      executing.await();
+      Metrics.Counter coalesced = Metrics.getInstance().getCounter("search_coalesced_total", null);
+      long coalescedBefore = coalesced.get();
+      Future<SearchResults> second = executor.submit(new Callable<SearchResults>() {
+        @Override
+        public SearchResults call() throws Exception {
+          return coalescer.search(reader, identicalSearchRequest, search);
+        }
+      });
+      while (coalesced.get() == coalescedBefore) {
+        Thread.sleep(1);
+      }
+      release.countDown();
+
+      assertSame(first.get(), second.get());
+      assertEquals(1, executions.get());
+
+      // no longer in flight
+      coalescer.search(reader, searchRequest, search);
+      assertEquals(2, executions.get());
+
+    } finally {
+      executor.shutdown();
+      reader.close();
+    }
+  }
+
+}
@@ -0,0 +1,42 @@
+package se.helsingborg.event.search;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class TestStageTimings extends TestCase {
+
+  public void test() throws Exception {
+
+    StageTimings stageTimings = new StageTimings();
+    Thread.sleep(10);
+    stageTimings.stage("parse");
+    Thread.sleep(10);
+    // measured by the caller within the stage, excluded from it
+    stageTimings.add("wait", TimeUnit.MILLISECONDS.toNanos(5));
+    stageTimings.stage("search");
+    Thread.sleep(10);
+    stageTimings.stage("parse");
+
+    assertEquals(Arrays.asList("parse", "wait", "search"), new ArrayList<>(stageTimings.getStages().keySet()));
+    assertTrue(stageTimings.getStages().get("parse") >= TimeUnit.MILLISECONDS.toNanos(20));
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(5), stageTimings.getStages().get("wait").longValue());
+    assertTrue(stageTimings.getStages().get("search") >= TimeUnit.MILLISECONDS.toNanos(5));
+
+    // consecutive stages sum up to the total
+    long sum = 0;
+    for (long nanos : stageTimings.getStages().values()) {
+      sum += nanos;
+    }
+    assertTrue(sum <= stageTimings.getTotalNanos());
+    assertTrue(sum >= TimeUnit.MILLISECONDS.toNanos(30));
+
+  }
+
+}
@@ -0,0 +1,28 @@
+package se.helsingborg.event.search.query;
+
+import junit.framework.TestCase;
+import org.json.JSONObject;
+
+/**
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class TestJSONQuerySerialization extends TestCase {
+
+  public void testTruncatedEventText() throws Exception {
+
+    String text = "konsert gitarr 🎸";
+
+    // truncating in the middle of the emoji drops all of it
+    assertEquals("konsert gitarr ", JSONQuerySerialization.truncate(text, text.length() - 1));
+    assertEquals(text, JSONQuerySerialization.truncate(text, text.length()));
+    assertEquals("konsert", JSONQuerySerialization.truncate(text, 7));
+
+    JSONQuerySerialization serialization = new JSONQuerySerialization().setMaximumTextLength(text.length() - 1);
+    assertEquals(
+        new JSONQuerySerialization().parse(new JSONObject().put("type", "event text").put("text", "konsert gitarr ")),
+        serialization.parse(new JSONObject().put("type", "event text").put("text", text)));
+
+  }
+
+}
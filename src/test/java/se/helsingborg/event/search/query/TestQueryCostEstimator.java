@@ -0,0 +1,115 @@
+package se.helsingborg.event.search.query;
+
+import junit.framework.TestCase;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.*;
+import org.apache.lucene.store.RAMDirectory;
+import se.helsingborg.event.search.IndexManager;
+import se.helsingborg.event.search.SearchRequest;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class TestQueryCostEstimator extends TestCase {
+
+  public void test() throws Exception {
+
+    RAMDirectory directory = new RAMDirectory();
+    IndexWriter indexWriter = new IndexWriter(directory, new IndexWriterConfig(new KeywordAnalyzer()));
+    for (int i = 0; i < 100; i++) {
+      Document document = new Document();
+      document.add(new StringField(IndexManager.FIELD_EVENT_TAG, "common", Field.Store.NO));
+      if (i % 10 == 0) {
+        document.add(new StringField(IndexManager.FIELD_EVENT_TAG, "rare", Field.Store.NO));
+      }
+      indexWriter.addDocument(document);
+    }
+    indexWriter.close();
+
+    DirectoryReader reader = DirectoryReader.open(directory);
+    try {
+      QueryCostEstimator estimator = new QueryCostEstimator(reader);
+
+      assertEquals(10, estimator.estimate(new TermQuery(new Term(IndexManager.FIELD_EVENT_TAG, "rare"))));
+      assertEquals(100, estimator.estimate(new MatchAllDocsQuery()));
+
+      BooleanQuery.Builder query = new BooleanQuery.Builder();
+      query.add(new TermQuery(new Term(IndexManager.FIELD_EVENT_TAG, "rare")), BooleanClause.Occur.MUST);
+      query.add(new TermQuery(new Term(IndexManager.FIELD_EVENT_TAG, "common")), BooleanClause.Occur.MUST);
+      // common is only advanced to the documents matching rare
+      assertEquals(2 + 10 + 10, estimator.estimate(query.build()));
+
+      SearchRequest searchRequest = new SearchRequest();
+      searchRequest.setQuery(new MatchAllDocsQuery());
+      searchRequest.setLimit(5);
+      searchRequest.setEventJsonOutput(true);
+      assertEquals(100 + 5 * estimator.getEventJsonCost(), estimator.estimate(searchRequest));
+
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Future events near a location, the most common search, in an index of production size.
+   */
+  public void testFutureEventsNearLocation() throws Exception {
+
+    long now = System.currentTimeMillis();
+    long day = TimeUnit.DAYS.toMillis(1);
+    int shows = 500000;
+
+    RAMDirectory directory = new RAMDirectory();
+    IndexWriterConfig indexWriterConfig = new IndexWriterConfig(new KeywordAnalyzer());
+    indexWriterConfig.setRAMBufferSizeMB(64);
+    IndexWriter indexWriter = new IndexWriter(directory, indexWriterConfig);
+    Random random = new Random(0);
+    for (int i = 0; i < shows; i++) {
+      // shows from two months ago to a year ahead, all over Skåne
+      Document document = new Document();
+      document.add(new LongField(IndexManager.FIELD_EVENT_SHOW_START_DATE_TIME, now + (long) ((random.nextDouble() * 425 - 60) * day), Field.Store.NO));
+      document.add(new DoubleField(IndexManager.FIELD_EVENT_LOCATION_GEO_LATITUDE, 55.3 + random.nextDouble() * 1.2, Field.Store.NO));
+      document.add(new DoubleField(IndexManager.FIELD_EVENT_LOCATION_GEO_LONGITUDE, 12.4 + random.nextDouble() * 2.1, Field.Store.NO));
+      indexWriter.addDocument(document);
+    }
+    indexWriter.close();
+
+    DirectoryReader reader = DirectoryReader.open(directory);
+    try {
+      QueryCostEstimator estimator = new QueryCostEstimator(reader);
+
+      Query futureEvents = NumericRangeQuery.newLongRange(IndexManager.FIELD_EVENT_SHOW_START_DATE_TIME, now, Long.MAX_VALUE, false, true);
+      long matchingFutureEvents = new IndexSearcher(reader).count(futureEvents);
+      assertEquals(matchingFutureEvents, estimator.estimate(futureEvents), matchingFutureEvents * 0.05);
+
+      BooleanQuery.Builder query = new BooleanQuery.Builder();
+      query.add(futureEvents, BooleanClause.Occur.MUST);
+      query.add(new CoordinateCircleEnvelopeQueryFactory()
+          .setLatitudeField(IndexManager.FIELD_EVENT_LOCATION_GEO_LATITUDE)
+          .setLongitudeField(IndexManager.FIELD_EVENT_LOCATION_GEO_LONGITUDE)
+          .setCentroidLatitude(56.0465)
+          .setCentroidLongitude(12.6945)
+          .setRadiusKilometers(10)
+          .build(), BooleanClause.Occur.MUST);
+      Query optimized = new QueryOptimizer().setScoring(false).optimize(query.build());
+
+      // led by the envelope, i.e. less than scanning all shows once rather than thrice,
+      // keeping it within the default SearchMaximumCost up to four times as many shows
+      long cost = estimator.estimate(optimized);
+      assertTrue("Estimated cost " + cost, cost < shows / 2);
+
+    } finally {
+      reader.close();
+    }
+  }
+
+}
@@ -0,0 +1,102 @@
+package se.helsingborg.event.search.query;
+
+import junit.framework.TestCase;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.*;
+import se.helsingborg.event.search.IndexManager;
+
+/**
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class TestQueryOptimizer extends TestCase {
+
+  public void testFlattenAndFilter() throws Exception {
+
+    BooleanQuery.Builder nested = new BooleanQuery.Builder();
+    nested.add(new TermQuery(new Term(IndexManager.FIELD_EVENT_TAG, "teater")), BooleanClause.Occur.MUST);
+    nested.add(NumericRangeQuery.newLongRange(IndexManager.FIELD_EVENT_SHOW_START_DATE_TIME, 10l, 100l, true, true), BooleanClause.Occur.MUST);
+
+    BooleanQuery.Builder query = new BooleanQuery.Builder();
+    query.add(nested.build(), BooleanClause.Occur.MUST);
+    query.add(new TermQuery(new Term(IndexManager.FIELD_EVENT_TAG, "teater")), BooleanClause.Occur.MUST);
+    query.add(NumericRangeQuery.newLongRange(IndexManager.FIELD_EVENT_SHOW_START_DATE_TIME, 50l, 200l, false, true), BooleanClause.Occur.MUST);
+
+    BooleanQuery.Builder expected = new BooleanQuery.Builder();
+    expected.add(new TermQuery(new Term(IndexManager.FIELD_EVENT_TAG, "teater")), BooleanClause.Occur.MUST);
+    expected.add(NumericRangeQuery.newLongRange(IndexManager.FIELD_EVENT_SHOW_START_DATE_TIME, 50l, 100l, false, true), BooleanClause.Occur.FILTER);
+    // the repeated scoring clause is kept, as it counts twice
+    expected.add(new TermQuery(new Term(IndexManager.FIELD_EVENT_TAG, "teater")), BooleanClause.Occur.MUST);
+
+    assertEquals(expected.build(), new QueryOptimizer().optimize(query.build()));
+
+  }
+
+  public void testFilterNextToOptionalClauses() throws Exception {
+
+    BooleanQuery.Builder query = new BooleanQuery.Builder();
+    query.add(NumericRangeQuery.newLongRange(IndexManager.FIELD_EVENT_SHOW_START_DATE_TIME, 10l, 100l, true, true), BooleanClause.Occur.MUST);
+    query.add(new TermQuery(new Term(IndexManager.FIELD_EVENT_TAG, "a")), BooleanClause.Occur.SHOULD);
+    query.add(new TermQuery(new Term(IndexManager.FIELD_EVENT_TAG, "b")), BooleanClause.Occur.SHOULD);
+
+    // +range a b, the constant score of the range counts in coord of documents matching only a or b
+    assertEquals(query.build(), new QueryOptimizer().optimize(query.build()));
+
+    BooleanQuery.Builder expected = new BooleanQuery.Builder();
+    expected.add(NumericRangeQuery.newLongRange(IndexManager.FIELD_EVENT_SHOW_START_DATE_TIME, 10l, 100l, true, true), BooleanClause.Occur.FILTER);
+    expected.add(new TermQuery(new Term(IndexManager.FIELD_EVENT_TAG, "a")), BooleanClause.Occur.SHOULD);
+    expected.add(new TermQuery(new Term(IndexManager.FIELD_EVENT_TAG, "b")), BooleanClause.Occur.SHOULD);
+
+    assertEquals(expected.build(), new QueryOptimizer().setScoring(false).optimize(query.build()));
+
+  }
+
+  public void testSingleClause() throws Exception {
+
+    TermQuery termQuery = new TermQuery(new Term(IndexManager.FIELD_EVENT_TAG, "teater"));
+
+    BooleanQuery.Builder query = new BooleanQuery.Builder();
+    query.add(termQuery, BooleanClause.Occur.SHOULD);
+    query.add(termQuery, BooleanClause.Occur.SHOULD);
+
+    assertEquals(termQuery, new QueryOptimizer().setScoring(false).optimize(query.build()));
+
+    // a repeated scoring clause counts twice
+    assertEquals(query.build(), new QueryOptimizer().optimize(query.build()));
+
+  }
+
+  public void testNonScoring() throws Exception {
+
+    BooleanQuery.Builder disjunction = new BooleanQuery.Builder();
+    disjunction.add(new TermQuery(new Term(IndexManager.FIELD_EVENT_TAG, "a")), BooleanClause.Occur.SHOULD);
+    disjunction.add(new TermQuery(new Term(IndexManager.FIELD_EVENT_TAG, "b")), BooleanClause.Occur.SHOULD);
+
+    BooleanQuery.Builder query = new BooleanQuery.Builder();
+    query.add(disjunction.build(), BooleanClause.Occur.SHOULD);
+    query.add(new TermQuery(new Term(IndexManager.FIELD_EVENT_TAG, "c")), BooleanClause.Occur.SHOULD);
+
+    BooleanQuery.Builder expected = new BooleanQuery.Builder();
+    expected.add(new TermQuery(new Term(IndexManager.FIELD_EVENT_TAG, "a")), BooleanClause.Occur.SHOULD);
+    expected.add(new TermQuery(new Term(IndexManager.FIELD_EVENT_TAG, "b")), BooleanClause.Occur.SHOULD);
+    expected.add(new TermQuery(new Term(IndexManager.FIELD_EVENT_TAG, "c")), BooleanClause.Occur.SHOULD);
+
+    assertEquals(expected.build(), new QueryOptimizer().setScoring(false).optimize(query.build()));
+
+    // scores would change due to coord, leave as is
+    assertEquals(query.build(), new QueryOptimizer().optimize(query.build()));
+
+    // (a (b -c)) is not (a b -c), as the latter never matches c
+    BooleanQuery.Builder prohibiting = new BooleanQuery.Builder();
+    prohibiting.add(new TermQuery(new Term(IndexManager.FIELD_EVENT_TAG, "b")), BooleanClause.Occur.SHOULD);
+    prohibiting.add(new TermQuery(new Term(IndexManager.FIELD_EVENT_TAG, "c")), BooleanClause.Occur.MUST_NOT);
+
+    BooleanQuery.Builder prohibitingQuery = new BooleanQuery.Builder();
+    prohibitingQuery.add(new TermQuery(new Term(IndexManager.FIELD_EVENT_TAG, "a")), BooleanClause.Occur.SHOULD);
+    prohibitingQuery.add(prohibiting.build(), BooleanClause.Occur.SHOULD);
+
+    assertEquals(prohibitingQuery.build(), new QueryOptimizer().setScoring(false).optimize(prohibitingQuery.build()));
+
+  }
+
+}
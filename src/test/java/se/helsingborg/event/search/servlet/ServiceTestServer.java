@@ -0,0 +1,120 @@
+package se.helsingborg.event.search.servlet;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.webapp.WebAppContext;
+import org.json.JSONObject;
+import se.helsingborg.event.benchmark.BenchmarkIndex;
+import se.helsingborg.event.benchmark.CatalogueGenerator;
+import se.helsingborg.event.domin.Event;
+import se.helsingborg.event.domin.EventJSONSerialization;
+import se.helsingborg.event.search.IndexManager;
+import se.helsingborg.event.search.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+
+/**
+ * The web application with the service opened in a temporary data path, served by an embedded Jetty on a random port.
+ *
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class ServiceTestServer {
+
+  private File dataPath;
+  private Server server;
+  private int port;
+
+  public void start() throws Exception {
+    dataPath = File.createTempFile("hgb.event.search", "data");
+    FileUtils.deleteQuietly(dataPath);
+    dataPath.mkdirs();
+    Service.getInstance().setDataPath(dataPath);
+
+    WebAppContext context = new WebAppContext("src/main/webapp", "/");
+    context.setParentLoaderPriority(true);
+    server = new Server(0);
+    server.setHandler(context);
+    server.start();
+    port = server.getConnectors()[0].getLocalPort();
+  }
+
+  public void stop() throws Exception {
+    try {
+      server.stop();
+    } finally {
+      Service.getInstance().setDataPath(null);
+      FileUtils.deleteDirectory(dataPath);
+    }
+  }
+
+  /**
+   * Indexes generated events and waits for them to become searchable.
+   *
+   * @return Generation of the last update
+   */
+  public long index(long numberOfEvents) throws Exception {
+    IndexManager indexManager = Service.getInstance().getIndexManager();
+    CatalogueGenerator catalogue = new CatalogueGenerator(0, numberOfEvents, BenchmarkIndex.readCBISExports());
+    EventJSONSerialization serialization = new EventJSONSerialization();
+    long generation = 0;
+    for (long eventId = 0; eventId < numberOfEvents; eventId++) {
+      Event event = catalogue.generateEvent(eventId);
+      generation = indexManager.updateIndex(event, serialization.marshalEvent(event));
+    }
+    indexManager.waitForGeneration(generation);
+    return generation;
+  }
+
+  /**
+   * @param headers Request header names and values
+   */
+  public HttpURLConnection post(String path, JSONObject request, String... headers) throws IOException {
+    HttpURLConnection connection = get(path, headers);
+    connection.setRequestMethod("POST");
+    connection.setRequestProperty("Content-Type", "application/json");
+    connection.setDoOutput(true);
+    OutputStream out = connection.getOutputStream();
+    out.write(request.toString().getBytes("UTF8"));
+    out.close();
+    return connection;
+  }
+
+  public HttpURLConnection get(String path, JSONObject request, String... headers) throws IOException {
+    return get(path + "?request=" + URLEncoder.encode(request.toString(), "UTF8"), headers);
+  }
+
+  /**
+   * @param headers Request header names and values
+   */
+  public HttpURLConnection get(String path, String... headers) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+    for (int i = 0; i < headers.length; i += 2) {
+      connection.setRequestProperty(headers[i], headers[i + 1]);
+    }
+    return connection;
+  }
+
+  /**
+   * @return Response body as is, i.e. not decoded in case of gzip.
+   */
+  public static byte[] readBody(HttpURLConnection connection) throws IOException {
+    InputStream input = connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream();
+    if (input == null) {
+      return new byte[0];
+    }
+    try {
+      return IOUtils.toByteArray(input);
+    } finally {
+      input.close();
+    }
+  }
+
+}
@@ -0,0 +1,141 @@
+package se.helsingborg.event.search.servlet;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class TestAsyncExecution extends TestCase {
+
+  private Server server;
+  private int port;
+
+  private volatile Executor executor;
+  private volatile long processingMilliseconds;
+  private final AtomicInteger processed = new AtomicInteger();
+  private final AtomicInteger refused = new AtomicInteger();
+  private final CountDownLatch done = new CountDownLatch(1);
+
+  @Override
+  protected void setUp() throws Exception {
+    ServletContextHandler context = new ServletContextHandler();
+    ServletHolder holder = new ServletHolder(new HttpServlet() {
+      @Override
+      protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        new AsyncExecution(request, response, 200) {
+          @Override
+          protected void process(HttpServletRequest request, HttpServletResponse response) throws Exception {
+            processed.incrementAndGet();
+            Thread.sleep(processingMilliseconds);
+            try {
+              response.setContentType("text/plain");
+              response.getWriter().write("processed");
+            } catch (IllegalStateException e) {
+              refused.incrementAndGet();
+            } finally {
+              done.countDown();
+            }
+          }
+        }.execute(executor);
+      }
+    });
+    holder.setAsyncSupported(true);
+    context.addServlet(holder, "/*");
+    server = new Server(0);
+    server.setHandler(context);
+    server.start();
+    port = server.getConnectors()[0].getLocalPort();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.stop();
+  }
+
+  public void testProcessed() throws Exception {
+    ExecutorService executorService = Executors.newSingleThreadExecutor();
+    try {
+      executor = executorService;
+      assertResponse(200, "processed");
+
+      assertEquals(0, refused.get());
+    } finally {
+      executorService.shutdown();
+    }
+  }
+
+  public void testTimedOutWhileProcessed() throws Exception {
+    ExecutorService executorService = Executors.newSingleThreadExecutor();
+    try {
+      executor = executorService;
+      processingMilliseconds = 1500;
+      assertResponse(503, null);
+
+      // the worker finds the response completed once done processing
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+      assertEquals(1, processed.get());
+      assertEquals(1, refused.get());
+    } finally {
+      executorService.shutdown();
+    }
+  }
+
+  public void testRejected() throws Exception {
+    executor = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        throw new RejectedExecutionException();
+      }
+    };
+    HttpURLConnection connection = assertResponse(503, null);
+    assertEquals("1", connection.getHeaderField("Retry-After"));
+    assertEquals(0, processed.get());
+  }
+
+  public void testTimedOutWhileQueued() throws Exception {
+    final List<Runnable> queued = new CopyOnWriteArrayList<>();
+    executor = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        queued.add(command);
+      }
+    };
+    assertResponse(503, null);
+
+    // picked up after the timeout, never processed
+    assertEquals(1, queued.size());
+    queued.get(0).run();
+    assertEquals(0, processed.get());
+  }
+
+  private HttpURLConnection assertResponse(int status, String body) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/").openConnection();
+    assertEquals(status, connection.getResponseCode());
+    if (body != null) {
+      assertEquals(body, IOUtils.toString(connection.getInputStream(), "UTF-8"));
+    }
+    return connection;
+  }
+
+}
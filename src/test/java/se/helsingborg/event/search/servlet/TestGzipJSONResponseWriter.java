@@ -0,0 +1,54 @@
+package se.helsingborg.event.search.servlet;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.IOUtils;
+import org.apache.lucene.util.BytesRef;
+import se.helsingborg.event.util.DeflateUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class TestGzipJSONResponseWriter extends TestCase {
+
+  public void test() throws Exception {
+
+    StringBuilder longDescription = new StringBuilder();
+    for (int i = 0; i < 5000; i++) {
+      longDescription.append("Sagoshowen på Dunkers kulturhus ").append(i).append(' ');
+    }
+
+    BytesRef[] events = new BytesRef[]{
+        new BytesRef("{\"eventId\": 1, \"name\": \"Söndagscen\"}"),
+        new BytesRef("{\"eventId\": 2, \"description\": \"" + longDescription + "\"}"),
+        new BytesRef("{\"eventId\": 3, \"name\": \"Teater\"}"),
+    };
+
+    ByteArrayOutputStream plain = new ByteArrayOutputStream();
+    write(new JSONResponseWriter(plain), events, false);
+
+    ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+    write(new GzipJSONResponseWriter(gzip), events, true);
+
+    byte[] decompressed = IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(gzip.toByteArray())));
+    assertEquals(new String(plain.toByteArray(), "UTF8"), new String(decompressed, "UTF8"));
+    assertTrue(gzip.size() < plain.size());
+
+  }
+
+  private void write(JSONResponseWriter out, BytesRef[] events, boolean precompressed) throws Exception {
+    out.write("{\n\"reference\": ").writeQuoted("åäö \"quoted\"").write(",\n\"searchResults\": [\n");
+    for (int i = 0; i < events.length; i++) {
+      out.write("{\"score\": ").write(1.5f).write(", \"eventId\": ").write(-i).write(", \"event\": ");
+      out.write(events[i], precompressed && i != 2 ? DeflateUtil.precompress(events[i]) : null);
+      out.write("}\n");
+    }
+    out.write("]\n}");
+    out.close();
+  }
+
+}
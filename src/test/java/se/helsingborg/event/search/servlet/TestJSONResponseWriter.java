@@ -0,0 +1,86 @@
+package se.helsingborg.event.search.servlet;
+
+import junit.framework.TestCase;
+import org.apache.lucene.util.BytesRef;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class TestJSONResponseWriter extends TestCase {
+
+  public void test() throws Exception {
+
+    String[] strings = new String[]{
+        "",
+        "Söndagscen på Dunkers",
+        "\"quoted\" \\ back/slash",
+        "\b\t\n\f\r\u0000\u001f",
+        "line\u2028paragraph\u2029",
+        "gitarr 🎸",
+    };
+    long[] numbers = new long[]{0, 7, -7, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE};
+
+    StringBuilder longDescription = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      longDescription.append("Sagoshowen på Dunkers kulturhus ").append(i).append(' ');
+    }
+    BytesRef event = new BytesRef(new JSONObject().put("eventId", 1).put("description", longDescription.toString()).toString());
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final int[] flushes = new int[1];
+    JSONResponseWriter out = new JSONResponseWriter(new ByteArrayOutputStream() {
+      @Override
+      public void flush() throws IOException {
+        flushes[0]++;
+        bytes.write(toByteArray());
+        reset();
+      }
+    });
+    out.write("{\"strings\": [");
+    for (int i = 0; i < strings.length; i++) {
+      if (i > 0) {
+        out.write(", ");
+      }
+      out.writeQuoted(strings[i]);
+    }
+    out.write("], \"null\": ").writeQuoted(null);
+    out.write(", \"numbers\": [");
+    for (int i = 0; i < numbers.length; i++) {
+      if (i > 0) {
+        out.write(", ");
+      }
+      out.write(numbers[i]);
+    }
+    out.write("], \"score\": ").write(1.5f);
+    out.write(", \"event\": ").write(event, null);
+    out.write("}");
+
+    // flushed to the client each time the buffer fills up
+    assertTrue(flushes[0] > 0);
+    int flushesBeforeClose = flushes[0];
+    out.close();
+    assertEquals(flushesBeforeClose + 1, flushes[0]);
+
+    JSONObject json = new JSONObject(new String(bytes.toByteArray(), "UTF8"));
+    JSONArray jsonStrings = json.getJSONArray("strings");
+    assertEquals(strings.length, jsonStrings.length());
+    for (int i = 0; i < strings.length; i++) {
+      assertEquals(strings[i], jsonStrings.getString(i));
+    }
+    assertTrue(json.isNull("null"));
+    JSONArray jsonNumbers = json.getJSONArray("numbers");
+    for (int i = 0; i < numbers.length; i++) {
+      assertEquals(numbers[i], jsonNumbers.getLong(i));
+    }
+    assertEquals(1.5d, json.getDouble("score"));
+    assertEquals(longDescription.toString(), json.getJSONObject("event").getString("description"));
+
+  }
+
+}
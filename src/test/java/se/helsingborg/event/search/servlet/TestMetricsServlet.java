@@ -0,0 +1,116 @@
+package se.helsingborg.event.search.servlet;
+
+import junit.framework.TestCase;
+import org.json.JSONObject;
+
+import java.net.HttpURLConnection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class TestMetricsServlet extends TestCase {
+
+  private static final Pattern SAMPLE = Pattern.compile("([a-zA-Z_:][a-zA-Z0-9_:]*)(\\{.*\\})? (\\S+)");
+
+  private static final String SEARCH_LABELS = "endpoint=\"SearchServlet\",query_type=\"match all documents\"";
+
+  private ServiceTestServer server;
+
+  @Override
+  protected void setUp() throws Exception {
+    server = new ServiceTestServer();
+    server.start();
+    server.index(50);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.stop();
+  }
+
+  public void test() throws Exception {
+
+    // metrics are shared by everything in the JVM, i.e. only the difference is known
+    Map<String, Double> before = scrape();
+
+    for (int i = 0; i < 3; i++) {
+      HttpURLConnection connection = server.post("/v_0_0_1/event/search", new JSONObject()
+          .put("limit", i)
+          .put("query", new JSONObject().put("type", "match all documents")));
+      assertEquals(200, connection.getResponseCode());
+      ServiceTestServer.readBody(connection);
+    }
+
+    Map<String, Double> after = scrape();
+
+    assertEquals(3d, delta(before, after, "http_requests_total{endpoint=\"SearchServlet\",status=\"200\"}"));
+    assertEquals(3d, delta(before, after, "http_request_duration_seconds_count{" + SEARCH_LABELS + "}"));
+    assertTrue(delta(before, after, "http_request_duration_seconds_sum{" + SEARCH_LABELS + "}") > 0);
+
+    // cumulative buckets, all of them within +Inf
+    double previous = 0;
+    int buckets = 0;
+    for (Map.Entry<String, Double> sample : after.entrySet()) {
+      if (sample.getKey().startsWith("http_request_duration_seconds_bucket{" + SEARCH_LABELS + ",le=")) {
+        assertTrue(sample.getKey(), sample.getValue() >= previous);
+        previous = sample.getValue();
+        buckets++;
+      }
+    }
+    assertTrue(buckets > 1);
+    assertEquals(after.get("http_request_duration_seconds_bucket{" + SEARCH_LABELS + ",le=\"+Inf\"}"), previous);
+    assertEquals(after.get("http_request_duration_seconds_count{" + SEARCH_LABELS + "}"), previous);
+
+    // index health of the opened service
+    assertTrue(after.get("index_documents") + after.get("index_archive_documents") >= 50);
+    assertTrue(after.get("index_segments") > 0);
+    assertTrue(after.containsKey("executor_queue_size{executor=\"search\"}"));
+
+  }
+
+  private double delta(Map<String, Double> before, Map<String, Double> after, String sample) {
+    assertTrue(sample, after.containsKey(sample));
+    return after.get(sample) - (before.containsKey(sample) ? before.get(sample) : 0d);
+  }
+
+  /**
+   * Asserts the response is in the text exposition format.
+   *
+   * @return Values per metric name and labels, in the order of the response
+   */
+  private Map<String, Double> scrape() throws Exception {
+    HttpURLConnection connection = server.get("/v_0_0_1/metrics");
+    assertEquals(200, connection.getResponseCode());
+    assertTrue(connection.getContentType().startsWith("text/plain; version=0.0.4"));
+    assertEquals("no-store", connection.getHeaderField("Cache-Control"));
+
+    Map<String, Double> samples = new LinkedHashMap<>();
+    Set<String> typed = new HashSet<>();
+    String helped = null;
+    for (String line : new String(ServiceTestServer.readBody(connection), "UTF8").split("\n")) {
+      if (line.startsWith("# HELP ")) {
+        helped = line.split(" ")[2];
+      } else if (line.startsWith("# TYPE ")) {
+        String[] type = line.split(" ");
+        assertEquals(line, helped, type[2]);
+        assertTrue(line, type[3].matches("counter|gauge|histogram"));
+        typed.add(type[2]);
+      } else {
+        Matcher matcher = SAMPLE.matcher(line);
+        assertTrue(line, matcher.matches());
+        String name = matcher.group(1);
+        assertTrue(line, typed.contains(name) || typed.contains(name.replaceFirst("_(bucket|sum|count)$", "")));
+        samples.put(name + (matcher.group(2) == null ? "" : matcher.group(2)), Double.valueOf(matcher.group(3)));
+      }
+    }
+    return samples;
+  }
+
+}
@@ -0,0 +1,104 @@
+package se.helsingborg.event.search.servlet;
+
+import junit.framework.TestCase;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import se.helsingborg.event.benchmark.BenchmarkIndex;
+import se.helsingborg.event.benchmark.CatalogueGenerator;
+import se.helsingborg.event.domin.Event;
+import se.helsingborg.event.domin.EventJSONSerialization;
+import se.helsingborg.event.search.IndexManager;
+import se.helsingborg.event.search.Service;
+
+import java.net.HttpURLConnection;
+
+/**
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class TestMultiSearchServlet extends TestCase {
+
+  private static final String PATH = "/v_0_0_1/event/search/batch";
+
+  private ServiceTestServer server;
+
+  @Override
+  protected void setUp() throws Exception {
+    server = new ServiceTestServer();
+    server.start();
+    server.index(50);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.stop();
+  }
+
+  private JSONObject searchFactory(int startIndex, int limit) throws Exception {
+    return new JSONObject()
+        .put("startIndex", startIndex)
+        .put("limit", limit)
+        .put("query", new JSONObject().put("type", "match all documents"));
+  }
+
+  public void test() throws Exception {
+
+    JSONObject request = new JSONObject()
+        .put("reference", "batch")
+        .put("searches", new JSONArray()
+            .put(searchFactory(0, 10))
+            .put(searchFactory(10, 10))
+            .put(searchFactory(45, 10)));
+
+    HttpURLConnection connection = server.post(PATH, request);
+    assertEquals(200, connection.getResponseCode());
+    assertNotNull(connection.getHeaderField("ETag"));
+    JSONObject response = new JSONObject(new String(ServiceTestServer.readBody(connection), "UTF8"));
+    assertEquals("batch", response.getString("reference"));
+
+    // results in the order of the searches, paged from the same searcher
+    JSONArray results = response.getJSONArray("results");
+    assertEquals(3, results.length());
+    int[] expectedHits = new int[]{10, 10, 5};
+    for (int i = 0; i < results.length(); i++) {
+      JSONObject result = results.getJSONObject(i);
+      assertEquals(50, result.getInt("totalNumberOfSearchResults"));
+      assertEquals(request.getJSONArray("searches").getJSONObject(i).getInt("startIndex"), result.getInt("startIndex"));
+      assertEquals(expectedHits[i], result.getJSONArray("searchResults").length());
+    }
+    assertTrue(results.getJSONObject(0).getJSONArray("searchResults").getJSONObject(9).getLong("eventId")
+        != results.getJSONObject(1).getJSONArray("searchResults").getJSONObject(0).getLong("eventId"));
+
+    // too many searches
+    JSONArray searches = new JSONArray();
+    for (int i = 0; i < 33; i++) {
+      searches.put(searchFactory(i, 1));
+    }
+    assertEquals(400, server.post(PATH, new JSONObject().put("searches", searches)).getResponseCode());
+
+  }
+
+  public void testConsistencyToken() throws Exception {
+
+    IndexManager indexManager = Service.getInstance().getIndexManager();
+    Event event = new CatalogueGenerator(0, 51, BenchmarkIndex.readCBISExports()).generateEvent(50);
+    String consistencyToken = indexManager.getConsistencyToken(indexManager.updateIndex(event, new EventJSONSerialization().marshalEvent(event)));
+
+    // one search waiting for the update is enough for all of the batch to see it
+    JSONObject request = new JSONObject()
+        .put("searches", new JSONArray()
+            .put(searchFactory(0, 10))
+            .put(searchFactory(0, 10).put("consistencyToken", consistencyToken)));
+
+    HttpURLConnection connection = server.post(PATH, request);
+    assertEquals(200, connection.getResponseCode());
+    assertNull(connection.getHeaderField("ETag"));
+    assertEquals("no-store", connection.getHeaderField("Cache-Control"));
+    JSONArray results = new JSONObject(new String(ServiceTestServer.readBody(connection), "UTF8")).getJSONArray("results");
+    assertEquals(51, results.getJSONObject(0).getInt("totalNumberOfSearchResults"));
+    assertEquals(51, results.getJSONObject(1).getInt("totalNumberOfSearchResults"));
+    assertFalse(results.getJSONObject(1).getBoolean("stale"));
+
+  }
+
+}
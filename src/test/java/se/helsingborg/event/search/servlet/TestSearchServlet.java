@@ -0,0 +1,155 @@
+package se.helsingborg.event.search.servlet;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.IOUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import se.helsingborg.event.benchmark.BenchmarkIndex;
+import se.helsingborg.event.benchmark.CatalogueGenerator;
+import se.helsingborg.event.domin.Event;
+import se.helsingborg.event.domin.EventJSONSerialization;
+import se.helsingborg.event.search.IndexManager;
+import se.helsingborg.event.search.Service;
+
+import java.io.ByteArrayInputStream;
+import java.net.HttpURLConnection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class TestSearchServlet extends TestCase {
+
+  private static final String PATH = "/v_0_0_1/event/search";
+
+  private ServiceTestServer server;
+
+  @Override
+  protected void setUp() throws Exception {
+    server = new ServiceTestServer();
+    server.start();
+    server.index(50);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.stop();
+  }
+
+  private JSONObject searchRequestFactory() throws Exception {
+    return new JSONObject()
+        .put("reference", "åäö \"quoted\"")
+        .put("eventJsonOutput", true)
+        .put("query", new JSONObject().put("type", "match all documents"));
+  }
+
+  public void testStreamedResponse() throws Exception {
+
+    HttpURLConnection connection = server.post(PATH, searchRequestFactory());
+    assertEquals(200, connection.getResponseCode());
+    assertNull(connection.getHeaderField("Content-Encoding"));
+    byte[] plain = ServiceTestServer.readBody(connection);
+    // larger than the buffer, i.e. streamed in chunks
+    assertTrue(plain.length > JSONResponseWriter.DEFAULT_BUFFER_SIZE);
+
+    JSONObject response = new JSONObject(new String(plain, "UTF8"));
+    assertEquals("åäö \"quoted\"", response.getString("reference"));
+    assertEquals(50, response.getInt("totalNumberOfSearchResults"));
+    JSONArray searchResults = response.getJSONArray("searchResults");
+    assertEquals(50, searchResults.length());
+    Set<Long> eventIds = new HashSet<>();
+    for (int i = 0; i < searchResults.length(); i++) {
+      JSONObject searchResult = searchResults.getJSONObject(i);
+      // event JSON copied as is from the index
+      assertEquals(searchResult.getLong("eventId"), searchResult.getJSONObject("event").getLong("eventId"));
+      eventIds.add(searchResult.getLong("eventId"));
+    }
+    assertEquals(50, eventIds.size());
+
+    // precompressed event payloads concatenated with compressed JSON around them
+    connection = server.post(PATH, searchRequestFactory(), "Accept-Encoding", "gzip");
+    assertEquals(200, connection.getResponseCode());
+    assertEquals("gzip", connection.getHeaderField("Content-Encoding"));
+    byte[] gzip = ServiceTestServer.readBody(connection);
+    assertTrue(gzip.length < plain.length);
+    assertEquals(new String(plain, "UTF8"), new String(IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(gzip))), "UTF8"));
+
+  }
+
+  public void testNotModified() throws Exception {
+
+    JSONObject request = searchRequestFactory().put("limit", 10);
+
+    HttpURLConnection connection = server.get(PATH, request);
+    assertEquals(200, connection.getResponseCode());
+    assertEquals("public, max-age=60", connection.getHeaderField("Cache-Control"));
+    String etag = connection.getHeaderField("ETag");
+    assertNotNull(etag);
+    byte[] body = ServiceTestServer.readBody(connection);
+    assertTrue(body.length > 0);
+
+    // the client already has the response
+    connection = server.get(PATH, request, "If-None-Match", etag);
+    assertEquals(304, connection.getResponseCode());
+    assertEquals(etag, connection.getHeaderField("ETag"));
+    assertEquals(0, ServiceTestServer.readBody(connection).length);
+
+    connection = server.post(PATH, request, "If-None-Match", "\"other\", " + etag);
+    assertEquals(304, connection.getResponseCode());
+    assertEquals("no-cache", connection.getHeaderField("Cache-Control"));
+    assertEquals(0, ServiceTestServer.readBody(connection).length);
+
+    // another request, another encoding
+    connection = server.get(PATH, request.put("limit", 11), "If-None-Match", etag);
+    assertEquals(200, connection.getResponseCode());
+    assertFalse(etag.equals(connection.getHeaderField("ETag")));
+    ServiceTestServer.readBody(connection);
+    request.put("limit", 10);
+    connection = server.get(PATH, request, "If-None-Match", etag, "Accept-Encoding", "gzip");
+    assertEquals(200, connection.getResponseCode());
+    assertEquals(etag.replaceFirst("\"$", "-gzip\""), connection.getHeaderField("ETag"));
+    ServiceTestServer.readBody(connection);
+
+    // modified by an update of the index
+    IndexManager indexManager = Service.getInstance().getIndexManager();
+    Event event = new CatalogueGenerator(0, 51, BenchmarkIndex.readCBISExports()).generateEvent(50);
+    indexManager.waitForGeneration(indexManager.updateIndex(event, new EventJSONSerialization().marshalEvent(event)));
+    connection = server.get(PATH, request, "If-None-Match", etag);
+    assertEquals(200, connection.getResponseCode());
+    assertFalse(etag.equals(connection.getHeaderField("ETag")));
+    assertEquals(51, new JSONObject(new String(ServiceTestServer.readBody(connection), "UTF8")).getInt("totalNumberOfSearchResults"));
+
+    // searches following an update of their own are never cached
+    String consistencyToken = indexManager.getConsistencyToken(indexManager.updateIndex(event, new EventJSONSerialization().marshalEvent(event)));
+    connection = server.get(PATH, request.put("consistencyToken", consistencyToken), "If-None-Match", "*");
+    assertEquals(200, connection.getResponseCode());
+    assertNull(connection.getHeaderField("ETag"));
+    assertEquals("no-store", connection.getHeaderField("Cache-Control"));
+    ServiceTestServer.readBody(connection);
+
+  }
+
+  public void testDebugTimings() throws Exception {
+
+    HttpURLConnection connection = server.post(PATH, searchRequestFactory().put("debugTimings", true));
+    assertEquals(200, connection.getResponseCode());
+    JSONObject debugTimings = new JSONObject(new String(ServiceTestServer.readBody(connection), "UTF8")).getJSONObject("debugTimings");
+
+    double sum = 0;
+    for (String stage : new String[]{"parse request", "queued", "parse query", "optimize query", "conditional", "admit", "search", "group and sort", "serialize"}) {
+      assertTrue(stage, debugTimings.has(stage));
+      assertTrue(stage, debugTimings.getDouble(stage) >= 0);
+      sum += debugTimings.getDouble(stage);
+    }
+    assertTrue(sum <= debugTimings.getDouble("total"));
+
+    connection = server.post(PATH, searchRequestFactory());
+    assertEquals(200, connection.getResponseCode());
+    assertFalse(new JSONObject(new String(ServiceTestServer.readBody(connection), "UTF8")).has("debugTimings"));
+
+  }
+
+}
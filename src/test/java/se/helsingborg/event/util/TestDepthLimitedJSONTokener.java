@@ -0,0 +1,50 @@
+package se.helsingborg.event.util;
+
+import junit.framework.TestCase;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+
+/**
+ * @author kalle
+ * @since 2026-10-19
+ */
+public class TestDepthLimitedJSONTokener extends TestCase {
+
+  public void testDepth() throws Exception {
+
+    String json = "{\"query\": {\"type\": \"boolean query\", \"clauses\": [{\"occur\": \"must\", \"query\": {\"type\": \"match all documents\"}}]}}";
+
+    // root object, query, clauses, clause, clause query
+    JSONObject parsed = new JSONObject(new DepthLimitedJSONTokener(new StringReader(json), 5));
+    assertEquals("boolean query", parsed.getJSONObject("query").getString("type"));
+
+    try {
+      new JSONObject(new DepthLimitedJSONTokener(new StringReader(json), 4));
+      fail("Expected nesting depth to be exceeded");
+    } catch (JSONException e) {
+      // expected
+    }
+
+  }
+
+  public void testSize() throws Exception {
+
+    byte[] json = "{\"reference\": \"åäö\", \"limit\": 10}".getBytes("UTF8");
+
+    new JSONObject(new DepthLimitedJSONTokener(new InputStreamReader(new SizeLimitedInputStream(new ByteArrayInputStream(json), json.length), "UTF8"), 1));
+
+    SizeLimitedInputStream input = new SizeLimitedInputStream(new ByteArrayInputStream(json), json.length - 1);
+    try {
+      new JSONObject(new DepthLimitedJSONTokener(new InputStreamReader(input, "UTF8"), 1));
+      fail("Expected size to be exceeded");
+    } catch (JSONException e) {
+      assertTrue(input.isExceeded());
+    }
+
+  }
+
+}